@@ -3,6 +3,7 @@ package client;
 import logicLayer.GenerateTree;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Scanner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -87,7 +88,12 @@ public class Client {
         if (f.isDirectory()) {
             long startTime, stopTime, elapsedTime;
             startTime = System.currentTimeMillis();
-            System.out.println(GenerateTree.displayFilesAsync(f, stylize));
+            try {
+                GenerateTree.displayFilesAsync(f, stylize, System.out);
+                System.out.println();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
 //            System.out.println(GenerateTree.displayFiles(f, stylize));
             stopTime = System.currentTimeMillis();
             elapsedTime = stopTime - startTime;
@@ -0,0 +1,212 @@
+package client;
+
+import common.NotPossibleException;
+import logicLayer.tree.LabelCodec;
+import logicLayer.tree.MappedTree;
+import logicLayer.tree.Node;
+import logicLayer.tree.Tree;
+import logicLayer.tree.TreeBuilder;
+import logicLayer.tree.TreeCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @Overview <pre>A regression benchmark for the traversals of Tree on degenerate input: every operation that walks a
+ *    whole subtree is run on a chain of n labels (depth n - 1) and on a balanced binary tree of the same size. None of
+ *    them may overflow the call stack, and the chain should not be much slower than the balanced tree.
+ *    The trees are built with TreeBuilder; building them with addNode() is measured separately, since addNode() defers
+ *    the bookkeeping of the ancestors to the first read, which must then settle the whole chain in linear time.
+ *    Usage: DeepChainBenchmark [n]   (default 100000)</pre>
+ */
+public class DeepChainBenchmark {
+    /**
+     * the size of the trees that are rendered as text, since each line of a chain is indented by its depth, i.e. the
+     * text of a chain of n labels has O(n^2) characters
+     */
+    private static final int TEXT_SIZE = 2000;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        try {
+            System.out.printf("%-28s%14s%14s%n", "n = " + n, "chain (ms)", "balanced (ms)");
+            runAddNode(n);
+            run(build(n), n);
+            int m = Math.min(n, TEXT_SIZE);
+            System.out.printf("%-28s%14s%14s%n", "n = " + m, "chain (ms)", "balanced (ms)");
+            runText(build(m), m);
+        } catch (NotPossibleException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @effects return {a chain of the labels 0..n-1, a balanced binary tree of the labels 0..n-1}
+     */
+    private static Tree<Integer>[] build(int n) throws NotPossibleException {
+        Integer[] labels = new Integer[n];
+        int[] chain = new int[n];
+        int[] balanced = new int[n];
+        for (int i = 0; i < n; i++) {
+            labels[i] = i;
+            chain[i] = i - 1;
+            balanced[i] = i == 0 ? -1 : (i - 1) / 2;
+        }
+        Tree<Integer>[] trees = newTrees(2);
+        trees[0] = TreeBuilder.fromParentArray(labels, chain);
+        trees[1] = TreeBuilder.fromParentArray(labels, balanced);
+        return trees;
+    }
+
+    /**
+     * @effects return a new array of length trees
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Tree<Integer>[] newTrees(int length) {
+        return new Tree[length];
+    }
+
+    /**
+     * @effects time building the chain and the balanced tree of n labels with addNode(), and the first read of each,
+     * which settles the sizes and heights that addNode() deferred
+     */
+    private static void runAddNode(int n) {
+        Tree<Integer>[] trees = newTrees(2);
+        long[] times = new long[2];
+        for (int k = 0; k < 2; k++) {
+            long start = System.nanoTime();
+            trees[k] = new Tree<>();
+            trees[k].add(0);
+            for (int i = 1; i < n; i++) {
+                trees[k].addNode(k == 0 ? i - 1 : (i - 1) / 2, i);
+            }
+            times[k] = check(start, trees[k].size() == n);
+        }
+        report("addNode", times);
+
+        for (int k = 0; k < 2; k++) {
+            long start = System.nanoTime();
+            int height = k == 0 ? n - 1 : 31 - Integer.numberOfLeadingZeros(n);
+            times[k] = check(start, trees[k].getHeight() == height);
+        }
+        report("getHeight after addNode", times);
+    }
+
+    private static void runText(Tree<Integer>[] trees, int n) throws NotPossibleException {
+        Integer middle = n / 2;
+        long[] times = new long[2];
+        for (int k = 0; k < 2; k++) {
+            long start = System.nanoTime();
+            times[k] = check(start, trees[k].toString(false).length() > n);
+        }
+        report("toString", times);
+
+        for (int k = 0; k < 2; k++) {
+            long start = System.nanoTime();
+            StringBuilder sb = new StringBuilder();
+            trees[k].toString(sb, new Node<>(middle), false);
+            times[k] = check(start, sb.length() > 0);
+        }
+        report("toString(sb, middle)", times);
+    }
+
+    private static void run(Tree<Integer>[] trees, int n) throws IOException {
+        Integer middle = n / 2;
+        long[] times = new long[2];
+
+        for (int k = 0; k < 2; k++) {
+            long start = System.nanoTime();
+            long sum = 0;
+            for (Iterator<Integer> it = trees[k].iterator(); it.hasNext(); ) {
+                sum += it.next();
+            }
+            times[k] = check(start, sum == (long) n * (n - 1) / 2);
+        }
+        report("iterator", times);
+
+        for (int k = 0; k < 2; k++) {
+            long start = System.nanoTime();
+            times[k] = check(start, trees[k].toArray(true).length > 0);
+        }
+        report("toArray(true)", times);
+
+        for (int k = 0; k < 2; k++) {
+            long start = System.nanoTime();
+            times[k] = check(start, trees[k].getLabels().size() == n);
+        }
+        report("getLabels", times);
+
+        for (int k = 0; k < 2; k++) {
+            long start = System.nanoTime();
+            times[k] = check(start, trees[k].getLevelArray().length > 0 && trees[k].getStatistics() != null);
+        }
+        report("getLevelArray/getStatistics", times);
+
+        for (int k = 0; k < 2; k++) {
+            long start = System.nanoTime();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            TreeCodec.write(trees[k], bytes, LabelCodec.INTEGER);
+            Tree<Integer> copy = TreeCodec.read(new ByteArrayInputStream(bytes.toByteArray()), LabelCodec.INTEGER);
+            times[k] = check(start, copy.size() == n);
+        }
+        report("TreeCodec round trip", times);
+
+        File file = File.createTempFile("chain", ".tree");
+        try {
+            for (int k = 0; k < 2; k++) {
+                long start = System.nanoTime();
+                MappedTree.write(trees[k], file, LabelCodec.INTEGER);
+                Tree<Integer> copy = MappedTree.open(file, LabelCodec.INTEGER).toTree();
+                times[k] = check(start, copy.size() == n && copy.getHeight() == trees[k].getHeight());
+            }
+            report("MappedTree round trip", times);
+        } finally {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+
+        for (int k = 0; k < 2; k++) {
+            long start = System.nanoTime();
+            times[k] = check(start, trees[k].clone().size() == n);
+        }
+        report("clone", times);
+
+        for (int k = 0; k < 2; k++) {
+            long start = System.nanoTime();
+            Tree<Integer> subtree = trees[k].subTree(middle, true);
+            times[k] = check(start, subtree.size() + trees[k].size() == n);
+        }
+        report("subTree(middle, true)", times);
+
+        for (int k = 0; k < 2; k++) {
+            long start = System.nanoTime();
+            times[k] = check(start, trees[k].remove(1) && !trees[k].contains(1));
+        }
+        report("remove(1)", times);
+    }
+
+    /**
+     * @effects <pre>
+     *   if ok
+     *     return the milliseconds since start
+     *   else
+     *     throw new IllegalStateException
+     * </pre>
+     */
+    private static long check(long start, boolean ok) {
+        if (!ok) {
+            throw new IllegalStateException("Unexpected result");
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static void report(String operation, long[] times) {
+        System.out.printf("%-28s%14d%14d%n", operation, times[0], times[1]);
+    }
+}
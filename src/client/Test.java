@@ -160,11 +160,11 @@ public class Test {
 
             System.out.println("-----------\n");
             Tree<Integer> e10 = e.clone();
-            System.out.println("swap values of label '1' and '888'");
+            System.out.println("swap values of label '1' and '7'");
             System.out.println("before:");
             System.out.println(e10);
             System.out.println("after");
-            e10.swap(1, 888);
+            e10.swap(1, 7);
             System.out.println(e10);
         } catch (NotPossibleException e) {
             e.printStackTrace();
@@ -6,6 +6,7 @@ package common;
  * @version 1.0
  */
 public class NotPossibleException extends Exception{
+    private static final long serialVersionUID = 1L;
     public NotPossibleException() {
         super();
     }
@@ -0,0 +1,60 @@
+package common;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * @Overview Represents an immutable pair of two values.
+ * @attributes <pre>
+ * left     L
+ * right    R
+ * </pre>
+ * @Object a typical Pair is P:<l, r> where l is left, r is right
+ * @author Phan Quang Tuan
+ * @version 1.0
+ */
+public class Pair<L, R> implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final L left;
+    private final R right;
+
+    /**
+     * @effects initialise this as P:<left, right>
+     */
+    public Pair(L left, R right) {
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * @effects return left
+     */
+    public L getLeft() {
+        return left;
+    }
+
+    /**
+     * @effects return right
+     */
+    public R getRight() {
+        return right;
+    }
+
+    @Override
+    public String toString() {
+        return "<" + left + ", " + right + ">";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Pair<?, ?> pair = (Pair<?, ?>) o;
+        return Objects.equals(left, pair.left) && Objects.equals(right, pair.right);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(left, right);
+    }
+}
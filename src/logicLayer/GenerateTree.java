@@ -3,10 +3,10 @@ package logicLayer;
 import logicLayer.tree.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -14,7 +14,7 @@ import java.util.concurrent.ForkJoinPool;
 
 /**
  * @author Phan Quang Tuan
- * @version 1.7
+ * @version 1.9
  * @Overview this class constructs and returns tree
  * @jdk_version_requires >= 1.8
  */
@@ -89,51 +89,52 @@ public abstract class GenerateTree {
         System.out.println("-------------------------------------------------------\n");
     }
 
-    // way 5: Side-effect CompletableFuture
-    private final static Map<CompletableFuture<Void>, Tree<File>> treeMap = new HashMap<>();    // pairs of promises - trees
-
+    // way 6: every worker inserts its directory's entries straight into one shared ConcurrentTree
     /**
-     * An asynchronous method for adding files, folders and its sub-contents to the provided tree.
-     * @requires tree != null
-     * @modifies tree, treeMap
+     * List the given directory and add its entries to the provided tree as children of directory: files first, then
+     * sub-directories, both in the order of listFiles().
+     * @requires tree != null /\ directory is in tree
+     * @modifies tree
      * @effects <pre>
-     *    1. for all File f in tree.root.listFiles
-     *       if f is dir
-     *          - initialize new Tree t
-     *          - add f to t
-     *          - make a promise p = buildTreeAsync(t)
-     *          - map p with t;     i.e. In treeMap, make a pair of promise - tree
-     *       else
-     *          add f to tree
-     *
-     *    2. await for all promises that have been made in this method call.
-     *    3. for each promise has been made, get t from map of { p : t }, then add t to tree
+     *    for all File f in directory.listFiles, files before directories
+     *      tree.addNode(directory, f)
+     *    return the sub-directories of directory
      * </pre>
      */
-    private static CompletableFuture<Void> buildTreeAsync(Tree<File> tree) {
-        return CompletableFuture.supplyAsync(() -> {
-            File file = tree.getRoot();
-            File[] files = file.listFiles();
-            if (files != null) {
-                List<CompletableFuture<Void>> childFutures = new ArrayList<>();
-                for (File subfile : files) {
-                    if (subfile.isDirectory()) {
-                        Tree<File> childNode = new Tree<>();
-                        childNode.add(subfile);
-                        CompletableFuture<Void> childFuture = buildTreeAsync(childNode);
-                        childFutures.add(childFuture);
-                        treeMap.put(childFuture, childNode);
-                    } else {
-                        tree.add(subfile);
-                    }
+    private static List<File> scan(ConcurrentTree<File> tree, File directory) {
+        List<File> subdirectories = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File subfile : files) {
+                if (subfile.isDirectory()) {
+                    subdirectories.add(subfile);
+                } else {
+                    tree.addNode(directory, subfile);
                 }
-                // .allOf is await for the completion of multiple promises, while .join() is await for a single promise
-                // await == pause coroutine == block current thread
-                CompletableFuture.allOf(childFutures.toArray(new CompletableFuture[0])).join();
-                childFutures.forEach(t -> tree.addAll(treeMap.get(t)));
             }
-            return null;
-        });
+            for (File subdirectory : subdirectories) {
+                tree.addNode(directory, subdirectory);
+            }
+        }
+        return subdirectories;
+    }
+
+    /**
+     * An asynchronous method for adding files, folders and its sub-contents to the provided tree. Each promise scans
+     * one directory and inserts its entries directly into the shared tree, so nothing has to be merged afterwards and
+     * no worker blocks while waiting for its sub-directories.
+     * @requires tree != null /\ directory is in tree
+     * @modifies tree
+     * @effects <pre>
+     *    1. subdirectories = scan(tree, directory)
+     *    2. return a promise that completes when buildTreeAsync(tree, d) has completed for all d in subdirectories
+     * </pre>
+     */
+    private static CompletableFuture<Void> buildTreeAsync(ConcurrentTree<File> tree, File directory) {
+        return CompletableFuture.supplyAsync(() -> scan(tree, directory))
+                .thenCompose(subdirectories -> CompletableFuture.allOf(subdirectories.stream()
+                        .map(d -> buildTreeAsync(tree, d))
+                        .toArray(CompletableFuture[]::new)));
     }
 
     /**
@@ -141,78 +142,75 @@ public abstract class GenerateTree {
      * which comes from this method's supplier, will be handled in the given ExecutorService instance.
      * @param executor the specified <code><strong>ExecutorService</strong></code> to handle the events of async
      *                 supplier.
-     * @requires tree != null /\ executor != null
-     * @modifies tree, treeMap
+     * @requires tree != null /\ directory is in tree /\ executor != null
+     * @modifies tree
      * @effects <pre>
-     *    1. for all File f in tree.root.listFiles
-     *       if f is dir
-     *          - initialize new Tree t
-     *          - add f to t
-     *          - make a promise p = buildTreeAsync(t)
-     *          - map p with t;     i.e. In treeMap, make a pair of promise - tree
-     *       else
-     *          add f to tree
-     *
-     *    2. await for all promises that have been made in this method call.
-     *    3. for each promise has been made, get t from map of { p : t }, then add t to tree
+     *    1. subdirectories = scan(tree, directory), run in executor
+     *    2. return a promise that completes when buildTreeAsync(tree, d, executor) has completed for all d in
+     *       subdirectories
      * </pre>
      */
-    private static CompletableFuture<Void> buildTreeAsync(Tree<File> tree, ExecutorService executor) {
-        return CompletableFuture.supplyAsync(() -> {
-            File file = tree.getRoot();
-            File[] files = file.listFiles();
-            if (files != null) {
-                List<CompletableFuture<Void>> childFutures = new ArrayList<>();
-                for (File subfile : files) {
-                    if (subfile.isDirectory()) {
-                        Tree<File> childNode = new Tree<>();
-                        childNode.add(subfile);
-                        CompletableFuture<Void> childFuture = buildTreeAsync(childNode, executor);
-                        treeMap.put(childFuture, childNode);
-                        childFutures.add(childFuture);
-                    } else {
-                        tree.add(subfile);
-                    }
-                }
-                // .allOf is await for the completion of multiple promises, while .join() is await for a single promise
-                // await == pause coroutine == block current thread
-                CompletableFuture.allOf(childFutures.toArray(new CompletableFuture[0])).join();
-                childFutures.forEach(t -> tree.addAll(treeMap.get(t)));
-            }
-            return null;
-        }, executor);
+    private static CompletableFuture<Void> buildTreeAsync(ConcurrentTree<File> tree, File directory,
+                                                          ExecutorService executor) {
+        return CompletableFuture.supplyAsync(() -> scan(tree, directory), executor)
+                .thenCompose(subdirectories -> CompletableFuture.allOf(subdirectories.stream()
+                        .map(d -> buildTreeAsync(tree, d, executor))
+                        .toArray(CompletableFuture[]::new)));
     }
 
     /**
      * This is an operation that constructs the string representation of the tree using asynchronous steps of building
      * tree.
      * @requires file == null /\ file.isDirectory()
-     * @modifies treeMap
      * @effects <pre>
-     *   - initialize a new tree t
-     *   - build tree asynchronously by calling buildTreeAsync(tree)
-     *      -> if exception: build tree asynchronously again, given a custom pool (expected large size)
-     *   - at the end: calculate the measurements
+     *   - t = generateTreeAsync(file)
      *   - return t.toString(stylize)
      * </pre>
      */
     public static String displayFilesAsync(File file, boolean stylize) {
-        treeMap.clear();
-        Tree<File> tree = new Tree<>();
+        return generateTreeAsync(file).toString(stylize);
+    }
+
+    /**
+     * This is an operation that writes the string representation of the tree, which is built asynchronously, directly
+     * to the given stream (encoded in UTF-8) instead of constructing it in memory first.
+     * @requires file == null /\ file.isDirectory() /\ out != null
+     * @modifies out
+     * @effects <pre>
+     *   - t = generateTreeAsync(file)
+     *   - t.print(out, stylize)
+     * </pre>
+     */
+    public static void displayFilesAsync(File file, boolean stylize, OutputStream out) throws IOException {
+        generateTreeAsync(file).print(out, stylize);
+    }
+
+    /**
+     * @requires file == null /\ file.isDirectory()
+     * @effects <pre>
+     *   - initialize a new concurrent tree t whose root is file
+     *   - build tree asynchronously by calling buildTreeAsync(t, file)
+     *      -> if exception: build tree asynchronously again, given a custom pool (expected large size)
+     *   - at the end: calculate the measurements
+     *   - return t
+     * </pre>
+     */
+    private static ConcurrentTree<File> generateTreeAsync(File file) {
+        ConcurrentTree<File> tree = new ConcurrentTree<>();
         tree.add(file);
         try {
-            buildTreeAsync(tree).get();     // await
+            buildTreeAsync(tree, file).get();     // await
         } catch (InterruptedException | ExecutionException e) {
             e.printStackTrace();
             System.out.println("attempt to use larger number of threads...");
             try {
-                buildTreeAsync(tree, new ForkJoinPool(20)).get();       // await
+                buildTreeAsync(tree, file, new ForkJoinPool(20)).get();       // await
             } catch (InterruptedException | ExecutionException ex) {
                 ex.printStackTrace();
             }
         } finally {
             measurement();
         }
-        return tree.toString(stylize);
+        return tree;
     }
 }
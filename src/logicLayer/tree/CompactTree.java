@@ -0,0 +1,1359 @@
+package logicLayer.tree;
+
+import common.NotPossibleException;
+import common.Pair;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @overview <pre>A compact, array-backed alternative of Tree that offers the same Set and tree operations.
+ *    Instead of a Node, an Edge, two HashMap entries and an ArrayList per label, every label is given a dense
+ *    int id and the structure is kept in parallel primitive arrays indexed by that id. The labels are stored in a
+ *    single array and looked up through one open-addressing hash table of ids, so no object is allocated per node.
+ *    The root always has the id 0. When nodes are removed, the remaining nodes with the highest ids are moved into
+ *    the freed slots so that the ids stay dense.
+ *    <p>Traversals walk firstChild/nextSibling/parent without any stack. Every node also keeps the size of its subtree,
+ *    so positional access (get(int), indexOf(), subList()) descends from the root and skips whole subtrees. It costs
+ *    O(depth * degree), since the siblings before each node on the path are scanned, instead of O(index). Like
+ *    Tree.addNode(), append() defers the size updates of the ancestors to the next settle().</pre>
+ * @attributes <pre>
+ * labels           Object[]    labels[id] is the label of node id
+ * parent           int[]       id of the parent of node id, or NIL for the root
+ * firstChild       int[]       id of the first child of node id, or NIL
+ * lastChild        int[]       id of the last child of node id, or NIL
+ * nextSibling      int[]       id of the right sibling of node id, or NIL
+ * prevSibling      int[]       id of the left sibling of node id, or NIL
+ * depth            int[]       number of edges between node id and the root
+ * subtreeSize      int[]       number of nodes in the subtree of node id, once settle() has run
+ * table            int[]       open-addressing hash table of (id + 1), 0 means an empty slot
+ * size             int         number of nodes, ids are 0..size-1
+ * height           int         height of the root, or -1 if it is recomputed by the next getHeight()
+ * unsettled        int[]       unsettled[0..unsettledCount-1] are the ids appended since the last settle()
+ * </pre>
+ * @Object <pre>
+ *         a typical CompactTree is T:<r,p,l> where r is labels[0], p is parent and l is labels, which is the same tree
+ *         as Tree T:<N:<labels[0]>, {N:<labels[i]> : E:<N:<labels[p[i]]>, N:<labels[i]>>}, ...>
+ *         </pre>
+ * @rep_invariant <pre>
+ *   size >= 0 /\ all arrays have the same length >= size /\ labels[0..size-1] are not null and distinct /\
+ *   parent[0] = NIL /\ 0 <= parent[i] < size for 0 < i < size /\
+ *   the children of every node form a list firstChild -> nextSibling -> ... -> lastChild linked back by prevSibling /\
+ *   depth[0] = 0 /\ depth[i] = depth[parent[i]] + 1 /\ table contains exactly the ids 0..size-1 /\
+ *   (height = -1 \/ height = max(depth[0..size-1])) /\
+ *   subtreeSize[i] = 1 + sum of subtreeSize[c] for all children c of i, except for the updates of the ancestors of
+ *   the unsettled ids
+ * </pre>
+ * @jdk_version_requires 1.8
+ */
+public class CompactTree<E> implements Set<E>, Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int NIL = -1;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private Object[] labels;
+    private int[] parent;
+    private int[] firstChild;
+    private int[] lastChild;
+    private int[] nextSibling;
+    private int[] prevSibling;
+    private int[] depth;
+    private int[] subtreeSize;
+    private int[] table;
+    private int size;
+    private int height;
+    private int[] unsettled;
+    private int unsettledCount;
+    private transient int modCount;
+
+    /**
+     * @effects init this as an empty tree
+     */
+    public CompactTree() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * This constructor is private so that it cannot be mistaken for CompactTree(E label) when E is Integer.
+     * @requires initialCapacity >= 0
+     * @effects init this as an empty tree that can hold initialCapacity labels without growing
+     */
+    private CompactTree(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        labels = new Object[capacity];
+        parent = new int[capacity];
+        firstChild = new int[capacity];
+        lastChild = new int[capacity];
+        nextSibling = new int[capacity];
+        prevSibling = new int[capacity];
+        depth = new int[capacity];
+        subtreeSize = new int[capacity];
+        table = new int[tableCapacity(capacity)];
+        unsettled = new int[0];
+    }
+
+    /**
+     * @requires label!=null
+     * @effects <pre>
+     *   if label!=null
+     *     init this as a tree whose root is label
+     *   else
+     *     throw new NotPossibleException
+     * </pre>
+     */
+    public CompactTree(E label) throws NotPossibleException {
+        this();
+        if (label == null) {
+            throw new NotPossibleException("Null Node");
+        }
+        append(NIL, label);
+    }
+
+    /**
+     * @requires c!=null
+     * @effects <pre>
+     *   if c!=null
+     *     init this as an empty tree
+     *     addAll c to this
+     *   else
+     *     throw new NotPossibleException
+     * </pre>
+     */
+    public CompactTree(Collection<? extends E> c) throws NotPossibleException {
+        this(c != null ? c.size() : DEFAULT_CAPACITY);
+        boolean valid = addAll(c);
+        if (!valid) {
+            throw new NotPossibleException("Invalid Collection: " + c);
+        }
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * id management
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * @effects return the smallest power of 2 that is at least twice the given capacity
+     */
+    private static int tableCapacity(int capacity) {
+        int n = 2;
+        while (n < capacity * 2) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    /**
+     * @effects return the home slot of label in table
+     */
+    private int slot(Object label) {
+        int h = label.hashCode();
+        return (h ^ (h >>> 16)) & (table.length - 1);
+    }
+
+    /**
+     * @effects return the id of label, or NIL if label is not in this
+     */
+    private int idOf(Object label) {
+        if (label == null) {
+            return NIL;
+        }
+        int mask = table.length - 1;
+        for (int i = slot(label); table[i] != 0; i = (i + 1) & mask) {
+            int id = table[i] - 1;
+            if (labels[id].equals(label)) {
+                return id;
+            }
+        }
+        return NIL;
+    }
+
+    /**
+     * @requires labels[id] is not in table
+     * @modifies table
+     * @effects put id into the first free slot from the home slot of labels[id]
+     */
+    private void tableInsert(int id) {
+        int mask = table.length - 1;
+        int i = slot(labels[id]);
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = id + 1;
+    }
+
+    /**
+     * @requires id is in table
+     * @effects return the slot of table that holds id
+     */
+    private int tableSlotOf(int id) {
+        int mask = table.length - 1;
+        int i = slot(labels[id]);
+        while (table[i] != id + 1) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Remove id from table, shifting back the following entries of the cluster so that no tombstone is needed.
+     * @requires id is in table /\ labels[id] is still the label of id
+     * @modifies table
+     */
+    private void tableRemove(int id) {
+        int mask = table.length - 1;
+        int hole = tableSlotOf(id);
+        table[hole] = 0;
+        for (int j = (hole + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int home = slot(labels[table[j] - 1]);
+            // the entry at j may fill the hole unless its home slot lies cyclically in (hole, j]
+            boolean movable = hole <= j ? (home <= hole || home > j) : (home <= hole && home > j);
+            if (movable) {
+                table[hole] = table[j];
+                table[j] = 0;
+                hole = j;
+            }
+        }
+    }
+
+    /**
+     * @requires minCapacity > 0
+     * @modifies all arrays of this
+     * @effects grow the arrays so that they can hold at least minCapacity labels
+     */
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > labels.length) {
+            int capacity = Math.max(minCapacity, labels.length + (labels.length >> 1) + 1);
+            labels = Arrays.copyOf(labels, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            lastChild = Arrays.copyOf(lastChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            prevSibling = Arrays.copyOf(prevSibling, capacity);
+            depth = Arrays.copyOf(depth, capacity);
+            subtreeSize = Arrays.copyOf(subtreeSize, capacity);
+        }
+        if (minCapacity * 2 > table.length) {
+            table = new int[tableCapacity(minCapacity)];
+            for (int id = 0; id < size; id++) {
+                tableInsert(id);
+            }
+        }
+    }
+
+    /**
+     * Add a new node as the last child of node p, or as the root if p is NIL. The subtree sizes of its ancestors are
+     * updated by the next settle().
+     * @requires label != null /\ label is not in this /\ (p = NIL /\ this is empty \/ 0 <= p < size)
+     * @modifies this
+     * @effects return the id of the new node
+     * @Time_complexity O(1) amortized
+     */
+    private int append(int p, E label) {
+        ensureCapacity(size + 1);
+        int id = size++;
+        labels[id] = label;
+        firstChild[id] = NIL;
+        lastChild[id] = NIL;
+        nextSibling[id] = NIL;
+        subtreeSize[id] = 1;
+        tableInsert(id);
+        link(p, id);
+        if (height >= 0 && depth[id] > height) {
+            height = depth[id];
+        }
+        if (p != NIL) {
+            if (unsettledCount == unsettled.length) {
+                unsettled = Arrays.copyOf(unsettled, Math.max(DEFAULT_CAPACITY, unsettledCount * 2));
+            }
+            unsettled[unsettledCount++] = id;
+        }
+        modCount++;
+        return id;
+    }
+
+    /**
+     * Apply the subtree size updates that append() deferred. Walking up from every unsettled node costs its depth, so
+     * if that adds up to more than size (e.g. a chain built with addNode()) all sizes are recomputed bottom-up in one
+     * pass instead. Every method that reads subtreeSize, or that moves ids, calls this first.
+     * @modifies subtreeSize, unsettled
+     * @effects <pre>
+     *   if unsettledCount > 0
+     *     if the sum of the depths of the unsettled nodes <= size
+     *       add 1 to the subtree size of every ancestor of every unsettled node
+     *     else
+     *       recompute the subtree size of every node from its children
+     *     unsettledCount = 0
+     * </pre>
+     * @Time_complexity O(min(sum of the depths of the unsettled nodes, n))
+     */
+    private void settle() {
+        if (unsettledCount == 0) {
+            return;
+        }
+        long cost = 0;
+        for (int i = 0; i < unsettledCount; i++) {
+            cost += depth[unsettled[i]];
+        }
+        if (cost <= size) {
+            for (int i = 0; i < unsettledCount; i++) {
+                resize(parent[unsettled[i]], 1);
+            }
+        } else {
+            // ids are not ordered by depth once nodes are moved, so add the sizes up in reverse pre-order
+            int[] order = new int[size];
+            int k = 0;
+            for (int n = 0; n != NIL; n = next(n, 0)) {
+                order[k++] = n;
+            }
+            Arrays.fill(subtreeSize, 0, size, 1);
+            for (int i = size - 1; i > 0; i--) {
+                subtreeSize[parent[order[i]]] += subtreeSize[order[i]];
+            }
+        }
+        unsettledCount = 0;
+    }
+
+    /**
+     * @modifies subtreeSize
+     * @effects add delta to the subtree size of n and all of its ancestors
+     */
+    private void resize(int n, int delta) {
+        for (; n != NIL; n = parent[n]) {
+            subtreeSize[n] += delta;
+        }
+    }
+
+    /**
+     * @requires node id is detached /\ (p = NIL \/ 0 <= p < size)
+     * @modifies this
+     * @effects make id the last child of p and update the depths of the subtree of id
+     */
+    private void link(int p, int id) {
+        parent[id] = p;
+        nextSibling[id] = NIL;
+        if (p == NIL) {
+            prevSibling[id] = NIL;
+            depth[id] = 0;
+            return;
+        }
+        prevSibling[id] = lastChild[p];
+        if (lastChild[p] != NIL) {
+            nextSibling[lastChild[p]] = id;
+        } else {
+            firstChild[p] = id;
+        }
+        lastChild[p] = id;
+        int delta = depth[p] + 1 - depth[id];
+        depth[id] += delta;
+        if (delta != 0) {
+            for (int n = next(id, id); n != NIL; n = next(n, id)) {
+                depth[n] += delta;
+            }
+        }
+    }
+
+    /**
+     * @requires 0 < id < size
+     * @modifies this
+     * @effects detach the subtree of id from its parent and its siblings
+     */
+    private void unlink(int id) {
+        int p = parent[id];
+        if (prevSibling[id] != NIL) {
+            nextSibling[prevSibling[id]] = nextSibling[id];
+        } else {
+            firstChild[p] = nextSibling[id];
+        }
+        if (nextSibling[id] != NIL) {
+            prevSibling[nextSibling[id]] = prevSibling[id];
+        } else {
+            lastChild[p] = prevSibling[id];
+        }
+        parent[id] = NIL;
+        prevSibling[id] = NIL;
+        nextSibling[id] = NIL;
+    }
+
+    /**
+     * Remove the subtree of id and keep the ids dense by moving the nodes with the highest ids into the freed slots.
+     * @requires 0 < id < size
+     * @modifies this
+     * @effects return the number of removed nodes
+     */
+    private int removeSubtree(int id) {
+        settle();
+        int p = parent[id];
+        unlink(id);
+        resize(p, -subtreeSize[id]);
+        height = -1;
+        int[] removed = new int[subtreeSize[id]];
+        int k = 0;
+        for (int n = id; n != NIL; n = next(n, id)) {
+            removed[k++] = n;
+        }
+        for (int n : removed) {
+            tableRemove(n);
+        }
+        Arrays.sort(removed);
+        // move the live nodes with the highest ids into the holes, from the lowest hole upwards
+        int last = size - 1;
+        int top = removed.length - 1;
+        for (int hole : removed) {
+            while (top >= 0 && removed[top] == last) {
+                top--;
+                last--;
+            }
+            if (hole >= last) {
+                break;
+            }
+            relocate(last--, hole);
+        }
+        for (int n = size - removed.length; n < size; n++) {
+            labels[n] = null;
+        }
+        size -= removed.length;
+        modCount++;
+        return removed.length;
+    }
+
+    /**
+     * @requires from is a live node /\ to is a free slot
+     * @modifies this
+     * @effects move node from to the slot to, redirecting every reference to it
+     */
+    private void relocate(int from, int to) {
+        labels[to] = labels[from];
+        parent[to] = parent[from];
+        firstChild[to] = firstChild[from];
+        lastChild[to] = lastChild[from];
+        nextSibling[to] = nextSibling[from];
+        prevSibling[to] = prevSibling[from];
+        depth[to] = depth[from];
+        subtreeSize[to] = subtreeSize[from];
+        table[tableSlotOf(from)] = to + 1;
+
+        int p = parent[to];
+        if (prevSibling[to] != NIL) {
+            nextSibling[prevSibling[to]] = to;
+        } else if (p != NIL) {
+            firstChild[p] = to;
+        }
+        if (nextSibling[to] != NIL) {
+            prevSibling[nextSibling[to]] = to;
+        } else if (p != NIL) {
+            lastChild[p] = to;
+        }
+        for (int c = firstChild[to]; c != NIL; c = nextSibling[c]) {
+            parent[c] = to;
+        }
+        labels[from] = null;
+    }
+
+    /**
+     * Return the node that follows n in pre-order traversal of the subtree of subRoot.
+     * @requires n is in the subtree of subRoot
+     * @effects return the id of the next node, or NIL if n is the last node of the subtree
+     */
+    private int next(int n, int subRoot) {
+        if (firstChild[n] != NIL) {
+            return firstChild[n];
+        }
+        return nextAfterSubtree(n, subRoot);
+    }
+
+    /**
+     * @requires n is in the subtree of subRoot
+     * @effects return the id of the first node after the subtree of n in pre-order traversal of the subtree of
+     * subRoot, or NIL if there is none
+     */
+    private int nextAfterSubtree(int n, int subRoot) {
+        while (n != subRoot) {
+            if (nextSibling[n] != NIL) {
+                return nextSibling[n];
+            }
+            n = parent[n];
+        }
+        return NIL;
+    }
+
+    /**
+     * @effects return true if a is an ancestor of b or a == b
+     */
+    private boolean isAncestorOrSelf(int a, int b) {
+        while (depth[b] > depth[a]) {
+            b = parent[b];
+        }
+        return a == b;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E label(int id) {
+        return (E) labels[id];
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * Set operations
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * @effects return the number of labels in this
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return idOf(o) != NIL;
+    }
+
+    /**
+     * @effects <pre>
+     *   return a generator that contains all labels of this in pre-order. The generator fails fast if this is modified
+     *   other than through its remove().
+     * </pre>
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Generator();
+    }
+
+    private class Generator implements Iterator<E> {
+        private int next = size > 0 ? 0 : NIL;
+        private int last = NIL;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return next != NIL;
+        }
+
+        @Override
+        public E next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next == NIL) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = CompactTree.this.next(next, 0);
+            return label(last);
+        }
+
+        /**
+         * Remove the last returned label together with its subtree, which is therefore skipped by this generator.
+         */
+        @Override
+        public void remove() {
+            if (last == NIL) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (last == 0) {
+                clear();
+                next = NIL;
+            } else {
+                // ids move on removal, so remember the label of the next node instead of its id
+                int after = nextAfterSubtree(last, 0);
+                Object nextLabel = after != NIL ? labels[after] : null;
+                removeSubtree(last);
+                next = idOf(nextLabel);
+            }
+            last = NIL;
+            expectedModCount = modCount;
+        }
+    }
+
+    @Override
+    public Object[] toArray() {
+        Object[] a = new Object[size];
+        int i = 0;
+        for (int n = size > 0 ? 0 : NIL; n != NIL; n = next(n, 0)) {
+            a[i++] = labels[n];
+        }
+        return a;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] a) {
+        if (a.length < size) {
+            a = (T[]) java.lang.reflect.Array.newInstance(a.getClass().getComponentType(), size);
+        }
+        int i = 0;
+        for (int n = size > 0 ? 0 : NIL; n != NIL; n = next(n, 0)) {
+            a[i++] = (T) labels[n];
+        }
+        if (a.length > size) {
+            a[size] = null;
+        }
+        return a;
+    }
+
+    /**
+     * @modifies this
+     * @effects <pre>
+     *   if label==null \/ contain(label)==true
+     *     return false
+     *   else
+     *     if this is empty
+     *       add label as root
+     *     else
+     *       add label as the last child of root
+     *     return true
+     * </pre>
+     */
+    @Override
+    public boolean add(E label) {
+        if (label == null || contains(label)) {
+            return false;
+        }
+        append(size > 0 ? 0 : NIL, label);
+        return true;
+    }
+
+    /**
+     * Remove a label from this tree together with all of its descendants.
+     * @modifies this
+     * @effects <pre>
+     *   if contains(o)==false
+     *     return false
+     *   else
+     *     if o is root
+     *       clear()
+     *     else
+     *       remove the subtree of o
+     *     return true
+     * </pre>
+     */
+    @Override
+    public boolean remove(Object o) {
+        int id = idOf(o);
+        if (id == NIL) {
+            return false;
+        }
+        if (id == 0) {
+            clear();
+        } else {
+            removeSubtree(id);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        for (Object o : c) {
+            if (!contains(o)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This method adds all elements of the given collection to this tree, the same way as Tree.addAll() does.
+     * @requires c!=null /\ c is not empty /\ no element of c is an inner node of this
+     * @effects <pre>
+     *   if requirements are not satisfied
+     *     return false
+     *   else if c instance of CompactTree or Tree
+     *     for all labels x of c in pre-order
+     *       if x is root of c
+     *         if x is not in this: add(x)
+     *       else
+     *         addNode(parent of x in c, x)
+     *     return true if all labels were added
+     *   else
+     *     for all elements o in c
+     *       if add(o)==false
+     *         return false
+     *     return true
+     * </pre>
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean addAll(Collection<? extends E> c) {
+        if (c == null || c.isEmpty()) {
+            return false;
+        }
+        for (E o : c) {
+            if (contains(o) && !isLeaf(o)) {
+                return false;
+            }
+        }
+        ensureCapacity(size + c.size());
+        if (c instanceof CompactTree || c instanceof Tree) {
+            boolean success = true;
+            E srcRoot = c instanceof CompactTree ? ((CompactTree<E>) c).getRoot() : ((Tree<E>) c).getRoot();
+            for (E label : c) {
+                if (label.equals(srcRoot)) {
+                    if (!contains(label)) {
+                        success &= add(label);
+                    }
+                } else {
+                    E p = c instanceof CompactTree ? ((CompactTree<E>) c).getParent(label) : ((Tree<E>) c).getParent(label);
+                    success &= addNode(p, label);
+                }
+            }
+            return success;
+        } else {
+            for (E o : c) {
+                if (!add(o)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @requires c!=null
+     * @effects return removeAllCount(c) > 0
+     */
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        if (c == null) return false;
+        return removeAllCount(c) > 0;
+    }
+
+    /**
+     * @requires c!=null
+     * @effects return retainAllCount(c) > 0
+     */
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        if (c == null) return false;
+        return retainAllCount(c) > 0;
+    }
+
+    /**
+     * Remove every label of c from this tree together with its subtree, and return the number of labels that were
+     * dropped (including the descendants that were not in c). Each subtree is unlinked in O(1) and freed in O(its
+     * size), the labels of c that were already dropped with an ancestor are skipped.
+     * @requires c!=null
+     * @modifies this
+     */
+    public int removeAllCount(Collection<?> c) {
+        int dropped = 0;
+        for (Object o : c) {
+            int id = idOf(o);
+            if (id == 0) {
+                dropped += size;
+                clear();
+            } else if (id != NIL) {
+                dropped += removeSubtree(id);
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Keep only the labels of c, and return the number of labels that were dropped. A label that is not in c is
+     * dropped together with its whole subtree. The keep/drop decision is made in a single pre-order pass which does
+     * not descend into the dropped subtrees.
+     * @requires c!=null
+     * @modifies this
+     */
+    public int retainAllCount(Collection<?> c) {
+        Collection<?> keep = c instanceof Set ? c : new HashSet<>(c);
+        List<Object> rejected = new ArrayList<>();
+        int n = size > 0 ? 0 : NIL;
+        while (n != NIL) {
+            if (!keep.contains(labels[n])) {
+                rejected.add(labels[n]);
+                n = nextAfterSubtree(n, 0);
+            } else {
+                n = next(n, 0);
+            }
+        }
+        return removeAllCount(rejected);
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(labels, 0, size, null);
+        Arrays.fill(table, 0);
+        size = 0;
+        height = 0;
+        unsettledCount = 0;
+        modCount++;
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * tree operations
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * @effects return root's label, or null if this is empty
+     */
+    public E getRoot() {
+        return size > 0 ? label(0) : null;
+    }
+
+    /**
+     * @effects return the label of the parent of label, or null if label is the root or is not in this
+     */
+    public E getParent(E label) {
+        int id = idOf(label);
+        return id > 0 ? label(parent[id]) : null;
+    }
+
+    /**
+     * @effects return all labels in pre-order traversal
+     */
+    @SuppressWarnings("unchecked")
+    public List<E> getLabels() {
+        return (List<E>) Arrays.asList(toArray());
+    }
+
+    /**
+     * Add child as the last child of parent.
+     * @modifies this
+     * @effects <pre>
+     *   if parent is not in this \/ child==null \/ child is in this
+     *     return false
+     *   else
+     *     add child as the last child of parent
+     *     return true
+     * </pre>
+     */
+    public boolean addNode(E parent, E child) {
+        int p = idOf(parent);
+        if (p == NIL || child == null || contains(child)) {
+            return false;
+        }
+        append(p, child);
+        return true;
+    }
+
+    /**
+     * This method adds all elements of tree `children` to label `parent`, keeping the structure of `children`. All
+     * elements of `children` must not be in this tree, otherwise this method has no effect and returns false.
+     * @requires parent != null /\ children != null
+     * @modifies this
+     * @effects <pre>
+     *  if parent is in this /\ no label of children is in this
+     *      for all labels x of children in pre-order
+     *          add x as the last child of (x is root of children ? parent : parent of x in children)
+     *      return true
+     *  else
+     *      return false
+     * </pre>
+     */
+    public boolean addNode(E parent, CompactTree<E> children) {
+        int p = idOf(parent);
+        if (p == NIL || children == null || children.isEmpty()) {
+            return false;
+        }
+        for (int n = 0; n < children.size; n++) {
+            if (contains(children.labels[n])) {
+                return false;
+            }
+        }
+        ensureCapacity(size + children.size);
+        // ids[n] is the id in this of node n of children
+        int[] ids = new int[children.size];
+        for (int n = 0; n != NIL; n = children.next(n, 0)) {
+            ids[n] = append(n == 0 ? p : ids[children.parent[n]], children.label(n));
+        }
+        return true;
+    }
+
+    /**
+     * Return the number of edges along the unique path between it and the root node. If the label is not in the tree,
+     * return -1.
+     * @effects return depth of label, or -1 if label is not in this
+     */
+    public int getLevel(E label) {
+        int id = idOf(label);
+        return id != NIL ? depth[id] : -1;
+    }
+
+    /**
+     * @effects return the level of every label in pre-order traversal
+     */
+    public int[] getLevelArray() {
+        int[] array = new int[size];
+        int i = 0;
+        for (int n = size > 0 ? 0 : NIL; n != NIL; n = next(n, 0)) {
+            array[i++] = depth[n];
+        }
+        return array;
+    }
+
+    /**
+     * Return the level array, the number of nodes at each level and the number of nodes of each degree of this tree,
+     * all computed in a single pre-order pass.
+     */
+    public TreeStatistics getStatistics() {
+        int[] levels = getLevelArray();
+        int[] widths = new int[getHeight() + (size > 0 ? 1 : 0)];
+        int[] degrees = new int[size > 0 ? 1 : 0];
+        for (int n = 0; n < size; n++) {
+            widths[depth[n]]++;
+            int degree = 0;
+            for (int c = firstChild[n]; c != NIL; c = nextSibling[c]) {
+                degree++;
+            }
+            if (degree >= degrees.length) {
+                degrees = Arrays.copyOf(degrees, degree + 1);
+            }
+            degrees[degree]++;
+        }
+        return new TreeStatistics(levels, widths, degrees);
+    }
+
+    /**
+     * Return The height of a node which is the number of edges from the node to the deepest leaf. If the label is not
+     * in the tree, return -1
+     * @Time_complexity O(size of the subtree of label)
+     */
+    public int getHeight(E label) {
+        int id = idOf(label);
+        if (id == NIL) {
+            return -1;
+        }
+        int max = depth[id];
+        for (int n = id; n != NIL; n = next(n, id)) {
+            max = Math.max(max, depth[n]);
+        }
+        return max - depth[id];
+    }
+
+    /**
+     * Return the height of this tree, i.e. the height of the root. It is cached and raised by every addition, and
+     * rescanned from the depths only after a removal or a move.
+     * @Time_complexity O(1), or O(n) for the first call after a removal or a move
+     */
+    public int getHeight() {
+        if (height < 0) {
+            height = 0;
+            for (int n = 0; n < size; n++) {
+                height = Math.max(height, depth[n]);
+            }
+        }
+        return height;
+    }
+
+    /**
+     * Return the total number of children of a node. If the label is not in this tree, return -1.
+     */
+    public int getDegree(E label) {
+        int id = idOf(label);
+        if (id == NIL) {
+            return -1;
+        }
+        int degree = 0;
+        for (int c = firstChild[id]; c != NIL; c = nextSibling[c]) {
+            degree++;
+        }
+        return degree;
+    }
+
+    /**
+     * @effects return true if label is in this and has no children, otherwise return false
+     */
+    public boolean isLeaf(E label) {
+        int id = idOf(label);
+        return id != NIL && firstChild[id] == NIL;
+    }
+
+    /**
+     * @effects return true if label is in this and has a right sibling, otherwise return false
+     */
+    public boolean hasRightSiblings(E label) {
+        int id = idOf(label);
+        return id != NIL && nextSibling[id] != NIL;
+    }
+
+    /**
+     * Return the label of the lowest common ancestor of two given labels in this tree, with the same meaning as
+     * Tree.lca(): null if there is no common ancestor or there is a label that equals to the root's label or two
+     * labels are equal.
+     * @effects <pre>
+     *   if requirements are not satisfied
+     *     return null
+     *   else
+     *     a = parent of label1, b = parent of label2
+     *     lift the deeper of a and b to the depth of the other one
+     *     lift both a and b until they meet
+     *     return label of a
+     * </pre>
+     */
+    public E lca(E label1, E label2) {
+        int a = idOf(label1);
+        int b = idOf(label2);
+        if (a <= 0 || b <= 0 || a == b) {
+            return null;
+        }
+        a = parent[a];
+        b = parent[b];
+        while (depth[a] > depth[b]) {
+            a = parent[a];
+        }
+        while (depth[b] > depth[a]) {
+            b = parent[b];
+        }
+        while (a != b) {
+            a = parent[a];
+            b = parent[b];
+        }
+        return label(a);
+    }
+
+    /**
+     * Answer a batch of lca() queries, in the same order as the given pairs. The arrays are walked directly, so each
+     * query costs O(depth) without any allocation.
+     * @requires pairs != null
+     */
+    public List<E> lca(Collection<Pair<E, E>> pairs) {
+        List<E> result = new ArrayList<>(pairs.size());
+        for (Pair<E, E> p : pairs) {
+            result.add(lca(p.getLeft(), p.getRight()));
+        }
+        return result;
+    }
+
+    /**
+     * A new tree that is a subtree of this tree is returned by this method. The root of the new tree will be the
+     * specified label. If `remove` argument is true, detach the subtree of the given label from this tree.
+     * @effects <pre>
+     *  if contains(label) == false
+     *      return null
+     *  else
+     *      copy the subtree of label into a new tree t
+     *      if remove == true
+     *          remove the subtree of label from this
+     *      return t
+     * </pre>
+     */
+    public CompactTree<E> subTree(E label, boolean remove) {
+        int id = idOf(label);
+        if (id == NIL) {
+            return null;
+        }
+        settle();
+        CompactTree<E> t = new CompactTree<>(subtreeSize[id]);
+        // the copy is appended in pre-order, so the parent of each node is already in t
+        for (int n = id; n != NIL; n = next(n, id)) {
+            t.append(n == id ? NIL : t.idOf(labels[parent[n]]), label(n));
+        }
+        if (remove) {
+            remove(label);
+        }
+        return t;
+    }
+
+    /**
+     * This method moves a node's subtree from the departure node to the arrival node by relinking it.
+     * @requires <pre>departure != null /\ departure is in this /\ arrival != null /\ arrival is in this
+     *              /\ arrival is not in subtree of departure /\ departure is not root</pre>
+     * @modifies this
+     * @effects <pre>
+     *  if requirements are satisfied
+     *      detach the subtree of departure
+     *      attach it as the last child of arrival
+     *      update the depths in the subtree
+     * </pre>
+     */
+    public void move(E departure, E arrival) {
+        int d = idOf(departure);
+        int a = idOf(arrival);
+        if (d <= 0 || a == NIL || isAncestorOrSelf(d, a)) {
+            return;
+        }
+        settle();
+        resize(parent[d], -subtreeSize[d]);
+        unlink(d);
+        link(a, d);
+        resize(a, subtreeSize[d]);
+        height = -1;
+        modCount++;
+    }
+
+    /**
+     * Retrieve one element from this tree at the specified index in pre-order traversal, or null if the index is out
+     * of bounds.
+     * @Time_complexity O(depth * degree), see idAt()
+     */
+    public E get(int index) {
+        if (index < 0 || index >= size) {
+            return null;
+        }
+        return label(idAt(index));
+    }
+
+    /**
+     * @requires 0 <= index < size
+     * @effects <pre>
+     *   n = root
+     *   while index > 0
+     *     index -= 1 (for n itself)
+     *     skip the children of n whose whole subtree lies before index, subtracting their subtree sizes
+     *     n = the child whose subtree contains index
+     *   return n
+     * </pre>
+     * @Time_complexity O(the number of siblings before the nodes on the path to the result), i.e. O(depth * degree)
+     */
+    private int idAt(int index) {
+        settle();
+        int n = 0;
+        while (index > 0) {
+            index--;
+            int c = firstChild[n];
+            while (index >= subtreeSize[c]) {
+                index -= subtreeSize[c];
+                c = nextSibling[c];
+            }
+            n = c;
+        }
+        return n;
+    }
+
+    /**
+     * @effects return the index of o in pre-order traversal, or -1 if o is not in this. The index is 1 for every
+     * ancestor of o plus the subtree sizes of the left siblings of o and of its ancestors.
+     * @Time_complexity O(depth * degree)
+     */
+    public int indexOf(Object o) {
+        int id = idOf(o);
+        if (id == NIL) {
+            return -1;
+        }
+        settle();
+        int index = 0;
+        for (int n = id; n != 0; n = parent[n]) {
+            index++;
+            for (int s = prevSibling[n]; s != NIL; s = prevSibling[s]) {
+                index += subtreeSize[s];
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Return the labels from fromIndex (inclusive) to toIndex (exclusive) in pre-order traversal.
+     * @requires 0 <= fromIndex <= toIndex <= size()
+     * @effects <pre>
+     *  if requirements are not satisfied
+     *      throw new IndexOutOfBoundsException
+     *  else
+     *      return [get(fromIndex), ..., get(toIndex - 1)]
+     * </pre>
+     * @Time_complexity O(depth * degree + toIndex - fromIndex)
+     */
+    public List<E> subList(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", size: " + size);
+        }
+        List<E> list = new ArrayList<>(toIndex - fromIndex);
+        if (fromIndex < toIndex) {
+            for (int n = idAt(fromIndex), i = fromIndex; i < toIndex; i++, n = next(n, 0)) {
+                list.add(label(n));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * A method to change the label with the provided replacement.
+     * @requires label is in this /\ replacement is not in this
+     * @modifies this
+     */
+    public void set(E label, E replacement) {
+        int id = idOf(label);
+        if (id == NIL || replacement == null || contains(replacement)) return;
+        tableRemove(id);
+        labels[id] = replacement;
+        tableInsert(id);
+    }
+
+    /**
+     * @requires label1 != null /\ label2 != null /\ label1 neq label2
+     * @modifies this
+     * @effects exchange the positions of label1 and label2
+     */
+    public void swap(E label1, E label2) {
+        int a = idOf(label1);
+        int b = idOf(label2);
+        if (a == NIL || b == NIL || a == b) return;
+        int slotA = tableSlotOf(a);
+        int slotB = tableSlotOf(b);
+        table[slotA] = b + 1;
+        table[slotB] = a + 1;
+        labels[a] = label2;
+        labels[b] = label1;
+    }
+
+    /**
+     * @effects return a new Tree with the same structure and labels as this
+     */
+    public Tree<E> toTree() {
+        Tree<E> t = new Tree<>();
+        for (int n = size > 0 ? 0 : NIL; n != NIL; n = next(n, 0)) {
+            if (n == 0) {
+                t.add(label(n));
+            } else {
+                t.addNode(label(parent[n]), label(n));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @effects return a copy of this
+     */
+    @Override
+    public CompactTree<E> clone() {
+        settle();
+        CompactTree<E> t = new CompactTree<>(0);
+        t.labels = labels.clone();
+        t.parent = parent.clone();
+        t.firstChild = firstChild.clone();
+        t.lastChild = lastChild.clone();
+        t.nextSibling = nextSibling.clone();
+        t.prevSibling = prevSibling.clone();
+        t.depth = depth.clone();
+        t.subtreeSize = subtreeSize.clone();
+        t.table = table.clone();
+        t.size = size;
+        t.height = height;
+        return t;
+    }
+
+    /**
+     * Two compact trees are equal if they have the same labels at the same positions, i.e. the same labels and levels
+     * in pre-order traversal.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CompactTree<?> tree = (CompactTree<?>) o;
+        if (size != tree.size) return false;
+        int a = size > 0 ? 0 : NIL;
+        int b = a;
+        while (a != NIL) {
+            if (depth[a] != tree.depth[b] || !labels[a].equals(tree.labels[b])) {
+                return false;
+            }
+            a = next(a, 0);
+            b = tree.next(b, 0);
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 0;
+        for (int n = 0; n < size; n++) {
+            h += labels[n].hashCode();
+        }
+        return h;
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * rendering
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * @effects return the same string representation as Tree.toString(stylize)
+     */
+    public String toString(boolean stylize) {
+        return size > 0 ? TreeRenderer.toString(new IdCursor(), stylize) : "";
+    }
+
+    @Override
+    public String toString() {
+        return toString(false);
+    }
+
+    /**
+     * Write the string representation of this tree to the given writer in a single pass over the link arrays.
+     * @requires out != null
+     * @modifies out
+     */
+    public void print(Writer out, boolean stylize) throws IOException {
+        if (size > 0) {
+            TreeRenderer.print(out, new IdCursor(), stylize);
+        }
+    }
+
+    /**
+     * @Overview A TreeRenderer.Cursor over the ids of this tree, which follows the link arrays.
+     */
+    private class IdCursor implements TreeRenderer.Cursor<E> {
+        private int id = 0;
+
+        @Override
+        public E label() {
+            return CompactTree.this.label(id);
+        }
+
+        @Override
+        public boolean firstChild() {
+            if (firstChild[id] == NIL) {
+                return false;
+            }
+            id = firstChild[id];
+            return true;
+        }
+
+        @Override
+        public boolean hasNextSibling() {
+            return nextSibling[id] != NIL;
+        }
+
+        @Override
+        public boolean nextSibling() {
+            if (nextSibling[id] == NIL) {
+                return false;
+            }
+            id = nextSibling[id];
+            return true;
+        }
+
+        @Override
+        public void parent() {
+            id = parent[id];
+        }
+    }
+
+    /**
+     * Write the string representation of this tree to the given stream, encoded in UTF-8. The stream is flushed but
+     * not closed.
+     */
+    public void print(OutputStream out, boolean stylize) throws IOException {
+        print(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), stylize);
+    }
+
+    /**
+     * Write the string representation of this tree to the given channel at its current position, encoded in UTF-8.
+     * The channel is not closed.
+     */
+    public void print(FileChannel channel, boolean stylize) throws IOException {
+        print(new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), 8192)), stylize);
+    }
+}
@@ -0,0 +1,436 @@
+package logicLayer.tree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @overview <pre>A read-only tree in which structurally identical subtrees are stored once and shared, i.e. the tree is
+ *    compressed into a DAG. Two subtrees are identical if their labels have the same names, relative to the labels of
+ *    their parents, and their children are identical in the same order. A File whose parent is the label of its
+ *    parent is stored by its name only (as in LabelCodec.FILE), so copies of the same directory at different paths,
+ *    e.g. vendored packages or repeated build outputs, share one subtree. Any other label is stored as it is, and
+ *    therefore never shared, since a tree has no duplicate labels.
+ *    <p>The logical tree is never expanded: the labels are rebuilt from the names along the path while iterating or
+ *    rendering, and contains() descends from the nearest ancestor stored as a whole label. Trees compressed with the
+ *    same Pool share their subtrees with each other as well, e.g. successive scans of one file system.
+ *    Edge weights and node values are not kept.</pre>
+ * @attributes <pre>
+ * root             Shape               the shared subtree of the root
+ * rootLabel        E
+ * anchors          Map<Object, Shape>  the labels that are stored as they are, with their subtrees
+ * stored           int                 number of distinct subtrees of this tree
+ * </pre>
+ * @rep_invariant <pre>
+ *   (root = null /\ rootLabel = null /\ anchors is empty /\ stored = 0) \/
+ *   (root != null /\ anchors.get(rootLabel) = root /\ 0 < stored <= root.size)
+ * </pre>
+ */
+public class CompressedTree<E> extends AbstractSet<E> {
+    private final Shape root;
+    private final E rootLabel;
+    private final Map<Object, Shape> anchors;
+    private final int stored;
+
+    private CompressedTree(Shape root, E rootLabel, Map<Object, Shape> anchors, int stored) {
+        this.root = root;
+        this.rootLabel = rootLabel;
+        this.anchors = anchors;
+        this.stored = stored;
+    }
+
+    /**
+     * @Overview One stored subtree: the name of its root (or the whole label if it is not relative to its parent) and
+     * its children, which are shared Shapes themselves. Shapes are immutable and interned in a Pool, so identical
+     * subtrees are the same object and their children can be compared by reference.
+     */
+    private static final class Shape {
+        private final Object key;
+        private final boolean relative;
+        private final Shape[] children;
+        private final int size;
+        private final int hash;
+
+        private Shape(Object key, boolean relative, Shape[] children) {
+            this.key = key;
+            this.relative = relative;
+            this.children = children;
+            int size = 1;
+            int hash = key.hashCode() * 31 + (relative ? 1 : 0);
+            for (Shape child : children) {
+                size += child.size;
+                hash = hash * 31 + child.hash;
+            }
+            this.size = size;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Shape)) return false;
+            Shape shape = (Shape) o;
+            if (hash != shape.hash || relative != shape.relative || children.length != shape.children.length
+                    || !key.equals(shape.key)) {
+                return false;
+            }
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] != shape.children[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * @Overview The interned subtrees and names of the trees compressed with it. A pool keeps all of them reachable,
+     * so it should only be shared by trees that are kept together.
+     */
+    public static final class Pool {
+        private final Map<Shape, Shape> shapes = new HashMap<>();
+        private final Map<Object, Object> keys = new HashMap<>();
+
+        /**
+         * @effects return the number of distinct subtrees in this pool
+         */
+        public int size() {
+            return shapes.size();
+        }
+
+        private Shape intern(Object key, boolean relative, Shape[] children) {
+            Object k = keys.putIfAbsent(key, key);
+            Shape shape = new Shape(k != null ? k : key, relative, children);
+            Shape interned = shapes.putIfAbsent(shape, shape);
+            return interned != null ? interned : shape;
+        }
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * compression
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * @requires tree != null
+     * @effects return of(tree, new Pool())
+     */
+    public static <E> CompressedTree<E> of(Tree<E> tree) {
+        return of(tree, new Pool());
+    }
+
+    /**
+     * Compress tree bottom-up, interning each subtree in pool once all of its children are interned.
+     * @requires tree != null /\ pool != null
+     * @modifies pool
+     * @effects return a CompressedTree with the same labels and structure as tree, whose subtrees are shared with the
+     * identical subtrees of the other trees of pool
+     * @Time_complexity O(n), expected
+     */
+    public static <E> CompressedTree<E> of(Tree<E> tree, Pool pool) {
+        Map<Object, Shape> anchors = new HashMap<>();
+        if (tree.isEmpty()) {
+            return new CompressedTree<>(null, null, anchors, 0);
+        }
+        int n = tree.size();
+        Node<E>[] nodes = Node.newArray(n);
+        int[] parents = new int[n];
+        int[] filled = new int[n];          // filled[i] children of nodes[i] are still to be interned
+        Shape[][] children = new Shape[n][];
+
+        Deque<Node<E>> stack = new ArrayDeque<>();
+        Deque<Integer> parentIds = new ArrayDeque<>();
+        stack.push(tree.rootNode());
+        parentIds.push(-1);
+        for (int i = 0; !stack.isEmpty(); i++) {
+            Node<E> node = stack.pop();
+            nodes[i] = node;
+            parents[i] = parentIds.pop();
+            List<Edge<E>> edges = tree.childEdges(node);
+            filled[i] = edges.size();
+            children[i] = new Shape[edges.size()];
+            for (int k = edges.size() - 1; k >= 0; k--) {
+                stack.push(edges.get(k).getTgt());
+                parentIds.push(i);
+            }
+        }
+
+        // in reverse pre-order, every node comes after its descendants, and the children of a node from last to first
+        Set<Shape> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        Shape shape = null;
+        for (int i = n - 1; i >= 0; i--) {
+            E label = nodes[i].getLabel();
+            int p = parents[i];
+            E parent = p >= 0 ? nodes[p].getLabel() : null;
+            boolean relative = parent instanceof File && label instanceof File
+                    && new File((File) parent, ((File) label).getName()).equals(label);
+            shape = pool.intern(relative ? ((File) label).getName() : label, relative, children[i]);
+            children[i] = null;
+            distinct.add(shape);
+            if (!relative) {
+                anchors.put(label, shape);
+            }
+            if (p >= 0) {
+                children[p][--filled[p]] = shape;
+            }
+        }
+        return new CompressedTree<>(shape, nodes[0].getLabel(), anchors, distinct.size());
+    }
+
+    /**
+     * @requires the label of the parent of shape is parent
+     * @effects return the label of shape
+     */
+    @SuppressWarnings("unchecked")
+    private static <E> E labelOf(Shape shape, E parent) {
+        return shape.relative ? (E) new File((File) parent, (String) shape.key) : (E) shape.key;
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * read-side Tree API
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * @effects return the number of labels of the logical tree
+     */
+    @Override
+    public int size() {
+        return root != null ? root.size : 0;
+    }
+
+    /**
+     * @effects return the number of subtrees that are actually stored for this tree, i.e. its nodes in the DAG
+     */
+    public int getStoredSize() {
+        return stored;
+    }
+
+    /**
+     * @effects return size() / getStoredSize(), i.e. how many logical nodes each stored node stands for on average, or
+     * 1 if this is empty
+     */
+    public double getCompressionRatio() {
+        return stored > 0 ? (double) size() / stored : 1;
+    }
+
+    /**
+     * @effects return root's label, or null if this is empty
+     */
+    public E getRoot() {
+        return rootLabel;
+    }
+
+    /**
+     * A label is either stored as it is, and found in anchors, or it is a File whose ancestors are stored by name up to
+     * the nearest anchor, so contains() walks up the parents of o to an anchor and then back down by name.
+     * @effects return true if o is a label of the logical tree, otherwise false
+     * @Time_complexity O(depth of o * degree), expected
+     */
+    @Override
+    public boolean contains(Object o) {
+        if (o == null || root == null) {
+            return false;
+        }
+        if (anchors.containsKey(o)) {
+            return true;
+        }
+        if (!(o instanceof File)) {
+            return false;
+        }
+        Deque<String> names = new ArrayDeque<>();
+        Shape shape = null;
+        for (File f = (File) o; f != null && shape == null; f = f.getParentFile()) {
+            names.push(f.getName());
+            shape = anchors.get(f.getParentFile());
+        }
+        while (shape != null && !names.isEmpty()) {
+            String name = names.pop();
+            Shape next = null;
+            for (Shape child : shape.children) {
+                if (child.relative && child.key.equals(name)) {
+                    next = child;
+                    break;
+                }
+            }
+            shape = next;
+        }
+        return shape != null;
+    }
+
+    /**
+     * @effects return a new Tree with the same structure and labels as this
+     * @Time_complexity O(n)
+     */
+    public Tree<E> toTree() {
+        Tree<E> t = new Tree<>();
+        if (root == null) {
+            return t;
+        }
+        Node<E>[] nodes = Node.newArray(root.size);
+        Node<E>[] parents = Node.newArray(root.size);
+        nodes[0] = t.loadRoot(rootLabel, root.children.length);
+        Deque<Shape> shapes = new ArrayDeque<>();
+        Deque<Node<E>> parentNodes = new ArrayDeque<>();
+        for (int k = root.children.length - 1; k >= 0; k--) {
+            shapes.push(root.children[k]);
+            parentNodes.push(nodes[0]);
+        }
+        for (int i = 1; !shapes.isEmpty(); i++) {
+            Shape shape = shapes.pop();
+            Node<E> parent = parentNodes.pop();
+            Node<E> node = t.loadChild(parent, labelOf(shape, parent.getLabel()), shape.children.length, null);
+            nodes[i] = node;
+            parents[i] = parent;
+            for (int k = shape.children.length - 1; k >= 0; k--) {
+                shapes.push(shape.children[k]);
+                parentNodes.push(node);
+            }
+        }
+        t.loaded(nodes, parents);
+        return t;
+    }
+
+    /**
+     * @effects return a generator of all labels of the logical tree in pre-order
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Generator();
+    }
+
+    /**
+     * Visits the logical tree in pre-order with a stack of frames, one per level of the current path, each holding the
+     * label of a node and the index of its next child.
+     */
+    private class Generator implements Iterator<E> {
+        private final Deque<Frame<E>> stack = new ArrayDeque<>();
+        private boolean rootPending = root != null;
+
+        @Override
+        public boolean hasNext() {
+            while (!stack.isEmpty() && !stack.peek().hasNext()) {
+                stack.pop();
+            }
+            return rootPending || !stack.isEmpty();
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (rootPending) {
+                rootPending = false;
+                stack.push(new Frame<>(root, rootLabel));
+                return rootLabel;
+            }
+            Frame<E> frame = stack.peek();
+            Shape shape = frame.shape.children[frame.index++];
+            E label = labelOf(shape, frame.label);
+            if (shape.children.length > 0) {
+                stack.push(new Frame<>(shape, label));
+            }
+            return label;
+        }
+    }
+
+    private static final class Frame<E> {
+        private final Shape shape;
+        private final E label;
+        private int index;
+
+        private Frame(Shape shape, E label) {
+            this.shape = shape;
+            this.label = label;
+        }
+
+        private boolean hasNext() {
+            return index < shape.children.length;
+        }
+    }
+
+    /**
+     * @effects return the same string representation as Tree.toString(stylize) of the logical tree
+     */
+    public String toString(boolean stylize) {
+        return root != null ? TreeRenderer.toString(new ShapeCursor<>(root, rootLabel), stylize) : "";
+    }
+
+    @Override
+    public String toString() {
+        return toString(false);
+    }
+
+    /**
+     * Write the string representation of the logical tree to the given writer, with the same format as Tree.print().
+     * @requires out != null
+     * @modifies out
+     */
+    public void print(Writer out, boolean stylize) throws IOException {
+        if (root != null) {
+            TreeRenderer.print(out, new ShapeCursor<>(root, rootLabel), stylize);
+        }
+    }
+
+    /**
+     * @Overview A TreeRenderer.Cursor over the logical tree, which keeps a Frame for each ancestor of the current node.
+     */
+    private static final class ShapeCursor<E> implements TreeRenderer.Cursor<E> {
+        private final Deque<Frame<E>> ancestors = new ArrayDeque<>();
+        private Shape shape;
+        private E label;
+
+        private ShapeCursor(Shape shape, E label) {
+            this.shape = shape;
+            this.label = label;
+        }
+
+        @Override
+        public E label() {
+            return label;
+        }
+
+        @Override
+        public boolean firstChild() {
+            if (shape.children.length == 0) {
+                return false;
+            }
+            ancestors.push(new Frame<>(shape, label));
+            return nextSibling();
+        }
+
+        @Override
+        public boolean hasNextSibling() {
+            return !ancestors.isEmpty() && ancestors.peek().hasNext();
+        }
+
+        @Override
+        public boolean nextSibling() {
+            if (!hasNextSibling()) {
+                return false;
+            }
+            Frame<E> parent = ancestors.peek();
+            shape = parent.shape.children[parent.index++];
+            label = labelOf(shape, parent.label);
+            return true;
+        }
+
+        @Override
+        public void parent() {
+            Frame<E> parent = ancestors.pop();
+            shape = parent.shape;
+            label = parent.label;
+        }
+    }
+}
@@ -0,0 +1,708 @@
+package logicLayer.tree;
+
+import common.NotPossibleException;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @overview <pre>A thread-safe tree that many threads can grow at the same time, e.g. the workers of a directory scan.
+ *    Every label is mapped to its node record in a ConcurrentHashMap, and every node keeps its children in a lock-free
+ *    ConcurrentLinkedQueue (in insertion order), so concurrent add() and addNode() calls never block each other.
+ *    Removals, which have to unlink whole subtrees consistently, take the write side of a read-write lock while
+ *    insertions share its read side.
+ *    <p>Iteration, rendering and toTree() are weakly consistent: they never throw ConcurrentModificationException
+ *    and reflect the insertions that completed before they reached the corresponding parent.</pre>
+ * @attributes <pre>
+ * root     AtomicReference<CNode<E>>
+ * nodes    ConcurrentHashMap<E, CNode<E>>
+ * lock     ReadWriteLock
+ * </pre>
+ * @Object <pre>
+ *         a typical ConcurrentTree is T:<r, m> where r is root and m maps each label to its node, which is the same
+ *         tree as Tree T:<N:<r.label>, {N:<l> : E:<N:<m[l].parent.label>, N:<l>>}, ...>
+ *         </pre>
+ * @rep_invariant <pre>
+ *   (root = null /\ nodes is empty) \/
+ *   (root.parent = null /\ nodes[root.label] = root /\
+ *    for all node n in nodes.values, n != root: n.parent is in nodes.values /\ n is in n.parent.children /\
+ *    n.depth = n.parent.depth + 1)
+ * </pre>
+ * @jdk_version_requires 1.8
+ */
+public class ConcurrentTree<E> implements Set<E>, Serializable {
+    private static final long serialVersionUID = 1L;
+    private final AtomicReference<CNode<E>> root = new AtomicReference<>();
+    private final ConcurrentHashMap<E, CNode<E>> nodes = new ConcurrentHashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @Overview The node record of a label: its parent, its depth and its children in insertion order.
+     */
+    private static final class CNode<E> implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final E label;
+        private final CNode<E> parent;
+        private final int depth;
+        private final ConcurrentLinkedQueue<CNode<E>> children = new ConcurrentLinkedQueue<>();
+
+        private CNode(E label, CNode<E> parent) {
+            this.label = label;
+            this.parent = parent;
+            this.depth = parent != null ? parent.depth + 1 : 0;
+        }
+    }
+
+    /**
+     * @effects init this as an empty tree
+     */
+    public ConcurrentTree() {
+    }
+
+    /**
+     * @requires label!=null
+     * @effects <pre>
+     *   if label!=null
+     *     init this as a tree whose root is label
+     *   else
+     *     throw new NotPossibleException
+     * </pre>
+     */
+    public ConcurrentTree(E label) throws NotPossibleException {
+        if (label == null) {
+            throw new NotPossibleException("Null Node");
+        }
+        add(label);
+    }
+
+    @Override
+    public int size() {
+        return nodes.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root.get() == null;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o != null && nodes.containsKey(o);
+    }
+
+    /**
+     * Add label as the root if this tree is empty, otherwise as the last child of the root. Safe to call from many
+     * threads at once.
+     * @modifies this
+     * @effects <pre>
+     *   if label==null \/ contain(label)==true
+     *     return false
+     *   else
+     *     if root==null
+     *       atomically make label the root; if another thread won, add label as its child instead
+     *     else
+     *       return addNode(root.label, label)
+     * </pre>
+     */
+    @Override
+    public boolean add(E label) {
+        if (label == null) {
+            return false;
+        }
+        lock.readLock().lock();
+        try {
+            CNode<E> r = root.get();
+            if (r == null) {
+                CNode<E> node = new CNode<>(label, null);
+                if (nodes.putIfAbsent(label, node) != null) {
+                    return false;
+                }
+                if (root.compareAndSet(null, node)) {
+                    return true;
+                }
+                nodes.remove(label, node);      // another thread has just added the root
+                r = root.get();
+            }
+            return link(r, label);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add child as the last child of parent. Safe to call from many threads at once: the label is claimed with a
+     * single putIfAbsent() and appended to the lock-free children queue of parent, so it costs O(1).
+     * @modifies this
+     * @effects <pre>
+     *   if parent is not in this \/ child==null \/ child is in this
+     *     return false
+     *   else
+     *     add child as the last child of parent
+     *     return true
+     * </pre>
+     */
+    public boolean addNode(E parent, E child) {
+        if (parent == null || child == null) {
+            return false;
+        }
+        lock.readLock().lock();
+        try {
+            CNode<E> p = nodes.get(parent);
+            return p != null && link(p, child);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @requires the read lock is held /\ p is in this
+     * @effects add child as the last child of p if it is not in this yet, and return true if it was added
+     */
+    private boolean link(CNode<E> p, E child) {
+        CNode<E> node = new CNode<>(child, p);
+        if (nodes.putIfAbsent(child, node) != null) {
+            return false;
+        }
+        p.children.add(node);
+        return true;
+    }
+
+    /**
+     * Remove an object from this tree together with all of its descendants.
+     * @modifies this
+     * @effects <pre>
+     *   if contains(o)==false
+     *     return false
+     *   else
+     *     if o is root
+     *       clear()
+     *     else
+     *       unlink o from its parent and remove the labels of its subtree
+     *     return true
+     * </pre>
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            CNode<E> node = nodes.get(o);
+            if (node == null) {
+                return false;
+            }
+            if (node.parent == null) {
+                nodes.clear();
+                root.set(null);
+            } else {
+                node.parent.children.remove(node);
+                Deque<CNode<E>> stack = new ArrayDeque<>();
+                stack.push(node);
+                while (!stack.isEmpty()) {
+                    CNode<E> n = stack.pop();
+                    nodes.remove(n.label);
+                    n.children.forEach(stack::push);
+                }
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        for (Object o : c) {
+            if (!contains(o)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @requires c!=null
+     * @effects <pre>
+     *   for all elements o in c
+     *     if add(o)==false
+     *       return false
+     *   return true
+     * </pre>
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        if (c == null || c.isEmpty()) {
+            return false;
+        }
+        for (E o : c) {
+            if (!add(o)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        if (c == null) return false;
+        boolean changed = false;
+        for (Object o : c) {
+            changed |= remove(o);
+        }
+        return changed;
+    }
+
+    /**
+     * A label that is not in c is removed together with its whole subtree.
+     * @requires c!=null
+     */
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        if (c == null) return false;
+        Collection<?> keep = c instanceof Set ? c : new HashSet<>(c);
+        List<E> rejected = new ArrayList<>();
+        CNode<E> r = root.get();
+        if (r == null) {
+            return false;
+        }
+        if (!keep.contains(r.label)) {
+            clear();
+            return true;
+        }
+        Deque<CNode<E>> stack = new ArrayDeque<>();
+        stack.push(r);
+        while (!stack.isEmpty()) {
+            for (CNode<E> child : stack.pop().children) {
+                if (keep.contains(child.label)) {
+                    stack.push(child);
+                } else {
+                    rejected.add(child.label);
+                }
+            }
+        }
+        return removeAll(rejected);
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            nodes.clear();
+            root.set(null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @effects return root's label, or null if this is empty
+     */
+    public E getRoot() {
+        CNode<E> r = root.get();
+        return r != null ? r.label : null;
+    }
+
+    /**
+     * @effects return the label of the parent of label, or null if label is the root or is not in this
+     */
+    public E getParent(E label) {
+        CNode<E> node = label != null ? nodes.get(label) : null;
+        return node != null && node.parent != null ? node.parent.label : null;
+    }
+
+    /**
+     * @effects return the number of edges between label and the root, or -1 if label is not in this
+     */
+    public int getLevel(E label) {
+        CNode<E> node = label != null ? nodes.get(label) : null;
+        return node != null ? node.depth : -1;
+    }
+
+    /**
+     * @effects return the number of children of label, or -1 if label is not in this
+     */
+    public int getDegree(E label) {
+        CNode<E> node = label != null ? nodes.get(label) : null;
+        return node != null ? node.children.size() : -1;
+    }
+
+    /**
+     * @effects return true if label is in this and has no children, otherwise return false
+     */
+    public boolean isLeaf(E label) {
+        CNode<E> node = label != null ? nodes.get(label) : null;
+        return node != null && node.children.isEmpty();
+    }
+
+    /**
+     * @effects <pre>
+     *   return a weakly consistent generator of all labels in pre-order
+     * </pre>
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Generator();
+    }
+
+    private class Generator implements Iterator<E> {
+        private final Deque<Iterator<CNode<E>>> stack = new ArrayDeque<>();
+        private CNode<E> next = root.get();
+        private CNode<E> last;
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            stack.push(last.children.iterator());
+            next = null;
+            while (next == null && !stack.isEmpty()) {
+                Iterator<CNode<E>> children = stack.peek();
+                if (children.hasNext()) {
+                    next = children.next();
+                } else {
+                    stack.pop();
+                }
+            }
+            return last.label;
+        }
+
+        /**
+         * Remove the last returned label together with its subtree, which is therefore skipped by this generator.
+         */
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            if (next != null && next.parent == last) {
+                // the descendants of last are not visited anymore
+                stack.pop();
+                next = null;
+                while (next == null && !stack.isEmpty()) {
+                    Iterator<CNode<E>> children = stack.peek();
+                    if (children.hasNext()) {
+                        next = children.next();
+                    } else {
+                        stack.pop();
+                    }
+                }
+            }
+            ConcurrentTree.this.remove(last.label);
+            last = null;
+        }
+    }
+
+    @Override
+    public Object[] toArray() {
+        List<E> list = new ArrayList<>(size());
+        forEach(list::add);
+        return list.toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] a) {
+        List<E> list = new ArrayList<>(size());
+        forEach(list::add);
+        return list.toArray(a);
+    }
+
+    /**
+     * Two concurrent trees are equal if they have the same labels and the children of every node are in the same
+     * order, as for Tree. The comparison is weakly consistent, like iteration.
+     * @effects <pre>
+     *   if o is not a ConcurrentTree \/ o.size != size
+     *     return false
+     *   else
+     *     return true if the nodes of both trees match in a parallel pre-order walk, i.e. same label and same
+     *       number of children, else false
+     * </pre>
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ConcurrentTree<?> tree = (ConcurrentTree<?>) o;
+        CNode<?> r = root.get();
+        CNode<?> other = tree.root.get();
+        if (r == null || other == null) return r == other;
+        if (size() != tree.size()) return false;
+        Deque<CNode<?>> stack = new ArrayDeque<>();
+        stack.push(r);
+        stack.push(other);
+        while (!stack.isEmpty()) {
+            CNode<?> b = stack.pop();
+            CNode<?> a = stack.pop();
+            if (!a.label.equals(b.label)) {
+                return false;
+            }
+            Iterator<? extends CNode<?>> left = a.children.iterator();
+            Iterator<? extends CNode<?>> right = b.children.iterator();
+            while (left.hasNext() && right.hasNext()) {
+                stack.push(left.next());
+                stack.push(right.next());
+            }
+            if (left.hasNext() || right.hasNext()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The structural hash of Tree.hashCode(), computed in one post-order pass since a concurrent tree caches no
+     * hashes; it is therefore equal to the hash of toTree().
+     * @effects <pre>
+     *   return 0 if this is empty, else the hash of the root, where
+     *     the hash of n = mix(h) with h = n.label.hashCode() and h = 31 * h + mix(hash of c) for each child c of n
+     * </pre>
+     * @Time_complexity O(n)
+     */
+    @Override
+    public int hashCode() {
+        CNode<E> r = root.get();
+        if (r == null) {
+            return 0;
+        }
+        Deque<Iterator<CNode<E>>> children = new ArrayDeque<>();
+        Deque<int[]> hashes = new ArrayDeque<>();       // the partial h of each node on the current path
+        children.push(r.children.iterator());
+        hashes.push(new int[]{r.label.hashCode()});
+        while (true) {
+            Iterator<CNode<E>> it = children.peek();
+            if (it.hasNext()) {
+                CNode<E> child = it.next();
+                children.push(child.children.iterator());
+                hashes.push(new int[]{child.label.hashCode()});
+                continue;
+            }
+            children.pop();
+            int hash = Tree.mix(hashes.pop()[0]);
+            if (hashes.isEmpty()) {
+                return hash;
+            }
+            int[] parent = hashes.peek();
+            parent[0] = 31 * parent[0] + Tree.mix(hash);
+        }
+    }
+
+    /**
+     * @effects return a new Tree with the same structure and labels as the current state of this
+     */
+    public Tree<E> toTree() {
+        Tree<E> t = new Tree<>();
+        for (E label : this) {
+            CNode<E> node = nodes.get(label);
+            if (node == null) {
+                continue;       // removed meanwhile
+            }
+            if (node.parent == null) {
+                t.add(label);
+            } else {
+                t.addNode(node.parent.label, label);
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @effects return the same string representation as Tree.toString(stylize)
+     */
+    public String toString(boolean stylize) {
+        CNode<E> r = root.get();
+        return r != null ? TreeRenderer.toString(new NodeCursor<>(r), stylize) : "";
+    }
+
+    @Override
+    public String toString() {
+        return toString(false);
+    }
+
+    /**
+     * Write the string representation of this tree to the given writer in a single depth-first pass, with the same
+     * format as Tree.print().
+     * @requires out != null
+     * @modifies out
+     */
+    public void print(Writer out, boolean stylize) throws IOException {
+        CNode<E> r = root.get();
+        if (r != null) {
+            TreeRenderer.print(out, new NodeCursor<>(r), stylize);
+        }
+    }
+
+    /**
+     * @Overview A TreeRenderer.Cursor over the nodes of a ConcurrentTree, which keeps the iterators over the siblings
+     *    of the nodes on the current path. Like the other traversals, it sees the children that were added before it
+     *    reached their parent and may or may not see the ones added later.
+     */
+    private static final class NodeCursor<E> implements TreeRenderer.Cursor<E> {
+        private final Deque<Iterator<CNode<E>>> siblings = new ArrayDeque<>();
+        private CNode<E> node;
+
+        private NodeCursor(CNode<E> start) {
+            node = start;
+        }
+
+        @Override
+        public E label() {
+            return node.label;
+        }
+
+        @Override
+        public boolean firstChild() {
+            Iterator<CNode<E>> it = node.children.iterator();
+            if (!it.hasNext()) {
+                return false;
+            }
+            node = it.next();
+            siblings.push(it);
+            return true;
+        }
+
+        @Override
+        public boolean hasNextSibling() {
+            return !siblings.isEmpty() && siblings.peek().hasNext();
+        }
+
+        @Override
+        public boolean nextSibling() {
+            if (!hasNextSibling()) {
+                return false;
+            }
+            node = siblings.peek().next();
+            return true;
+        }
+
+        @Override
+        public void parent() {
+            siblings.pop();
+            node = node.parent;
+        }
+    }
+
+    /**
+     * Write the string representation of this tree to the given stream, encoded in UTF-8. The stream is flushed but
+     * not closed.
+     */
+    public void print(OutputStream out, boolean stylize) throws IOException {
+        print(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), stylize);
+    }
+
+    /**
+     * Write the string representation of this tree to the given channel at its current position, encoded in UTF-8.
+     * The channel is not closed.
+     */
+    public void print(FileChannel channel, boolean stylize) throws IOException {
+        print(new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), 8192)), stylize);
+    }
+
+    /**
+     * ConcurrentTrees are serialized as the labels in pre-order with their numbers of children instead of the
+     * default form of their nodes, which would recurse once per level and overflow the stack on a deep tree.
+     * @effects return new SerializedForm(this)
+     */
+    private Object writeReplace() {
+        return new SerializedForm<>(this);
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("ConcurrentTrees are deserialized through ConcurrentTree.SerializedForm");
+    }
+
+    /**
+     * @Overview <pre>The serialized form of a ConcurrentTree, written and read without recursion:
+     *   form   := empty:boolean  [node...]
+     *   node   := label:object  children:int
+     *   in pre-order; reading ends when every node has read its children. The tree is written under the read lock,
+     *   so no label is removed meanwhile, and the children of each node are counted once, when it is written, so
+     *   labels that are inserted concurrently are either written with their parent's count or not at all.</pre>
+     */
+    private static final class SerializedForm<E> implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private transient ConcurrentTree<E> tree;
+
+        private SerializedForm(ConcurrentTree<E> tree) {
+            this.tree = tree;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            tree.lock.readLock().lock();
+            try {
+                CNode<E> r = tree.root.get();
+                out.writeBoolean(r == null);
+                if (r == null) {
+                    return;
+                }
+                Deque<CNode<E>> stack = new ArrayDeque<>();
+                stack.push(r);
+                while (!stack.isEmpty()) {
+                    CNode<E> n = stack.pop();
+                    List<CNode<E>> children = new ArrayList<>(n.children);
+                    out.writeObject(n.label);
+                    out.writeInt(children.size());
+                    for (int i = children.size() - 1; i >= 0; i--) {
+                        stack.push(children.get(i));
+                    }
+                }
+            } finally {
+                tree.lock.readLock().unlock();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            tree = new ConcurrentTree<>();
+            if (in.readBoolean()) {
+                return;
+            }
+            Deque<CNode<E>> path = new ArrayDeque<>();
+            Deque<int[]> pending = new ArrayDeque<>();      // the number of children of each node still to be read
+            CNode<E> parent = null;
+            do {
+                E label = (E) in.readObject();
+                int children = in.readInt();
+                CNode<E> node = new CNode<>(label, parent);
+                if (label == null || children < 0 || tree.nodes.putIfAbsent(label, node) != null) {
+                    throw new InvalidObjectException("Invalid or duplicate label: " + label);
+                }
+                if (parent == null) {
+                    tree.root.set(node);
+                } else {
+                    parent.children.add(node);
+                    pending.peek()[0]--;
+                }
+                path.push(node);
+                pending.push(new int[]{children});
+                while (!pending.isEmpty() && pending.peek()[0] == 0) {
+                    path.pop();
+                    pending.pop();
+                }
+                parent = path.peek();
+            } while (parent != null);
+        }
+
+        private Object readResolve() {
+            return tree;
+        }
+    }
+}
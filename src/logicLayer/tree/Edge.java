@@ -20,6 +20,7 @@ import java.util.Objects;
  * @rep_invariant src!=null /\ src.repOK()==true /\ tgt!=null /\ tgt.repOK()==true /\ src!=tgt
  */
 public class Edge<T> implements Serializable {
+    private static final long serialVersionUID = 1L;
     private Node<T> src;
     private Node<T> tgt;
     private Object weight;
@@ -39,6 +40,14 @@ public class Edge<T> implements Serializable {
         this.tgt = tgt;
     }
 
+    /**
+     * @effects return a new array of length edges, since an array of a generic type cannot be created directly
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static <T> Edge<T>[] newArray(int length) {
+        return new Edge[length];
+    }
+
     /**
      * @requires src != null
      * @effects sets this.src = src
@@ -0,0 +1,131 @@
+package logicLayer.tree;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @Overview <pre>Writes and reads the labels of a tree for TreeCodec. Labels are written in pre-order and each one is
+ *    given the label of its parent, which has already been written (or read), so a codec may encode a label relative
+ *    to its parent.
+ *    STRING, INTEGER and FILE are the built-in codecs; OBJECT falls back to Java serialization and requires an
+ *    ObjectOutput / ObjectInput.</pre>
+ */
+public interface LabelCodec<E> {
+    /**
+     * @requires out != null /\ label != null
+     * @modifies out
+     * @effects write label to out, possibly relative to parent (null for the root)
+     */
+    void write(DataOutput out, E label, E parent) throws IOException;
+
+    /**
+     * @requires in != null
+     * @modifies in
+     * @effects read a label that was written by write(out, label, parent)
+     */
+    E read(DataInput in, E parent) throws IOException;
+
+    /**
+     * @effects return true if read() needs the parent label, so that a reader with random access (MappedTree) only
+     * decodes the ancestors of a label for the codecs that need them
+     */
+    default boolean readsParent() {
+        return false;
+    }
+
+    /**
+     * A UTF-8 string prefixed with its length in bytes as a varint.
+     */
+    LabelCodec<String> STRING = new LabelCodec<String>() {
+        @Override
+        public void write(DataOutput out, String label, String parent) throws IOException {
+            byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+            TreeCodec.writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        public String read(DataInput in, String parent) throws IOException {
+            byte[] bytes = new byte[TreeCodec.readVarInt(in)];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * A zigzag varint, i.e. 1 byte for any label in -64..63.
+     */
+    LabelCodec<Integer> INTEGER = new LabelCodec<Integer>() {
+        @Override
+        public void write(DataOutput out, Integer label, Integer parent) throws IOException {
+            TreeCodec.writeVarInt(out, (label << 1) ^ (label >> 31));
+        }
+
+        @Override
+        public Integer read(DataInput in, Integer parent) throws IOException {
+            int zigzag = TreeCodec.readVarInt(in);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+    };
+
+    /**
+     * A file whose parent is the parent label is written as its name only, any other file as its whole path. The
+     * lowest bit of the varint length tells which one follows.
+     */
+    LabelCodec<File> FILE = new LabelCodec<File>() {
+        @Override
+        public boolean readsParent() {
+            return true;
+        }
+
+        @Override
+        public void write(DataOutput out, File label, File parent) throws IOException {
+            boolean relative = parent != null && new File(parent, label.getName()).equals(label);
+            byte[] bytes = (relative ? label.getName() : label.getPath()).getBytes(StandardCharsets.UTF_8);
+            TreeCodec.writeVarInt(out, bytes.length << 1 | (relative ? 1 : 0));
+            out.write(bytes);
+        }
+
+        @Override
+        public File read(DataInput in, File parent) throws IOException {
+            int header = TreeCodec.readVarInt(in);
+            byte[] bytes = new byte[header >>> 1];
+            in.readFully(bytes);
+            String name = new String(bytes, StandardCharsets.UTF_8);
+            if ((header & 1) == 0) {
+                return new File(name);
+            }
+            if (parent == null) {
+                throw new StreamCorruptedException("Relative root label: " + name);
+            }
+            return new File(parent, name);
+        }
+    };
+
+    /**
+     * Any Serializable label, written with ObjectOutput.writeObject().
+     */
+    LabelCodec<Object> OBJECT = new LabelCodec<Object>() {
+        @Override
+        public void write(DataOutput out, Object label, Object parent) throws IOException {
+            if (!(out instanceof ObjectOutput)) {
+                throw new NotSerializableException("OBJECT labels require an ObjectOutput");
+            }
+            ((ObjectOutput) out).writeObject(label);
+        }
+
+        @Override
+        public Object read(DataInput in, Object parent) throws IOException {
+            if (!(in instanceof ObjectInput)) {
+                throw new NotSerializableException("OBJECT labels require an ObjectInput");
+            }
+            try {
+                return ((ObjectInput) in).readObject();
+            } catch (ClassNotFoundException e) {
+                throw new InvalidClassException(e.getMessage());
+            }
+        }
+    };
+}
@@ -0,0 +1,90 @@
+package logicLayer.tree;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @Overview <pre>A static index over a snapshot of a tree that answers lowest common ancestor queries in O(1).
+ *    The nodes are numbered in pre-order. For two distinct nodes u, v with u.order < v.order, the shallowest node
+ *    among the positions (u.order, v.order] is the child of lca(u, v) on the way to v, so lca(u, v) is its parent.
+ *    The shallowest node of any range is found with a sparse table in O(1).</pre>
+ * @attributes <pre>
+ * nodes        Node<E>[]   nodes in pre-order, nodes[i].order == i
+ * parents      Node<E>[]   parents[i] is the parent of nodes[i], null for the root
+ * table        int[][]     table[k][i] is the position of the shallowest node among positions i..i+2^k-1 (k >= 1)
+ * version      int         the modification count of the tree when this index was built
+ * </pre>
+ * @rep_invariant nodes!=null /\ parents!=null /\ nodes.length == parents.length
+ */
+class LcaIndex<E> {
+    private final Node<E>[] nodes;
+    private final Node<E>[] parents;
+    private final int[][] table;
+    private final int version;
+
+    /**
+     * @requires nodes are the nodes of a tree in pre-order /\ parents[i] is the parent of nodes[i]
+     * @modifies nodes[i].order
+     * @effects <pre>
+     *   number the nodes in pre-order
+     *   build the sparse table of the shallowest node of every range of length 2^k
+     * </pre>
+     * @Time_complexity O(n * log(n))
+     */
+    LcaIndex(Node<E>[] nodes, Node<E>[] parents, int version) {
+        this.nodes = nodes;
+        this.parents = parents;
+        this.version = version;
+        int n = nodes.length;
+        for (int i = 0; i < n; i++) {
+            nodes[i].order = i;
+        }
+        int levels = 32 - Integer.numberOfLeadingZeros(Math.max(n, 1));
+        table = new int[levels][];
+        for (int k = 1; k < levels; k++) {
+            int half = 1 << (k - 1);
+            int[] row = new int[n - (1 << k) + 1];
+            for (int i = 0; i < row.length; i++) {
+                int a = k == 1 ? i : table[k - 1][i];
+                int b = k == 1 ? i + 1 : table[k - 1][i + half];
+                row[i] = shallower(a, b);
+            }
+            table[k] = row;
+        }
+    }
+
+    /**
+     * @effects return the modification count of the tree when this index was built
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * @requires u, v are nodes of the indexed snapshot
+     * @effects return the lowest common ancestor of u and v (which is u if u == v or u is an ancestor of v)
+     */
+    Node<E> lca(Node<E> u, Node<E> v) {
+        if (u == v) {
+            return u;
+        }
+        int a = Math.min(u.order, v.order);
+        int b = Math.max(u.order, v.order);
+        return parents[shallowest(a + 1, b)];
+    }
+
+    /**
+     * @requires 0 <= from <= to < nodes.length
+     * @effects return the position of the shallowest node among the positions from..to
+     */
+    private int shallowest(int from, int to) {
+        int k = 31 - Integer.numberOfLeadingZeros(to - from + 1);
+        if (k == 0) {
+            return from;
+        }
+        return shallower(table[k][from], table[k][to - (1 << k) + 1]);
+    }
+
+    private int shallower(int a, int b) {
+        return nodes[a].depth <= nodes[b].depth ? a : b;
+    }
+}
@@ -0,0 +1,588 @@
+package logicLayer.tree;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @overview <pre>A read-only tree over a snapshot file that is memory-mapped instead of deserialized, so opening it
+ *    takes constant time and the operating system pages the data in lazily as it is read.
+ *    The file holds one fixed-width record per node in pre-order, an open-addressing hash table from label hash codes
+ *    to node ids, and a string table with the labels encoded by a LabelCodec. Since the ids are pre-order positions,
+ *    the first child of node i is i + 1 and its subtree is the id range [i, i + size), so subTree() is a view over
+ *    the same mapping.
+ *    The file is mapped in chunks of 1 GB, so snapshots may be larger than 2 GB. Labels need a hash code that is
+ *    stable across runs, which is the case for the built-in codecs (String, Integer, File).</pre>
+ * @attributes <pre>
+ * region           Region          the mapped file
+ * codec            LabelCodec<E>   decodes the labels of the string table
+ * n                int             number of nodes in the file
+ * capacity         int             number of slots of the hash table
+ * tableOffset      long
+ * stringsOffset    long
+ * first            int             id of the root of this view
+ * count            int             number of nodes of this view, i.e. ids first..first+count-1
+ * </pre>
+ * @Object <pre>
+ *   file     := header:64 bytes  record{n}  slot{capacity}  labels
+ *   header   := magic:int  version:int  n:int  capacity:int  tableOffset:long  stringsOffset:long
+ *   record   := parent:int  nextSibling:int  depth:int  size:int  labelOffset:long  labelLength:int  height:int
+ *   slot     := hash:int  id + 1:int (0 if the slot is empty)
+ *   parent and nextSibling are -1 if there is none, labelOffset is relative to stringsOffset
+ *   </pre>
+ * @rep_invariant 0 <= first /\ first + count <= n /\ (count = 0 \/ count = size of record first)
+ */
+public class MappedTree<E> extends AbstractSet<E> {
+    private static final int MAGIC = 0x54524545;     // "TREE"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER = 64;
+    private static final int RECORD = 32;
+    private static final int SLOT = 8;
+
+    private static final int PARENT = 0;
+    private static final int NEXT_SIBLING = 4;
+    private static final int DEPTH = 8;
+    private static final int SIZE = 12;
+    private static final int LABEL_OFFSET = 16;
+    private static final int LABEL_LENGTH = 24;
+    private static final int HEIGHT = 28;
+
+    private final Region region;
+    private final LabelCodec<E> codec;
+    private final int n;
+    private final int capacity;
+    private final long tableOffset;
+    private final long stringsOffset;
+    private final int first;
+    private final int count;
+
+    private MappedTree(Region region, LabelCodec<E> codec, int n, int capacity, long tableOffset, long stringsOffset,
+                       int first, int count) {
+        this.region = region;
+        this.codec = codec;
+        this.n = n;
+        this.capacity = capacity;
+        this.tableOffset = tableOffset;
+        this.stringsOffset = stringsOffset;
+        this.first = first;
+        this.count = count;
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * writing and opening
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * Write a snapshot of tree to file in a single pre-order pass. Records and labels are written through buffers, and
+     * the hash table is filled in place in a writable mapping of the file.
+     * @requires tree != null /\ file != null /\ codec != null
+     * @modifies file
+     * @effects replace the content of file with the snapshot of tree
+     * @Time_complexity O(n)
+     */
+    public static <E> void write(Tree<E> tree, File file, LabelCodec<? super E> codec) throws IOException {
+        tree.settle();      // the records copy the subtree sizes and heights of the nodes
+        int n = tree.size();
+        int capacity = n + n / 3 + 1;       // load factor 0.75
+        long tableOffset = HEADER + (long) RECORD * n;
+        long stringsOffset = tableOffset + (long) SLOT * capacity;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            Region table = new Region(channel, FileChannel.MapMode.READ_WRITE, tableOffset, (long) SLOT * capacity);
+            Sink records = new Sink(channel, HEADER);
+            Sink strings = new Sink(channel, stringsOffset);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream label = new DataOutputStream(bytes);
+
+            if (n > 0) {
+                // ids are assigned in pre-order; stack holds the siblings still to visit and the id of their parent
+                Deque<Iterator<Edge<E>>> stack = new ArrayDeque<>();
+                Deque<Integer> parents = new ArrayDeque<>();
+                int id = 0;
+                Node<E> node = tree.rootNode();
+                Node<E> parent = null;
+                int parentId = -1;
+                boolean hasRightSibling = false;
+                while (node != null) {
+                    bytes.reset();
+                    codec.write(label, node.getLabel(), parent != null ? parent.getLabel() : null);
+                    records.putInt(parentId);
+                    records.putInt(hasRightSibling ? id + node.size : -1);
+                    records.putInt(node.depth);
+                    records.putInt(node.size);
+                    records.putLong(strings.written());
+                    records.putInt(bytes.size());
+                    records.putInt(node.height);
+                    strings.put(bytes.toByteArray());
+                    insert(table, capacity, node.getLabel().hashCode(), id);
+
+                    List<Edge<E>> children = tree.childEdges(node);
+                    if (!children.isEmpty()) {
+                        stack.push(children.iterator());
+                        parents.push(id);
+                    }
+                    id++;
+                    node = null;
+                    while (!stack.isEmpty() && node == null) {
+                        Iterator<Edge<E>> siblings = stack.peek();
+                        if (siblings.hasNext()) {
+                            Edge<E> edge = siblings.next();
+                            node = edge.getTgt();
+                            parent = edge.getSrc();
+                            parentId = parents.peek();
+                            hasRightSibling = siblings.hasNext();
+                        } else {
+                            stack.pop();
+                            parents.pop();
+                        }
+                    }
+                }
+            }
+            records.flush();
+            strings.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(n).putInt(capacity)
+                    .putLong(tableOffset).putLong(stringsOffset);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(false);
+        }
+    }
+
+    private static void insert(Region table, int capacity, int hash, int id) {
+        int slot = slotOf(hash, capacity);
+        while (table.getInt((long) SLOT * slot + 4) != 0) {
+            slot = slot + 1 == capacity ? 0 : slot + 1;
+        }
+        table.putInt((long) SLOT * slot, hash);
+        table.putInt((long) SLOT * slot + 4, id + 1);
+    }
+
+    private static int slotOf(int hash, int capacity) {
+        return ((hash ^ (hash >>> 16)) & 0x7FFFFFFF) % capacity;
+    }
+
+    /**
+     * Open a snapshot that was written by write(). Only the mapping is set up; no node is read.
+     * @requires file != null /\ codec is the codec the snapshot was written with
+     * @effects <pre>
+     *   if file is a snapshot
+     *     return a MappedTree over it
+     *   else
+     *     throw an IOException
+     * </pre>
+     */
+    public static <E> MappedTree<E> open(File file, LabelCodec<E> codec) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Region region = new Region(channel, FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (channel.size() < HEADER || region.getInt(0) != MAGIC) {
+                throw new StreamCorruptedException("Not a tree snapshot: " + file);
+            }
+            if (region.getInt(4) != FORMAT_VERSION) {
+                throw new StreamCorruptedException("Unknown format version: " + region.getInt(4));
+            }
+            int n = region.getInt(8);
+            return new MappedTree<>(region, codec, n, region.getInt(12), region.getLong(16), region.getLong(24),
+                    0, n);
+        }
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * records
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    private int field(int id, int offset) {
+        return region.getInt(HEADER + (long) RECORD * id + offset);
+    }
+
+    /**
+     * @requires 0 <= id < n
+     * @effects return the label of node id, decoding its ancestors first if the codec needs the parent label
+     */
+    private E label(int id) {
+        if (!codec.readsParent()) {
+            return decode(id, null);
+        }
+        int[] path = new int[field(id, DEPTH) + 1];
+        for (int i = path.length - 1, a = id; i >= 0; i--, a = field(a, PARENT)) {
+            path[i] = a;
+        }
+        E label = null;
+        for (int a : path) {
+            label = decode(a, label);
+        }
+        return label;
+    }
+
+    private E decode(int id, E parent) {
+        long offset = stringsOffset + region.getLong(HEADER + (long) RECORD * id + LABEL_OFFSET);
+        byte[] bytes = region.getBytes(offset, field(id, LABEL_LENGTH));
+        try {
+            return codec.read(new DataInputStream(new ByteArrayInputStream(bytes)), parent);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @effects return the id of o if it is in this view, otherwise -1
+     */
+    private int idOf(Object o) {
+        if (o == null || count == 0) {
+            return -1;
+        }
+        int hash = o.hashCode();
+        for (int slot = slotOf(hash, capacity); ; slot = slot + 1 == capacity ? 0 : slot + 1) {
+            long at = tableOffset + (long) SLOT * slot;
+            int id = region.getInt(at + 4) - 1;
+            if (id < 0) {
+                return -1;
+            }
+            if (region.getInt(at) == hash && label(id).equals(o)) {
+                return id >= first && id < first + count ? id : -1;
+            }
+        }
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * read-side Tree API
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return idOf(o) >= 0;
+    }
+
+    /**
+     * @effects return root's label, or null if this is empty
+     */
+    public E getRoot() {
+        return count > 0 ? label(first) : null;
+    }
+
+    /**
+     * @effects return the label of the parent of label, or null if label is the root or is not in this
+     */
+    public E getParent(E label) {
+        int id = idOf(label);
+        return id > first ? label(field(id, PARENT)) : null;
+    }
+
+    /**
+     * @effects return the number of edges between label and the root, or -1 if label is not in this
+     */
+    public int getLevel(E label) {
+        int id = idOf(label);
+        return id >= 0 ? field(id, DEPTH) - field(first, DEPTH) : -1;
+    }
+
+    /**
+     * @effects return the number of edges between label and its deepest descendant, or -1 if label is not in this
+     */
+    public int getHeight(E label) {
+        int id = idOf(label);
+        return id >= 0 ? field(id, HEIGHT) : -1;
+    }
+
+    /**
+     * @effects return the number of children of label, or -1 if label is not in this
+     */
+    public int getDegree(E label) {
+        int id = idOf(label);
+        if (id < 0) {
+            return -1;
+        }
+        int degree = 0;
+        for (int c = field(id, SIZE) > 1 ? id + 1 : -1; c >= 0; c = field(c, NEXT_SIBLING)) {
+            degree++;
+        }
+        return degree;
+    }
+
+    /**
+     * @effects return true if label is in this and has no children, otherwise return false
+     */
+    public boolean isLeaf(E label) {
+        int id = idOf(label);
+        return id >= 0 && field(id, SIZE) == 1;
+    }
+
+    /**
+     * @effects return a view of the subtree of label over the same mapping, or null if label is not in this
+     * @Time_complexity O(1) besides the lookup of label
+     */
+    public MappedTree<E> subTree(E label) {
+        int id = idOf(label);
+        if (id < 0) {
+            return null;
+        }
+        return new MappedTree<>(region, codec, n, capacity, tableOffset, stringsOffset, id, field(id, SIZE));
+    }
+
+    /**
+     * @effects return a new Tree with the same structure and labels as this
+     * @Time_complexity O(n), since the records are already in pre-order and are loaded in one pass
+     */
+    public Tree<E> toTree() {
+        Tree<E> t = new Tree<>();
+        if (count == 0) {
+            return t;
+        }
+        Node<E>[] nodes = Node.newArray(count);
+        Node<E>[] parents = Node.newArray(count);
+        Node<E>[] path = Node.newArray(16);
+        int baseDepth = field(first, DEPTH);
+        Generator labels = new Generator();
+        for (int k = 0; k < count; k++) {
+            int d = field(first + k, DEPTH) - baseDepth;
+            E label = labels.next();
+            Node<E> node = d == 0 ? t.loadRoot(label, 0) : t.loadChild(path[d - 1], label, 0, null);
+            if (node == null) {
+                throw new IllegalStateException("Invalid or duplicate label: " + label);
+            }
+            nodes[k] = node;
+            parents[k] = d == 0 ? null : path[d - 1];
+            if (d == path.length) {
+                path = Arrays.copyOf(path, d * 2);
+            }
+            path[d] = node;
+        }
+        t.loaded(nodes, parents);
+        return t;
+    }
+
+    /**
+     * @effects return a generator of all labels of this in pre-order, which reads the records sequentially
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Generator();
+    }
+
+    /**
+     * Visits the ids first..first+count-1 in order. For codecs that read the parent label, it keeps the labels of the
+     * current path so that every label is decoded once.
+     */
+    private class Generator implements Iterator<E> {
+        private int next = first;
+        private final int baseDepth = count > 0 ? field(first, DEPTH) : 0;
+        private Object[] path = new Object[16];
+
+        @Override
+        public boolean hasNext() {
+            return next < first + count;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int id = next++;
+            if (!codec.readsParent()) {
+                return decode(id, null);
+            }
+            int d = field(id, DEPTH) - baseDepth;
+            E label = d == 0 ? label(id) : decode(id, (E) path[d - 1]);
+            if (d == path.length) {
+                path = Arrays.copyOf(path, d * 2);
+            }
+            path[d] = label;
+            return label;
+        }
+    }
+
+    /**
+     * @effects return the same string representation as Tree.toString(stylize)
+     */
+    public String toString(boolean stylize) {
+        return count > 0 ? TreeRenderer.toString(new RecordCursor(), stylize) : "";
+    }
+
+    @Override
+    public String toString() {
+        return toString(false);
+    }
+
+    /**
+     * Write the string representation of this tree to the given writer in a single sequential pass over the records,
+     * through TreeRenderer.
+     * @requires out != null
+     * @modifies out
+     */
+    public void print(Writer out, boolean stylize) throws IOException {
+        if (count > 0) {
+            TreeRenderer.print(out, new RecordCursor(), stylize);
+        }
+    }
+
+    /**
+     * @Overview A TreeRenderer.Cursor over the records of this view. The renderer visits them in order, so the labels
+     *    are taken from a Generator.
+     */
+    private class RecordCursor implements TreeRenderer.Cursor<E> {
+        private final Generator labels = new Generator();
+        private int id = first;
+
+        @Override
+        public E label() {
+            return labels.next();
+        }
+
+        @Override
+        public boolean firstChild() {
+            if (field(id, SIZE) == 1) {
+                return false;
+            }
+            id++;
+            return true;
+        }
+
+        @Override
+        public boolean hasNextSibling() {
+            return field(id, NEXT_SIBLING) >= 0;
+        }
+
+        @Override
+        public boolean nextSibling() {
+            int next = field(id, NEXT_SIBLING);
+            if (next < 0) {
+                return false;
+            }
+            id = next;
+            return true;
+        }
+
+        @Override
+        public void parent() {
+            id = field(id, PARENT);
+        }
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * file access
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * @Overview A range of a file mapped in chunks of 1 GB. Ints and longs are aligned in the file formats above, so
+     * they never cross a chunk boundary.
+     */
+    private static final class Region {
+        private static final int CHUNK_BITS = 30;
+        private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+        private final ByteBuffer[] chunks;
+
+        private Region(FileChannel channel, FileChannel.MapMode mode, long position, long size) throws IOException {
+            chunks = new ByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long offset = (long) i << CHUNK_BITS;
+                chunks[i] = channel.map(mode, position + offset, Math.min(CHUNK_MASK + 1, size - offset));
+            }
+        }
+
+        private int getInt(long position) {
+            return chunks[(int) (position >>> CHUNK_BITS)].getInt((int) (position & CHUNK_MASK));
+        }
+
+        private long getLong(long position) {
+            return chunks[(int) (position >>> CHUNK_BITS)].getLong((int) (position & CHUNK_MASK));
+        }
+
+        private void putInt(long position, int value) {
+            chunks[(int) (position >>> CHUNK_BITS)].putInt((int) (position & CHUNK_MASK), value);
+        }
+
+        private byte[] getBytes(long position, int length) {
+            byte[] bytes = new byte[length];
+            for (int done = 0; done < length; ) {
+                ByteBuffer chunk = chunks[(int) ((position + done) >>> CHUNK_BITS)].duplicate();
+                chunk.position((int) ((position + done) & CHUNK_MASK));
+                int k = Math.min(length - done, chunk.remaining());
+                chunk.get(bytes, done, k);
+                done += k;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * @Overview A buffered, sequential writer to a channel from a given position.
+     */
+    private static final class Sink {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private final long start;
+        private long position;
+
+        private Sink(FileChannel channel, long position) {
+            this.channel = channel;
+            this.start = position;
+            this.position = position;
+        }
+
+        /**
+         * @effects return the number of bytes written to this sink so far
+         */
+        private long written() {
+            return position - start + buffer.position();
+        }
+
+        private void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        private void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        private void put(byte[] bytes) throws IOException {
+            if (bytes.length > buffer.capacity()) {
+                flush();
+                ByteBuffer b = ByteBuffer.wrap(bytes);
+                while (b.hasRemaining()) {
+                    position += channel.write(b, position);
+                }
+                return;
+            }
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -4,9 +4,6 @@ import common.NotPossibleException;
 
 import java.io.File;
 import java.io.Serializable;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
 import java.util.Objects;
 
 /**
@@ -17,11 +14,21 @@ import java.util.Objects;
  * @Object a typical Node is N:<T>
  * AF(c) = N:<T>
  * @rep_invariant T!=null
- * @version 1.1
+ * @version 1.4
  * @author Phan Quang Tuan
  */
 public class Node<T> implements Comparable<Node<T>>, Serializable {
+    private static final long serialVersionUID = 1L;
     private T label;
+    double value;                   // numeric attribute aggregated by Tree.getSubtreeSum() and getSubtreeMax()
+    int size = 1;                   // number of nodes in the subtree rooted at this node (maintained by Tree)
+    int depth;                      // number of edges from the root to this node (maintained by Tree)
+    int height;                     // number of edges from this node to its deepest leaf (maintained by Tree)
+    transient int[] childOffsets;   // pre-order offsets of this node's children, rebuilt lazily by Tree
+    transient int childIndex;       // index of this node in its parent's children list, valid with childOffsets
+    transient int order;            // heavy-first pre-order position of this node in the last index built by Tree
+    transient int hash;             // structural hash of the subtree rooted at this node, see Tree.hashCode()
+    transient boolean hashed;       // true while hash is up to date, i.e. false for this node and all its ancestors
 
     /**
      * @requires label != null
@@ -39,6 +46,14 @@ public class Node<T> implements Comparable<Node<T>>, Serializable {
         this.label = label;
     }
 
+    /**
+     * @effects return a new array of length nodes, since an array of a generic type cannot be created directly
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static <T> Node<T>[] newArray(int length) {
+        return new Node[length];
+    }
+
     /**
      * @effects
      *  return label
@@ -69,9 +84,13 @@ public class Node<T> implements Comparable<Node<T>>, Serializable {
         return Objects.equals(label, node.label);
     }
 
+    /**
+     * @effects return label.hashCode(), so that a node lands in the same bucket as its label (without the varargs array
+     * of Objects.hash())
+     */
     @Override
     public int hashCode() {
-        return Objects.hash(label);
+        return label.hashCode();
     }
 
     /**
@@ -86,17 +105,32 @@ public class Node<T> implements Comparable<Node<T>>, Serializable {
         return label != null;
     }
 
+    /**
+     * Nodes are ordered by the natural ordering of their labels, which is consistent with equals() for Integer, String
+     * and the other Comparable labels of the JDK. File labels are ordered by name first, so that the files of a
+     * directory are listed alphabetically, and then by path.
+     * @requires the labels of this and o are mutually Comparable
+     * @effects <pre>
+     *   if label and o.label are Files
+     *     return compare(name, o.name), or compare(path, o.path) if the names are equal
+     *   else if label is Comparable
+     *     return label.compareTo(o.label)
+     *   else
+     *     throw new ClassCastException
+     * </pre>
+     */
     @Override
+    @SuppressWarnings("unchecked")
     public int compareTo(Node<T> o) {
-        if (label.getClass().getSimpleName().equals("Integer")) {
-            return (Integer) label > (Integer) o.label ? 1 : -1;
-        } else if (label.getClass().getSimpleName().equals("File")) {
+        if (label instanceof File && o.label instanceof File) {
             File f1 = (File) label;
             File f2 = (File) o.label;
-            List<String> s = Arrays.asList(f1.getName(), f2.getName());
-            Collections.sort(s);
-            return s.get(1).equals(f2.getName()) ? 1 : -1;
+            int c = f1.getName().compareTo(f2.getName());
+            return c != 0 ? c : f1.compareTo(f2);
+        }
+        if (!(label instanceof Comparable)) {
+            throw new ClassCastException(label.getClass().getName() + " is not Comparable");
         }
-        return 0;
+        return ((Comparable<? super T>) label).compareTo(o.label);
     }
 }
@@ -0,0 +1,749 @@
+package logicLayer.tree;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @overview <pre>A tree whose nodes and labels are stored outside the Java heap, in direct ByteBuffers, for inventories
+ *    of many millions of labels: the heap only holds the handful of buffers, so its footprint and the work of the
+ *    garbage collector do not grow with the tree.
+ *    Every node is a fixed-width record of links (parent, first child, last child, next sibling), the offset of its
+ *    label in a label pool and the weight of its parent edge. The label pool holds the labels encoded by a LabelCodec
+ *    (each one without its parent, so that it can be compared as bytes), and an open-addressing hash table maps the
+ *    encoded labels to node ids. Labels can only be added, like in a scan; the tree is traversed through the links
+ *    alone, so iterating and rendering use constant heap space besides the current path.
+ *    <p>The memory is freed by close(), after which this tree must not be used. It is released right away if the JDK
+ *    offers it (sun.misc.Unsafe.invokeCleaner(), Java 9+), otherwise when the garbage collector reclaims the buffers.
+ *    This class is not thread-safe.</pre>
+ * @attributes <pre>
+ * codec            LabelCodec<E>   encodes the labels of the pool, with a plain DataOutput and no parent label
+ * records          Memory          RECORD bytes per node, in the order the nodes were added
+ * pool             Memory          varint length + encoded label, per node
+ * table            Memory          SLOT bytes per slot, capacity slots
+ * n                int             number of nodes
+ * capacity         int             number of slots of the hash table, a power of 2
+ * poolSize         long            number of bytes used in pool
+ * </pre>
+ * @Object <pre>
+ *   record   := parent:int  firstChild:int  lastChild:int  nextSibling:int  label:long  weight:double
+ *   slot     := hash:int  id + 1:int (0 if the slot is empty)
+ *   links are -1 if there is none, label is the offset of the label in pool, weight is NaN if there is none
+ *   node 0 is the root
+ *   </pre>
+ * @rep_invariant <pre>
+ *   0 <= n <= 3/4 * capacity /\ every node has one slot in table /\
+ *   the links of the records describe one tree with root 0 /\ the labels of the nodes are distinct
+ * </pre>
+ */
+public class OffHeapTree<E> extends AbstractSet<E> implements Closeable {
+    private static final int RECORD = 32;
+    private static final int SLOT = 8;
+
+    private static final int PARENT = 0;
+    private static final int FIRST_CHILD = 4;
+    private static final int LAST_CHILD = 8;
+    private static final int NEXT_SIBLING = 12;
+    private static final int LABEL = 16;
+    private static final int WEIGHT = 24;
+
+    private final LabelCodec<E> codec;
+    private Memory records = new Memory();
+    private Memory pool = new Memory();
+    private Memory table;
+    private int n;
+    private int capacity = 1024;
+    private long poolSize;
+
+    /**
+     * @requires codec != null /\ codec can write to a plain DataOutput (e.g. not LabelCodec.OBJECT)
+     * @effects init this as an empty tree whose labels are encoded by codec
+     */
+    public OffHeapTree(LabelCodec<E> codec) {
+        this.codec = codec;
+        table = new Memory();
+        table.ensure((long) SLOT * capacity);
+    }
+
+    /**
+     * Copy a tree into a new OffHeapTree, in one pre-order pass. Weights that are Numbers are kept as doubles; other
+     * weights and the node values are not kept.
+     * @requires tree != null /\ codec != null
+     * @effects return an OffHeapTree with the same labels, structure and numeric weights as tree
+     * @Time_complexity O(n), expected
+     */
+    public static <E> OffHeapTree<E> copyOf(Tree<E> tree, LabelCodec<E> codec) throws IOException {
+        OffHeapTree<E> t = new OffHeapTree<>(codec);
+        if (tree.isEmpty()) {
+            return t;
+        }
+        t.append(-1, t.encodeLabel(tree.getRoot()), Double.NaN);
+        Deque<Iterator<Edge<E>>> stack = new ArrayDeque<>();
+        Deque<Integer> parents = new ArrayDeque<>();
+        stack.push(tree.childEdges(tree.rootNode()).iterator());
+        parents.push(0);
+        while (!stack.isEmpty()) {
+            Iterator<Edge<E>> siblings = stack.peek();
+            if (!siblings.hasNext()) {
+                stack.pop();
+                parents.pop();
+                continue;
+            }
+            Edge<E> edge = siblings.next();
+            Object weight = edge.getWeight();
+            int id = t.append(parents.peek(), t.encodeLabel(edge.getTgt().getLabel()),
+                    weight instanceof Number ? ((Number) weight).doubleValue() : Double.NaN);
+            List<Edge<E>> children = tree.childEdges(edge.getTgt());
+            if (!children.isEmpty()) {
+                stack.push(children.iterator());
+                parents.push(id);
+            }
+        }
+        return t;
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * adding labels
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * @modifies this
+     * @effects <pre>
+     *   if label == null \/ contains(label)
+     *     return false
+     *   else if this is empty
+     *     add label as the root
+     *   else
+     *     add label as the last child of the root
+     *   return true
+     * </pre>
+     */
+    @Override
+    public boolean add(E label) {
+        checkOpen();
+        byte[] encoded = encode(label);
+        if (encoded == null || find(encoded) >= 0) {
+            return false;
+        }
+        append(n == 0 ? -1 : 0, encoded, Double.NaN);
+        return true;
+    }
+
+    /**
+     * @modifies this
+     * @effects <pre>
+     *   if parent is not in this \/ child == null \/ child is in this
+     *     return false
+     *   else
+     *     add child as the last child of parent
+     *     return true
+     * </pre>
+     * @Time_complexity O(1), expected
+     */
+    public boolean addNode(E parent, E child) {
+        int p = idOf(parent);
+        byte[] encoded = encode(child);
+        if (p < 0 || encoded == null || find(encoded) >= 0) {
+            return false;
+        }
+        append(p, encoded, Double.NaN);
+        return true;
+    }
+
+    /**
+     * @requires parent is -1 and this is empty, or parent is a node of this /\ encoded is the encoding of a label
+     * that is not in this
+     * @modifies this
+     * @effects add the label as the last child of parent (as the root if parent is -1) and return its id
+     */
+    private int append(int parent, byte[] encoded, double weight) {
+        if (n + 1 > capacity - capacity / 4) {
+            rehash(capacity * 2);
+        }
+        int id = n++;
+        long record = (long) RECORD * id;
+        records.ensure(record + RECORD);
+        records.putInt(record + PARENT, parent);
+        records.putInt(record + FIRST_CHILD, -1);
+        records.putInt(record + LAST_CHILD, -1);
+        records.putInt(record + NEXT_SIBLING, -1);
+        records.putLong(record + LABEL, poolSize);
+        records.putDouble(record + WEIGHT, weight);
+        if (parent >= 0) {
+            int last = field(parent, LAST_CHILD);
+            if (last < 0) {
+                records.putInt((long) RECORD * parent + FIRST_CHILD, id);
+            } else {
+                records.putInt((long) RECORD * last + NEXT_SIBLING, id);
+            }
+            records.putInt((long) RECORD * parent + LAST_CHILD, id);
+        }
+
+        pool.ensure(poolSize + 5 + encoded.length);
+        for (int length = encoded.length; ; length >>>= 7) {
+            if ((length & ~0x7F) == 0) {
+                pool.put(poolSize++, (byte) length);
+                break;
+            }
+            pool.put(poolSize++, (byte) ((length & 0x7F) | 0x80));
+        }
+        pool.put(poolSize, encoded);
+        poolSize += encoded.length;
+        insert(table, capacity, hash(encoded), id);
+        return id;
+    }
+
+    /**
+     * @modifies this
+     * @effects move every slot of table to a new table of the given capacity, and free the old one
+     */
+    private void rehash(int newCapacity) {
+        Memory newTable = new Memory();
+        newTable.ensure((long) SLOT * newCapacity);
+        for (int slot = 0; slot < capacity; slot++) {
+            int id = table.getInt((long) SLOT * slot + 4) - 1;
+            if (id >= 0) {
+                insert(newTable, newCapacity, table.getInt((long) SLOT * slot), id);
+            }
+        }
+        table.free();
+        table = newTable;
+        capacity = newCapacity;
+    }
+
+    private static void insert(Memory table, int capacity, int hash, int id) {
+        int slot = hash & (capacity - 1);
+        while (table.getInt((long) SLOT * slot + 4) != 0) {
+            slot = (slot + 1) & (capacity - 1);
+        }
+        table.putInt((long) SLOT * slot, hash);
+        table.putInt((long) SLOT * slot + 4, id + 1);
+    }
+
+    /**
+     * @effects return the hash of an encoded label, with the finalizer of MurmurHash3 so that labels that only differ
+     * in their last characters, e.g. consecutive numbers, do not fill runs of adjacent slots
+     */
+    private static int hash(byte[] encoded) {
+        int h = Arrays.hashCode(encoded);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ h >>> 16;
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * records
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    private int field(int id, int offset) {
+        return records.getInt((long) RECORD * id + offset);
+    }
+
+    /**
+     * @effects return the offset in pool of the encoded label of node id, and its length in length[0]
+     */
+    private long labelOffset(int id, int[] length) {
+        long at = records.getLong((long) RECORD * id + LABEL);
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = pool.get(at++);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        length[0] = value;
+        return at;
+    }
+
+    /**
+     * @requires 0 <= id < n
+     * @effects return the label of node id
+     */
+    private E label(int id) {
+        int[] length = new int[1];
+        long at = labelOffset(id, length);
+        try {
+            return codec.read(new DataInputStream(new ByteArrayInputStream(pool.getBytes(at, length[0]))), null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @effects return the encoding of o by codec, or null if o is null or cannot be encoded by codec
+     */
+    @SuppressWarnings("unchecked")
+    private byte[] encode(Object o) {
+        if (o == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            codec.write(new DataOutputStream(bytes), (E) o, null);
+            return bytes.toByteArray();
+        } catch (IOException | ClassCastException e) {
+            return null;    // not a label of this codec
+        }
+    }
+
+    /**
+     * @requires label != null
+     * @effects return the encoding of label by codec, or throw an IOException if codec cannot write it
+     */
+    private byte[] encodeLabel(E label) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.write(new DataOutputStream(bytes), label, null);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @effects return the id of o if it is in this, otherwise -1
+     */
+    private int idOf(Object o) {
+        checkOpen();
+        byte[] encoded = encode(o);
+        return encoded != null ? find(encoded) : -1;
+    }
+
+    /**
+     * @effects return the id of the label whose encoding is encoded, or -1 if there is none
+     */
+    private int find(byte[] encoded) {
+        if (n == 0) {
+            return -1;
+        }
+        int hash = hash(encoded);
+        int[] length = new int[1];
+        for (int slot = hash & (capacity - 1); ; slot = (slot + 1) & (capacity - 1)) {
+            int id = table.getInt((long) SLOT * slot + 4) - 1;
+            if (id < 0) {
+                return -1;
+            }
+            if (table.getInt((long) SLOT * slot) == hash) {
+                long at = labelOffset(id, length);
+                if (length[0] == encoded.length && pool.matches(at, encoded)) {
+                    return id;
+                }
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (records == null) {
+            throw new IllegalStateException("The tree is closed");
+        }
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * read-side Tree API
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return idOf(o) >= 0;
+    }
+
+    /**
+     * @effects return root's label, or null if this is empty
+     */
+    public E getRoot() {
+        checkOpen();
+        return n > 0 ? label(0) : null;
+    }
+
+    /**
+     * @effects return the label of the parent of label, or null if label is the root or is not in this
+     */
+    public E getParent(E label) {
+        int id = idOf(label);
+        return id > 0 ? label(field(id, PARENT)) : null;
+    }
+
+    /**
+     * @effects return the number of edges between label and the root, or -1 if label is not in this
+     * @Time_complexity O(depth)
+     */
+    public int getLevel(E label) {
+        int id = idOf(label);
+        if (id < 0) {
+            return -1;
+        }
+        int level = 0;
+        for (int a = field(id, PARENT); a >= 0; a = field(a, PARENT)) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * @effects return the number of children of label, or -1 if label is not in this
+     */
+    public int getDegree(E label) {
+        int id = idOf(label);
+        if (id < 0) {
+            return -1;
+        }
+        int degree = 0;
+        for (int c = field(id, FIRST_CHILD); c >= 0; c = field(c, NEXT_SIBLING)) {
+            degree++;
+        }
+        return degree;
+    }
+
+    /**
+     * @effects return true if label is in this and has no children, otherwise return false
+     */
+    public boolean isLeaf(E label) {
+        int id = idOf(label);
+        return id >= 0 && field(id, FIRST_CHILD) < 0;
+    }
+
+    /**
+     * @modifies this
+     * @effects <pre>
+     *   if label is not in this \/ label is the root
+     *     return false
+     *   else
+     *     set the weight of the parent edge of label to weight
+     *     return true
+     * </pre>
+     */
+    public boolean setWeight(E label, double weight) {
+        int id = idOf(label);
+        if (id <= 0) {
+            return false;
+        }
+        records.putDouble((long) RECORD * id + WEIGHT, weight);
+        return true;
+    }
+
+    /**
+     * @effects return the weight of the parent edge of label, or null if label is not in this, is the root or has no
+     * weight
+     */
+    public Double getWeight(E label) {
+        int id = idOf(label);
+        if (id <= 0) {
+            return null;
+        }
+        double weight = records.getDouble((long) RECORD * id + WEIGHT);
+        return Double.isNaN(weight) ? null : weight;
+    }
+
+    /**
+     * @effects return the number of bytes held outside the heap by this tree
+     */
+    public long getOffHeapBytes() {
+        return records == null ? 0 : records.capacity() + pool.capacity() + table.capacity();
+    }
+
+    /**
+     * @effects return a new Tree with the same labels, structure and weights as this
+     * @Time_complexity O(n)
+     */
+    public Tree<E> toTree() {
+        checkOpen();
+        Tree<E> t = new Tree<>();
+        if (n == 0) {
+            return t;
+        }
+        Node<E>[] nodes = Node.newArray(n);      // by id, i.e. in the order the labels were added
+        for (int id = 0; id < n; id++) {
+            int parent = field(id, PARENT);
+            double weight = records.getDouble((long) RECORD * id + WEIGHT);
+            nodes[id] = parent < 0 ? t.loadRoot(label(id), 0)
+                    : t.loadChild(nodes[parent], label(id), 0, Double.isNaN(weight) ? null : weight);
+        }
+        t.loaded();
+        return t;
+    }
+
+    /**
+     * @effects return the id of the node after id in pre-order, or -1 if id is the last one
+     */
+    private int after(int id) {
+        int c = field(id, FIRST_CHILD);
+        if (c >= 0) {
+            return c;
+        }
+        while (id >= 0 && field(id, NEXT_SIBLING) < 0) {
+            id = field(id, PARENT);
+        }
+        return id >= 0 ? field(id, NEXT_SIBLING) : -1;
+    }
+
+    /**
+     * @effects return a generator of all labels of this in pre-order, which follows the links of the records
+     */
+    @Override
+    public Iterator<E> iterator() {
+        checkOpen();
+        return new Iterator<E>() {
+            private int next = n > 0 ? 0 : -1;
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public E next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                checkOpen();
+                E label = label(next);
+                next = after(next);
+                return label;
+            }
+        };
+    }
+
+    /**
+     * @effects return the same string representation as Tree.toString(stylize)
+     */
+    public String toString(boolean stylize) {
+        checkOpen();
+        return n > 0 ? TreeRenderer.toString(new RecordCursor(), stylize) : "";
+    }
+
+    @Override
+    public String toString() {
+        return records == null ? "[closed]" : toString(false);
+    }
+
+    /**
+     * Write the string representation of this tree to the given writer in one pass over the links, through
+     * TreeRenderer.
+     * @requires out != null
+     * @modifies out
+     */
+    public void print(Writer out, boolean stylize) throws IOException {
+        checkOpen();
+        if (n > 0) {
+            TreeRenderer.print(out, new RecordCursor(), stylize);
+        }
+    }
+
+    /**
+     * @Overview A TreeRenderer.Cursor over the records of this tree, which follows their links.
+     */
+    private class RecordCursor implements TreeRenderer.Cursor<E> {
+        private int id = 0;
+
+        @Override
+        public E label() {
+            return OffHeapTree.this.label(id);
+        }
+
+        @Override
+        public boolean firstChild() {
+            int child = field(id, FIRST_CHILD);
+            if (child < 0) {
+                return false;
+            }
+            id = child;
+            return true;
+        }
+
+        @Override
+        public boolean hasNextSibling() {
+            return field(id, NEXT_SIBLING) >= 0;
+        }
+
+        @Override
+        public boolean nextSibling() {
+            int next = field(id, NEXT_SIBLING);
+            if (next < 0) {
+                return false;
+            }
+            id = next;
+            return true;
+        }
+
+        @Override
+        public void parent() {
+            id = field(id, PARENT);
+        }
+    }
+
+    /**
+     * Free the memory of this tree. Closing a closed tree has no effect.
+     * @modifies this
+     * @effects release the buffers of this; any later use of this throws an IllegalStateException
+     */
+    @Override
+    public void close() {
+        if (records != null) {
+            records.free();
+            pool.free();
+            table.free();
+            records = null;
+            pool = null;
+            table = null;
+            n = 0;
+        }
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * memory
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * @Overview A growable region of direct memory in chunks of 1 MB. Records and slots are aligned, so their ints,
+     * longs and doubles never cross a chunk boundary; labels may.
+     */
+    private static final class Memory {
+        private static final int CHUNK_BITS = 20;
+        private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            try {
+                Class<?> type = Class.forName("sun.misc.Unsafe");
+                Field field = type.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+                invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Java 8 or a restricted JDK: buffers are freed by the garbage collector
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+        }
+
+        private ByteBuffer[] chunks = new ByteBuffer[0];
+        private int used;
+
+        /**
+         * @effects return the number of bytes allocated by this
+         */
+        private long capacity() {
+            return (long) used << CHUNK_BITS;
+        }
+
+        /**
+         * @modifies this
+         * @effects allocate chunks until this holds at least size bytes
+         */
+        private void ensure(long size) {
+            while (capacity() < size) {
+                if (used == chunks.length) {
+                    chunks = Arrays.copyOf(chunks, Math.max(8, used * 2));
+                }
+                chunks[used++] = ByteBuffer.allocateDirect(1 << CHUNK_BITS);
+            }
+        }
+
+        private ByteBuffer chunk(long position) {
+            return chunks[(int) (position >>> CHUNK_BITS)];
+        }
+
+        private int getInt(long position) {
+            return chunk(position).getInt((int) (position & CHUNK_MASK));
+        }
+
+        private void putInt(long position, int value) {
+            chunk(position).putInt((int) (position & CHUNK_MASK), value);
+        }
+
+        private long getLong(long position) {
+            return chunk(position).getLong((int) (position & CHUNK_MASK));
+        }
+
+        private void putLong(long position, long value) {
+            chunk(position).putLong((int) (position & CHUNK_MASK), value);
+        }
+
+        private double getDouble(long position) {
+            return chunk(position).getDouble((int) (position & CHUNK_MASK));
+        }
+
+        private void putDouble(long position, double value) {
+            chunk(position).putDouble((int) (position & CHUNK_MASK), value);
+        }
+
+        private byte get(long position) {
+            return chunk(position).get((int) (position & CHUNK_MASK));
+        }
+
+        private void put(long position, byte value) {
+            chunk(position).put((int) (position & CHUNK_MASK), value);
+        }
+
+        private void put(long position, byte[] bytes) {
+            for (int done = 0; done < bytes.length; ) {
+                ByteBuffer chunk = chunk(position + done).duplicate();
+                chunk.position((int) ((position + done) & CHUNK_MASK));
+                int k = Math.min(bytes.length - done, chunk.remaining());
+                chunk.put(bytes, done, k);
+                done += k;
+            }
+        }
+
+        private byte[] getBytes(long position, int length) {
+            byte[] bytes = new byte[length];
+            for (int done = 0; done < length; ) {
+                ByteBuffer chunk = chunk(position + done).duplicate();
+                chunk.position((int) ((position + done) & CHUNK_MASK));
+                int k = Math.min(length - done, chunk.remaining());
+                chunk.get(bytes, done, k);
+                done += k;
+            }
+            return bytes;
+        }
+
+        /**
+         * @effects return true if the bytes from position on are bytes, else false
+         */
+        private boolean matches(long position, byte[] bytes) {
+            for (int i = 0; i < bytes.length; i++) {
+                if (get(position + i) != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @modifies this
+         * @effects release all chunks of this
+         */
+        private void free() {
+            for (int i = 0; i < used; i++) {
+                if (INVOKE_CLEANER != null) {
+                    try {
+                        INVOKE_CLEANER.invoke(UNSAFE, chunks[i]);
+                    } catch (ReflectiveOperationException e) {
+                        e.printStackTrace();
+                    }
+                }
+                chunks[i] = null;
+            }
+            used = 0;
+        }
+    }
+}
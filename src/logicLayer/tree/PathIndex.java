@@ -0,0 +1,100 @@
+package logicLayer.tree;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @Overview <pre>A heavy-light decomposition of a snapshot of a tree that answers weighted path queries (sum, max and
+ *    min of the edge weights on the path between two nodes) in O(log^2(n)), and updates the weight of one edge in
+ *    O(log(n)).
+ *    The nodes are numbered in pre-order, visiting the child with the largest subtree first, so every heavy path
+ *    occupies a contiguous range of positions. The weight of the edge between a node and its parent is stored at
+ *    the position of the node in a SegmentTree.</pre>
+ * @attributes <pre>
+ * parent       int[]           position of the parent of position i, -1 for the root
+ * head         int[]           position of the topmost node of the heavy path that contains position i
+ * depth        int[]           level of the node at position i
+ * weights      SegmentTree     weights[i] is the weight of the edge above position i, neutral for the root
+ * version      int             the modification count of the tree when this index was built
+ * </pre>
+ * @rep_invariant parent, head, depth have the same length n >= 1 /\ weights has n positions
+ */
+class PathIndex<E> {
+    private final int[] parent;
+    private final int[] head;
+    private final int[] depth;
+    private final SegmentTree weights;
+    private final int version;
+
+    /**
+     * @requires nodes are the nodes of a tree in pre-order, each heavy child right after its parent /\
+     *           parents[i] is the parent of nodes[i] /\ weights[i] is the weight of the edge (parents[i], nodes[i])
+     * @modifies nodes[i].order
+     * @effects <pre>
+     *   number the nodes in pre-order
+     *   link every position to its parent and to the head of its heavy path
+     *   build the segment tree over the weights
+     * </pre>
+     * @Time_complexity O(n)
+     */
+    PathIndex(Node<E>[] nodes, Node<E>[] parents, double[] weights, int version) {
+        int n = nodes.length;
+        this.version = version;
+        parent = new int[n];
+        head = new int[n];
+        depth = new int[n];
+        this.weights = new SegmentTree(n);
+        for (int i = 0; i < n; i++) {
+            nodes[i].order = i;
+            parent[i] = parents[i] != null ? parents[i].order : -1;
+            head[i] = i > 0 && parent[i] == i - 1 ? head[i - 1] : i;
+            depth[i] = nodes[i].depth;
+            if (i > 0) {
+                this.weights.set(i, weights[i]);
+            }
+        }
+        this.weights.build();
+    }
+
+    /**
+     * @effects return the modification count of the tree when this index was built
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * @requires 0 < position < n
+     * @modifies this
+     * @effects set the weight of the edge between the node at position and its parent to weight
+     * @Time_complexity O(log(n))
+     */
+    void update(int position, double weight) {
+        weights.update(position, weight);
+    }
+
+    /**
+     * @requires 0 <= u, v < n
+     * @effects <pre>
+     *   return {sum, max, min} of the weights of the edges on the path between the nodes at positions u and v,
+     *   i.e. {0, -Infinity, +Infinity} if u == v
+     * </pre>
+     * @Time_complexity O(log^2(n))
+     */
+    double[] path(int u, int v) {
+        double[] acc = SegmentTree.accumulator();
+        while (head[u] != head[v]) {
+            if (depth[head[u]] < depth[head[v]]) {
+                int t = u;
+                u = v;
+                v = t;
+            }
+            weights.accumulate(head[u], u, acc);
+            u = parent[head[u]];
+        }
+        if (u != v) {
+            // the shallower of u and v is their lca, and its own edge is not on the path
+            weights.accumulate(Math.min(u, v) + 1, Math.max(u, v), acc);
+        }
+        return acc;
+    }
+}
@@ -0,0 +1,256 @@
+package logicLayer.tree;
+
+import java.io.Serializable;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @overview <pre>An immutable hash map (a hash array mapped trie) used by PersistentTree. put() and remove() return a
+ *    new map that shares every untouched branch with this one, so they cost O(log32 n) time and allocations.
+ *    Keys with the same hash code are chained in the same slot.</pre>
+ * @attributes <pre>
+ * root     Branch    null if this map is empty
+ * size     int
+ * </pre>
+ * @rep_invariant <pre>
+ *   (root = null /\ size = 0) \/ (root != null /\ size = number of entries reachable from root)
+ * </pre>
+ */
+final class PersistentMap<K, V> implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(null, 0);
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private final Branch root;
+    private final int size;
+
+    /**
+     * @Overview An entry of the map. Entries whose keys have the same hash code are chained through next.
+     */
+    private static final class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final Object key;
+        private final int hash;
+        private final Object value;
+        private final Entry next;
+
+        private Entry(Object key, int hash, Object value, Entry next) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    /**
+     * @Overview A trie node. Bit i of bitmap is set if the slot for the hash fragment i is used, and slots holds the
+     * used slots in order, each of them being either an Entry chain or a Branch.
+     */
+    private static final class Branch implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final int bitmap;
+        private final Object[] slots;
+
+        private Branch(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    private PersistentMap(Branch root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * @effects return the empty map
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @requires key != null
+     * @effects return the value mapped to key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    V get(Object key) {
+        int hash = hash(key);
+        Branch branch = root;
+        for (int shift = 0; branch != null; shift += BITS) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((branch.bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = branch.slots[Integer.bitCount(branch.bitmap & (bit - 1))];
+            if (slot instanceof Branch) {
+                branch = (Branch) slot;
+            } else {
+                for (Entry e = (Entry) slot; e != null; e = e.next) {
+                    if (e.hash == hash && e.key.equals(key)) {
+                        return (V) e.value;
+                    }
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @requires key != null /\ value != null
+     * @effects return a map that maps key to value and is equal to this otherwise
+     */
+    PersistentMap<K, V> put(K key, V value) {
+        int hash = hash(key);
+        boolean[] added = new boolean[1];
+        Branch r = root == null
+                ? new Branch(bitOf(hash, 0), new Object[]{new Entry(key, hash, value, null)})
+                : put(root, 0, hash, key, value, added);
+        if (root == null) {
+            added[0] = true;
+        }
+        return r == root ? this : new PersistentMap<>(r, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * @requires key != null
+     * @effects return a map that has no entry for key and is equal to this otherwise
+     */
+    PersistentMap<K, V> remove(Object key) {
+        if (root == null) {
+            return this;
+        }
+        Branch r = remove(root, 0, hash(key), key);
+        return r == root ? this : new PersistentMap<>(r, size - 1);
+    }
+
+    private static int bitOf(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static Branch put(Branch branch, int shift, int hash, Object key, Object value, boolean[] added) {
+        int bit = bitOf(hash, shift);
+        int index = Integer.bitCount(branch.bitmap & (bit - 1));
+        if ((branch.bitmap & bit) == 0) {
+            added[0] = true;
+            Object[] slots = new Object[branch.slots.length + 1];
+            System.arraycopy(branch.slots, 0, slots, 0, index);
+            slots[index] = new Entry(key, hash, value, null);
+            System.arraycopy(branch.slots, index, slots, index + 1, branch.slots.length - index);
+            return new Branch(branch.bitmap | bit, slots);
+        }
+        Object slot = branch.slots[index];
+        Object replacement;
+        if (slot instanceof Branch) {
+            replacement = put((Branch) slot, shift + BITS, hash, key, value, added);
+        } else {
+            Entry chain = (Entry) slot;
+            if (chain.hash == hash) {
+                replacement = putInChain(chain, hash, key, value, added);
+            } else {
+                added[0] = true;
+                replacement = split(shift + BITS, chain, new Entry(key, hash, value, null));
+            }
+        }
+        if (replacement == slot) {
+            return branch;
+        }
+        Object[] slots = branch.slots.clone();
+        slots[index] = replacement;
+        return new Branch(branch.bitmap, slots);
+    }
+
+    private static Entry putInChain(Entry chain, int hash, Object key, Object value, boolean[] added) {
+        for (Entry e = chain; e != null; e = e.next) {
+            if (e.key.equals(key)) {
+                if (e.value == value) {
+                    return chain;
+                }
+                return new Entry(key, hash, value, withoutKey(chain, key));
+            }
+        }
+        added[0] = true;
+        return new Entry(key, hash, value, chain);
+    }
+
+    /**
+     * @requires a.hash != b.hash /\ a and b have the same hash fragments below shift
+     * @effects return the smallest branch that holds both a and b
+     */
+    private static Branch split(int shift, Entry a, Entry b) {
+        int bitA = bitOf(a.hash, shift);
+        int bitB = bitOf(b.hash, shift);
+        if (bitA == bitB) {
+            return new Branch(bitA, new Object[]{split(shift + BITS, a, b)});
+        }
+        // bit 31 is negative, so the slots are ordered by comparing the bits as unsigned values
+        return new Branch(bitA | bitB,
+                Integer.compareUnsigned(bitA, bitB) < 0 ? new Object[]{a, b} : new Object[]{b, a});
+    }
+
+    private static Entry withoutKey(Entry chain, Object key) {
+        if (chain == null) {
+            return null;
+        }
+        if (chain.key.equals(key)) {
+            return chain.next;
+        }
+        Entry rest = withoutKey(chain.next, key);
+        return rest == chain.next ? chain : new Entry(chain.key, chain.hash, chain.value, rest);
+    }
+
+    /**
+     * @effects return branch without key (the same instance if key is not in it), or null if the result is empty
+     */
+    private static Branch remove(Branch branch, int shift, int hash, Object key) {
+        int bit = bitOf(hash, shift);
+        if ((branch.bitmap & bit) == 0) {
+            return branch;
+        }
+        int index = Integer.bitCount(branch.bitmap & (bit - 1));
+        Object slot = branch.slots[index];
+        Object replacement;
+        if (slot instanceof Branch) {
+            Branch child = remove((Branch) slot, shift + BITS, hash, key);
+            if (child == slot) {
+                return branch;
+            }
+            // pull a lone chain up so that lookups stay short
+            replacement = child != null && child.slots.length == 1 && child.slots[0] instanceof Entry
+                    ? child.slots[0] : child;
+        } else {
+            Entry chain = (Entry) slot;
+            if (chain.hash != hash) {
+                return branch;
+            }
+            replacement = withoutKey(chain, key);
+            if (replacement == chain) {
+                return branch;
+            }
+        }
+        if (replacement != null) {
+            Object[] slots = branch.slots.clone();
+            slots[index] = replacement;
+            return new Branch(branch.bitmap, slots);
+        }
+        if (branch.slots.length == 1) {
+            return null;
+        }
+        Object[] slots = new Object[branch.slots.length - 1];
+        System.arraycopy(branch.slots, 0, slots, 0, index);
+        System.arraycopy(branch.slots, index + 1, slots, index, slots.length - index);
+        return new Branch(branch.bitmap & ~bit, slots);
+    }
+}
@@ -0,0 +1,723 @@
+package logicLayer.tree;
+
+import common.NotPossibleException;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @overview <pre>A persistent (structurally shared) alternative of Tree, whose snapshots cost O(1).
+ *    The nodes are immutable: every mutation builds new nodes only for the path from the modified node to the root,
+ *    and every other node is shared with the previous versions. The label -> parent index is a PersistentMap, which
+ *    shares its branches in the same way. A PersistentTree is a mutable handle on the latest version, so
+ *    snapshot() only copies the handle, and readers of a snapshot are never affected by later mutations.
+ *    <p>Iterators walk the version that was current when they were created, so they never fail because of a
+ *    concurrent modification.</pre>
+ * @attributes <pre>
+ * root         PNode<E>                    immutable root node, null if this is empty
+ * parents      PersistentMap<E, E>         maps each label except the root's to the label of its parent
+ * </pre>
+ * @Object <pre>
+ *         a typical PersistentTree is T:<r, p> where r is root and p is parents, which is the same tree as
+ *         Tree T:<N:<r.label>, {N:<l> : E:<N:<p[l]>, N:<l>>}, ...>
+ *         </pre>
+ * @rep_invariant <pre>
+ *   (root = null /\ parents is empty) \/
+ *   (parents has no entry for root.label /\
+ *    for all node n reachable from root, for all c in n.children: parents[c.label] = n.label /\
+ *    n.size = 1 + sum of c.size for all c in n.children /\ parents.size = root.size - 1)
+ * </pre>
+ * @jdk_version_requires 1.8
+ */
+public class PersistentTree<E> implements Set<E>, Serializable {
+    private static final long serialVersionUID = 1L;
+    private PNode<E> root;
+    private PersistentMap<E, E> parents;
+
+    /**
+     * @Overview An immutable node: its label, its children in order and the size of its subtree.
+     */
+    private static final class PNode<E> implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private static final PNode<?>[] NO_CHILDREN = new PNode<?>[0];
+
+        private final E label;
+        private final PNode<E>[] children;
+        private final int size;
+
+        @SuppressWarnings("unchecked")
+        private PNode(E label) {
+            this(label, (PNode<E>[]) NO_CHILDREN);
+        }
+
+        private PNode(E label, PNode<E>[] children) {
+            this.label = label;
+            this.children = children;
+            int s = 1;
+            for (PNode<E> child : children) {
+                s += child.size;
+            }
+            this.size = s;
+        }
+
+        private int indexOf(E childLabel) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i].label.equals(childLabel)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * @effects init this as an empty tree
+     */
+    public PersistentTree() {
+        this(null, PersistentMap.empty());
+    }
+
+    /**
+     * @requires label!=null
+     * @effects <pre>
+     *   if label!=null
+     *     init this as a tree whose root is label
+     *   else
+     *     throw new NotPossibleException
+     * </pre>
+     */
+    public PersistentTree(E label) throws NotPossibleException {
+        this();
+        if (label == null) {
+            throw new NotPossibleException("Null Node");
+        }
+        root = new PNode<>(label);
+    }
+
+    /**
+     * @requires c!=null
+     * @effects <pre>
+     *   if c!=null
+     *     init this as an empty tree
+     *     addAll c to this
+     *   else
+     *     throw new NotPossibleException
+     * </pre>
+     */
+    public PersistentTree(Collection<? extends E> c) throws NotPossibleException {
+        this();
+        boolean valid = addAll(c);
+        if (!valid) {
+            throw new NotPossibleException("Invalid Collection: " + c);
+        }
+    }
+
+    private PersistentTree(PNode<E> root, PersistentMap<E, E> parents) {
+        this.root = root;
+        this.parents = parents;
+    }
+
+    /**
+     * @requires tree != null
+     * @effects return a new PersistentTree with the same structure and labels as tree, built in O(n)
+     */
+    public static <E> PersistentTree<E> copyOf(Tree<E> tree) {
+        PersistentTree<E> t = new PersistentTree<>();
+        if (tree.isEmpty()) {
+            return t;
+        }
+        // children of every label in order, then build the immutable nodes bottom-up
+        Map<E, List<E>> children = new HashMap<>();
+        List<E> preOrder = new ArrayList<>(tree.size());
+        for (E label : tree) {
+            preOrder.add(label);
+            E parent = tree.getParent(label);
+            if (parent != null) {
+                children.computeIfAbsent(parent, k -> new ArrayList<>()).add(label);
+                t.parents = t.parents.put(label, parent);
+            }
+        }
+        Map<E, PNode<E>> built = new HashMap<>();
+        for (int i = preOrder.size() - 1; i >= 0; i--) {
+            E label = preOrder.get(i);
+            List<E> labels = children.remove(label);
+            if (labels == null) {
+                built.put(label, new PNode<>(label));
+            } else {
+                PNode<E>[] nodes = newArray(labels.size());
+                for (int k = 0; k < nodes.length; k++) {
+                    nodes[k] = built.remove(labels.get(k));
+                }
+                built.put(label, new PNode<>(label, nodes));
+            }
+        }
+        t.root = built.get(tree.getRoot());
+        return t;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> PNode<E>[] newArray(int length) {
+        return (PNode<E>[]) new PNode<?>[length];
+    }
+
+    /**
+     * @effects <pre>
+     *   return a new PersistentTree that shares the current version of this. Later mutations of either tree are not
+     *   visible in the other one.
+     * </pre>
+     * @Time_complexity O(1)
+     */
+    public PersistentTree<E> snapshot() {
+        return new PersistentTree<>(root, parents);
+    }
+
+    /**
+     * @effects return snapshot()
+     */
+    @Override
+    public PersistentTree<E> clone() {
+        return snapshot();
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * path copying
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * @requires label is in this
+     * @effects return the labels from the root down to label (both included)
+     */
+    private List<E> pathTo(E label) {
+        List<E> path = new ArrayList<>();
+        for (E l = label; l != null; l = parents.get(l)) {
+            path.add(l);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * @requires path = pathTo(path.last)
+     * @effects return the nodes of this along path
+     */
+    private List<PNode<E>> nodesAlong(List<E> path) {
+        List<PNode<E>> nodes = new ArrayList<>(path.size());
+        PNode<E> n = root;
+        nodes.add(n);
+        for (int i = 1; i < path.size(); i++) {
+            n = n.children[n.indexOf(path.get(i))];
+            nodes.add(n);
+        }
+        return nodes;
+    }
+
+    /**
+     * @requires nodes = nodesAlong(p) for some path p
+     * @modifies this
+     * @effects replace the last node of nodes with replacement and copy its ancestors, so that root is the new root
+     */
+    private void replacePath(List<PNode<E>> nodes, PNode<E> replacement) {
+        for (int i = nodes.size() - 2; i >= 0; i--) {
+            PNode<E> parent = nodes.get(i);
+            PNode<E>[] children = parent.children.clone();
+            children[parent.indexOf(nodes.get(i + 1).label)] = replacement;
+            replacement = new PNode<>(parent.label, children);
+        }
+        root = replacement;
+    }
+
+    /**
+     * @requires label is in this
+     * @effects return the node of label in the current version
+     */
+    private PNode<E> node(E label) {
+        List<PNode<E>> nodes = nodesAlong(pathTo(label));
+        return nodes.get(nodes.size() - 1);
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * Set operations
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    @Override
+    public int size() {
+        return root != null ? root.size : 0;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o != null && root != null && (root.label.equals(o) || parents.get(o) != null);
+    }
+
+    /**
+     * Add label as the root if this tree is empty, otherwise as the last child of the root.
+     * @modifies this
+     * @effects <pre>
+     *   if label==null \/ contains(label)==true
+     *     return false
+     *   else
+     *     if root==null
+     *       make label the root
+     *     else
+     *       addNode(root.label, label)
+     *     return true
+     * </pre>
+     */
+    @Override
+    public boolean add(E label) {
+        if (label == null) {
+            return false;
+        }
+        if (root == null) {
+            root = new PNode<>(label);
+            return true;
+        }
+        return addNode(root.label, label);
+    }
+
+    /**
+     * Add child as the last child of parent. Only the nodes from parent up to the root are copied.
+     * @modifies this
+     * @effects <pre>
+     *   if parent is not in this \/ child==null \/ child is in this
+     *     return false
+     *   else
+     *     add child as the last child of parent
+     *     return true
+     * </pre>
+     * @Time_complexity O(depth * degree)
+     */
+    public boolean addNode(E parent, E child) {
+        if (child == null || !contains(parent) || contains(child)) {
+            return false;
+        }
+        List<PNode<E>> nodes = nodesAlong(pathTo(parent));
+        PNode<E> p = nodes.get(nodes.size() - 1);
+        PNode<E>[] children = Arrays.copyOf(p.children, p.children.length + 1);
+        children[p.children.length] = new PNode<>(child);
+        replacePath(nodes, new PNode<>(p.label, children));
+        parents = parents.put(child, parent);
+        return true;
+    }
+
+    /**
+     * Remove an object from this tree together with all of its descendants. Only the ancestors of o are copied.
+     * @modifies this
+     * @effects <pre>
+     *   if contains(o)==false
+     *     return false
+     *   else
+     *     if o is root
+     *       clear()
+     *     else
+     *       remove o and its descendants
+     *     return true
+     * </pre>
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object o) {
+        if (!contains(o)) {
+            return false;
+        }
+        E label = (E) o;
+        if (root.label.equals(label)) {
+            clear();
+            return true;
+        }
+        List<PNode<E>> nodes = nodesAlong(pathTo(label));
+        PNode<E> removed = nodes.remove(nodes.size() - 1);
+        PNode<E> p = nodes.get(nodes.size() - 1);
+        int index = p.indexOf(label);
+        PNode<E>[] children = newArray(p.children.length - 1);
+        System.arraycopy(p.children, 0, children, 0, index);
+        System.arraycopy(p.children, index + 1, children, index, children.length - index);
+        replacePath(nodes, new PNode<>(p.label, children));
+
+        Deque<PNode<E>> stack = new ArrayDeque<>();
+        stack.push(removed);
+        while (!stack.isEmpty()) {
+            PNode<E> n = stack.pop();
+            parents = parents.remove(n.label);
+            for (PNode<E> c : n.children) {
+                stack.push(c);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        for (Object o : c) {
+            if (!contains(o)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @requires c!=null
+     * @effects <pre>
+     *   for all elements o in c
+     *     if add(o)==false
+     *       return false
+     *   return true
+     * </pre>
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        if (c == null || c.isEmpty()) {
+            return false;
+        }
+        for (E o : c) {
+            if (!add(o)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        if (c == null) return false;
+        boolean changed = false;
+        for (Object o : c) {
+            changed |= remove(o);
+        }
+        return changed;
+    }
+
+    /**
+     * A label that is not in c is removed together with its whole subtree.
+     * @requires c!=null
+     */
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        if (c == null || root == null) return false;
+        Collection<?> keep = c instanceof Set ? c : new HashSet<>(c);
+        if (!keep.contains(root.label)) {
+            clear();
+            return true;
+        }
+        List<E> rejected = new ArrayList<>();
+        Deque<PNode<E>> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            for (PNode<E> child : stack.pop().children) {
+                if (keep.contains(child.label)) {
+                    stack.push(child);
+                } else {
+                    rejected.add(child.label);
+                }
+            }
+        }
+        return removeAll(rejected);
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        parents = PersistentMap.empty();
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * tree operations
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * @effects return root's label, or null if this is empty
+     */
+    public E getRoot() {
+        return root != null ? root.label : null;
+    }
+
+    /**
+     * @effects return the label of the parent of label, or null if label is the root or is not in this
+     */
+    public E getParent(E label) {
+        return label != null ? parents.get(label) : null;
+    }
+
+    /**
+     * @effects return the number of edges between label and the root, or -1 if label is not in this
+     */
+    public int getLevel(E label) {
+        if (!contains(label)) {
+            return -1;
+        }
+        int level = 0;
+        for (E l = parents.get(label); l != null; l = parents.get(l)) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * @effects return the labels of the children of label in order, or an empty list if label is not in this
+     */
+    public List<E> getChildren(E label) {
+        if (!contains(label)) {
+            return new ArrayList<>();
+        }
+        PNode<E>[] children = node(label).children;
+        List<E> labels = new ArrayList<>(children.length);
+        for (PNode<E> child : children) {
+            labels.add(child.label);
+        }
+        return labels;
+    }
+
+    /**
+     * @effects return the number of children of label, or -1 if label is not in this
+     */
+    public int getDegree(E label) {
+        return contains(label) ? node(label).children.length : -1;
+    }
+
+    /**
+     * @effects return true if label is in this and has no children, otherwise return false
+     */
+    public boolean isLeaf(E label) {
+        return contains(label) && node(label).children.length == 0;
+    }
+
+    /**
+     * @effects return a new Tree with the same structure and labels as this
+     */
+    public Tree<E> toTree() {
+        Tree<E> t = new Tree<>();
+        if (root == null) {
+            return t;
+        }
+        t.add(root.label);
+        Deque<PNode<E>> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            PNode<E> n = stack.pop();
+            for (PNode<E> child : n.children) {
+                t.addNode(n.label, child.label);
+            }
+            for (int i = n.children.length - 1; i >= 0; i--) {
+                stack.push(n.children[i]);
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @effects <pre>
+     *   return a generator of all labels in pre-order, over the version of this that is current now
+     * </pre>
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Generator(root);
+    }
+
+    private class Generator implements Iterator<E> {
+        private final Deque<PNode<E>> stack = new ArrayDeque<>();
+        private E last;
+
+        private Generator(PNode<E> root) {
+            if (root != null) {
+                stack.push(root);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public E next() {
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            PNode<E> n = stack.pop();
+            for (int i = n.children.length - 1; i >= 0; i--) {
+                stack.push(n.children[i]);
+            }
+            last = n.label;
+            return last;
+        }
+
+        /**
+         * Remove the last returned label and its subtree from the tree. This generator keeps walking its own version,
+         * so it still returns the descendants of that label.
+         */
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            PersistentTree.this.remove(last);
+            last = null;
+        }
+    }
+
+    @Override
+    public Object[] toArray() {
+        List<E> list = new ArrayList<>(size());
+        forEach(list::add);
+        return list.toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] a) {
+        List<E> list = new ArrayList<>(size());
+        forEach(list::add);
+        return list.toArray(a);
+    }
+
+    /**
+     * Two persistent trees are equal if they have the same labels in the same structure. Versions that share nodes
+     * are compared without visiting the shared subtrees.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PersistentTree<?> tree = (PersistentTree<?>) o;
+        if (root == null || tree.root == null) return root == tree.root;
+        Deque<PNode<?>> stack = new ArrayDeque<>();
+        stack.push(root);
+        stack.push(tree.root);
+        while (!stack.isEmpty()) {
+            PNode<?> b = stack.pop();
+            PNode<?> a = stack.pop();
+            if (a == b) {
+                continue;
+            }
+            if (a.size != b.size || a.children.length != b.children.length || !a.label.equals(b.label)) {
+                return false;
+            }
+            for (int i = 0; i < a.children.length; i++) {
+                stack.push(a.children[i]);
+                stack.push(b.children[i]);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 0;
+        for (E label : this) {
+            h += label.hashCode();
+        }
+        return h;
+    }
+
+    /**
+     * @effects return the same string representation as Tree.toString(stylize)
+     */
+    public String toString(boolean stylize) {
+        return toTree().toString(stylize);
+    }
+
+    @Override
+    public String toString() {
+        return toString(false);
+    }
+
+    /**
+     * PersistentTrees are serialized as the labels in pre-order with their numbers of children instead of the default
+     * form of their nodes, which would recurse once per level and overflow the stack on a deep tree.
+     * @effects return new SerializedForm(this)
+     */
+    private Object writeReplace() {
+        return new SerializedForm<>(this);
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("PersistentTrees are deserialized through PersistentTree.SerializedForm");
+    }
+
+    /**
+     * @Overview <pre>The serialized form of a PersistentTree, written and read without recursion:
+     *   form   := n:int  node{n}
+     *   node   := label:object  children:int
+     *   in pre-order. Reading builds the immutable nodes bottom-up from the last label, so a node is built after all
+     *   of its children, and the parent index of each child is added as it is popped.</pre>
+     */
+    private static final class SerializedForm<E> implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private transient PersistentTree<E> tree;
+
+        private SerializedForm(PersistentTree<E> tree) {
+            this.tree = tree;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeInt(tree.size());
+            if (tree.root == null) {
+                return;
+            }
+            Deque<PNode<E>> stack = new ArrayDeque<>();
+            stack.push(tree.root);
+            while (!stack.isEmpty()) {
+                PNode<E> n = stack.pop();
+                out.writeObject(n.label);
+                out.writeInt(n.children.length);
+                for (int i = n.children.length - 1; i >= 0; i--) {
+                    stack.push(n.children[i]);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            int n = in.readInt();
+            if (n < 0) {
+                throw new StreamCorruptedException("Negative size: " + n);
+            }
+            E[] labels = (E[]) new Object[n];
+            int[] childCounts = new int[n];
+            for (int i = 0; i < n; i++) {
+                labels[i] = (E) in.readObject();
+                childCounts[i] = in.readInt();
+                if (labels[i] == null || childCounts[i] < 0 || childCounts[i] >= n - i) {
+                    throw new InvalidObjectException("Invalid node at " + i + ": " + labels[i]);
+                }
+            }
+            PersistentMap<E, E> parents = PersistentMap.empty();
+            Deque<PNode<E>> built = new ArrayDeque<>();      // the subtrees of the labels read so far, first on top
+            for (int i = n - 1; i >= 0; i--) {
+                if (childCounts[i] > built.size()) {
+                    throw new InvalidObjectException("Missing children of " + labels[i]);
+                }
+                PNode<E>[] children = newArray(childCounts[i]);
+                for (int k = 0; k < children.length; k++) {
+                    children[k] = built.pop();
+                    parents = parents.put(children[k].label, labels[i]);
+                }
+                built.push(children.length == 0 ? new PNode<>(labels[i]) : new PNode<>(labels[i], children));
+            }
+            if (built.size() > 1 || parents.size() != Math.max(n - 1, 0)) {
+                throw new InvalidObjectException("Not a tree of " + n + " distinct labels");
+            }
+            tree = new PersistentTree<>(built.peek(), parents);
+        }
+
+        private Object readResolve() {
+            return tree;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package logicLayer.tree;
+
+import java.util.Arrays;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @Overview <pre>A bottom-up segment tree over n doubles that keeps the sum, max and min of every range. It is shared by
+ *    the indexes of Tree that aggregate a value per pre-order position (PathIndex, SubtreeIndex).
+ *    A position that has not been set is neutral: it adds 0 to the sum and is ignored by max and min.</pre>
+ * @attributes <pre>
+ * n            int
+ * sum          double[]    leaves at n..2n-1, sum[k] = sum[2k] + sum[2k+1]
+ * max          double[]    leaves at n..2n-1, max[k] = max(max[2k], max[2k+1])
+ * min          double[]    leaves at n..2n-1, min[k] = min(min[2k], min[2k+1])
+ * </pre>
+ * @rep_invariant n >= 1 /\ sum, max, min have 2n elements
+ */
+class SegmentTree {
+    static final int SUM = 0;
+    static final int MAX = 1;
+    static final int MIN = 2;
+
+    private final int n;
+    private final double[] sum;
+    private final double[] max;
+    private final double[] min;
+
+    /**
+     * @requires n >= 1
+     * @effects init this with n neutral positions; set() them and then build()
+     */
+    SegmentTree(int n) {
+        this.n = n;
+        sum = new double[2 * n];
+        max = new double[2 * n];
+        min = new double[2 * n];
+        Arrays.fill(max, n, 2 * n, Double.NEGATIVE_INFINITY);
+        Arrays.fill(min, n, 2 * n, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @requires 0 <= position < n
+     * @modifies this
+     * @effects set the value at position without updating the ranges above it
+     */
+    void set(int position, double value) {
+        sum[n + position] = value;
+        max[n + position] = value;
+        min[n + position] = value;
+    }
+
+    /**
+     * @modifies this
+     * @effects recompute all ranges from the positions
+     * @Time_complexity O(n)
+     */
+    void build() {
+        for (int k = n - 1; k > 0; k--) {
+            pull(k);
+        }
+    }
+
+    /**
+     * @requires 0 <= position < n
+     * @modifies this
+     * @effects set the value at position and update the ranges that contain it
+     * @Time_complexity O(log(n))
+     */
+    void update(int position, double value) {
+        set(position, value);
+        for (int k = (n + position) >> 1; k > 0; k >>= 1) {
+            pull(k);
+        }
+    }
+
+    private void pull(int k) {
+        sum[k] = sum[2 * k] + sum[2 * k + 1];
+        max[k] = Math.max(max[2 * k], max[2 * k + 1]);
+        min[k] = Math.min(min[2 * k], min[2 * k + 1]);
+    }
+
+    /**
+     * @effects return a new accumulator {sum, max, min} of no position, i.e. {0, -Infinity, +Infinity}
+     */
+    static double[] accumulator() {
+        return new double[]{0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY};
+    }
+
+    /**
+     * @requires 0 <= from <= to < n /\ acc is an accumulator
+     * @modifies acc
+     * @effects add the values at positions from..to to acc
+     * @Time_complexity O(log(n))
+     */
+    void accumulate(int from, int to, double[] acc) {
+        for (int l = from + n, r = to + n + 1; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) {
+                take(l++, acc);
+            }
+            if ((r & 1) == 1) {
+                take(--r, acc);
+            }
+        }
+    }
+
+    private void take(int k, double[] acc) {
+        acc[SUM] += sum[k];
+        acc[MAX] = Math.max(acc[MAX], max[k]);
+        acc[MIN] = Math.min(acc[MIN], min[k]);
+    }
+}
@@ -0,0 +1,63 @@
+package logicLayer.tree;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @Overview <pre>An Euler-tour index over a snapshot of a tree that answers aggregates (sum, max, min) of the node
+ *    values over a whole subtree in O(log(n)), and updates the value of one node in O(log(n)).
+ *    The nodes are numbered in pre-order, so the subtree of the node at position i occupies the interval
+ *    [i, i + size - 1], and the values are kept in a SegmentTree over the positions.</pre>
+ * @attributes <pre>
+ * values       SegmentTree     values[i] is the value of the node at position i
+ * version      int             the modification count of the tree when this index was built
+ * </pre>
+ * @rep_invariant values!=null
+ */
+class SubtreeIndex<E> {
+    private final SegmentTree values;
+    private final int version;
+
+    /**
+     * @requires nodes are the nodes of a tree in pre-order
+     * @modifies nodes[i].order
+     * @effects number the nodes in pre-order and build the segment tree over their values
+     * @Time_complexity O(n)
+     */
+    SubtreeIndex(Node<E>[] nodes, int version) {
+        this.version = version;
+        values = new SegmentTree(nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i].order = i;
+            values.set(i, nodes[i].value);
+        }
+        values.build();
+    }
+
+    /**
+     * @effects return the modification count of the tree when this index was built
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * @requires node is in the indexed snapshot
+     * @modifies this
+     * @effects set the value of node in this index to value
+     * @Time_complexity O(log(n))
+     */
+    void update(Node<E> node, double value) {
+        values.update(node.order, value);
+    }
+
+    /**
+     * @requires node is in the indexed snapshot
+     * @effects return {sum, max, min} of the values of the nodes in the subtree of node
+     * @Time_complexity O(log(n))
+     */
+    double[] subtree(Node<E> node) {
+        double[] acc = SegmentTree.accumulator();
+        values.accumulate(node.order, node.order + node.size - 1, acc);
+        return acc;
+    }
+}
@@ -0,0 +1,846 @@
+package logicLayer.tree;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @overview <pre>A read-only, succinct encoding of a tree for archiving and shipping: its shape takes 2 bits per node
+ *    as balanced parentheses, i.e. a pre-order walk that writes 1 when it enters a node and 0 when it leaves it, and
+ *    its labels are front-coded in pre-order (each label as the number of bytes it shares with the previous one and
+ *    the rest, with a full label every 16 labels). Labels are encoded relative to their parent if the codec reads the
+ *    parent (e.g. files by their name), as in TreeCodec. Since a codec may write a length in front of a label, the
+ *    shared bytes may follow a few bytes of their own and start a few bytes into the previous label. Edge weights and
+ *    node values are not kept.
+ *    <p>Nodes are identified by their pre-order index. The navigation works on the bits directly, through a rank
+ *    directory (the number of 1s before every block of 512 bits) and a min-excess tree over the blocks, so parent(),
+ *    nextSibling() and subtreeSize() take O(log n), and firstChild() and depth() O(1) besides select().
+ *    Only the bits and the labels are written by write(); the directories and the hash index of the labels are
+ *    rebuilt in linear time when reading.</pre>
+ * @attributes <pre>
+ * codec            LabelCodec<E>   encodes the labels, with a plain DataOutput
+ * n                int             number of nodes
+ * bits             long[]          the 2n parentheses, bit p in word p / 64, least significant first
+ * labels           byte[]          the front-coded labels
+ * blockRank        int[]           number of 1s before each block
+ * minTree          int[]           segment tree of the minimum excess in each block, leaves from leaves on
+ * bucketOffsets    int[]           offset in labels of the first label of each bucket
+ * slots            int[]           open-addressing hash index: (hash, id + 1) pairs, capacity pairs
+ * </pre>
+ * @Object <pre>
+ *   excess(p) = number of 1s - number of 0s in bits[0..p], excess(-1) = 0
+ *   node k is the k-th 1 of bits at position p = select(k); its depth is excess(p) - 1 and its subtree ends at the
+ *   matching 0, the first position after p whose excess is excess(p) - 1
+ *   stream   := magic:int  version:byte  n:varint  labelBytes:varint  bits:long{ceil(2n / 64)}  labels
+ *   label    := length:varint bytes                              (first label of a bucket)
+ *             | (shared << 6 | head << 3 | skip):varint bytes{head} length:varint bytes
+ *               (other labels: head bytes, then the shared bytes of the previous label from skip on, then the rest)
+ *   </pre>
+ * @rep_invariant bits has n 1s and n 0s /\ excess(p) > 0 for 0 <= p < 2n - 1 /\ labels has n distinct labels
+ */
+public class SuccinctTree<E> extends AbstractSet<E> {
+    private static final int MAGIC = 0x42505452;     // "BPTR"
+    private static final int FORMAT_VERSION = 1;
+    private static final int BLOCK_BITS = 9;        // 512 bits, i.e. 8 words per block
+    private static final int BUCKET_BITS = 4;       // 16 labels per bucket
+    private static final int MAX_HEAD = 4;          // longest head of a label, and skip into the previous one
+    private static final int NONE = -2;
+
+    /**
+     * EXCESS[b] is the excess of the 8 bits of b, MIN[b] the minimum excess after each of them, both relative to the
+     * excess before b and reading b from its least significant bit
+     */
+    private static final byte[] EXCESS = new byte[256];
+    private static final byte[] MIN = new byte[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            int e = 0;
+            int min = 8;
+            for (int k = 0; k < 8; k++) {
+                e += (b >>> k & 1) != 0 ? 1 : -1;
+                min = Math.min(min, e);
+            }
+            EXCESS[b] = (byte) e;
+            MIN[b] = (byte) min;
+        }
+    }
+
+    private final LabelCodec<E> codec;
+    private final int n;
+    private final long[] bits;
+    private final byte[] labels;
+    private final int[] blockRank;
+    private final int[] minTree;
+    private final int leaves;
+    private final int[] bucketOffsets;
+    private final int[] slots;
+    private final int capacity;
+
+    /**
+     * Build the directories and the label index of the given encoding.
+     * @requires bits and labels describe a tree of n nodes
+     */
+    private SuccinctTree(LabelCodec<E> codec, int n, long[] bits, byte[] labels) throws IOException {
+        this.codec = codec;
+        this.n = n;
+        this.bits = bits;
+        this.labels = labels;
+
+        long total = 2L * n;
+        int blocks = (int) ((total + (1 << BLOCK_BITS) - 1) >>> BLOCK_BITS);
+        blockRank = new int[blocks + 1];
+        int leaves = 1;
+        while (leaves < blocks) {
+            leaves <<= 1;
+        }
+        this.leaves = leaves;
+        minTree = new int[2 * leaves];
+        Arrays.fill(minTree, Integer.MAX_VALUE);
+        int ones = 0;
+        int level = 0;
+        for (int b = 0; b < blocks; b++) {
+            blockRank[b] = ones;
+            int min = Integer.MAX_VALUE;
+            long end = Math.min(total, (long) (b + 1) << BLOCK_BITS);
+            for (long p = (long) b << BLOCK_BITS; p < end; p++) {
+                if (bit(p)) {
+                    ones++;
+                    level++;
+                } else {
+                    level--;
+                }
+                min = Math.min(min, level);
+            }
+            minTree[leaves + b] = min;
+        }
+        blockRank[blocks] = ones;
+        if (ones != n || level != 0) {
+            throw new StreamCorruptedException("Unbalanced parentheses");
+        }
+        for (int node = leaves - 1; node > 0; node--) {
+            minTree[node] = Math.min(minTree[2 * node], minTree[2 * node + 1]);
+        }
+
+        int capacity = 1;
+        while (capacity < n + n / 3 + 1) {
+            capacity <<= 1;
+        }
+        this.capacity = capacity;
+        slots = new int[2 * capacity];
+        bucketOffsets = new int[(n + (1 << BUCKET_BITS) - 1) >>> BUCKET_BITS];
+        Walker walker = new Walker();
+        for (int k = 0; k < n; k++) {
+            if ((k & ((1 << BUCKET_BITS) - 1)) == 0) {
+                bucketOffsets[k >>> BUCKET_BITS] = walker.at[0];
+            }
+            int hash;
+            try {
+                hash = hash(walker.next().hashCode());
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            int slot = hash & (capacity - 1);
+            while (slots[2 * slot + 1] != 0) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            slots[2 * slot] = hash;
+            slots[2 * slot + 1] = k + 1;
+        }
+        if (walker.at[0] != labels.length) {
+            throw new StreamCorruptedException("Expected " + labels.length + " bytes of labels, read " + walker.at[0]);
+        }
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * encoding
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * Encode tree in one pre-order pass.
+     * @requires tree != null /\ codec != null /\ codec can write to a plain DataOutput (e.g. not LabelCodec.OBJECT)
+     * /\ codec.readsParent() or codec can read a label without its parent
+     * @effects return a SuccinctTree with the same labels and structure as tree
+     * @Time_complexity O(n)
+     */
+    public static <E> SuccinctTree<E> of(Tree<E> tree, LabelCodec<E> codec) throws IOException {
+        int n = tree.size();
+        long[] bits = new long[(int) ((2L * n + 63) >>> 6)];
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(dictionary);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream label = new DataOutputStream(bytes);
+        if (n > 0) {
+            byte[] previous = null;
+            int k = 0;
+            long p = 0;
+            Deque<Iterator<Edge<E>>> stack = new ArrayDeque<>();
+            Node<E> node = tree.rootNode();
+            E parent = null;
+            while (true) {
+                if (node != null) {
+                    bits[(int) (p >>> 6)] |= 1L << p;
+                    p++;
+                    bytes.reset();
+                    codec.write(label, node.getLabel(), codec.readsParent() ? parent : null);
+                    byte[] current = bytes.toByteArray();
+                    writeLabel(out, previous, current, k++);
+                    previous = current;
+                    stack.push(tree.childEdges(node).iterator());
+                }
+                Iterator<Edge<E>> children = stack.peek();
+                if (children.hasNext()) {
+                    Edge<E> edge = children.next();
+                    node = edge.getTgt();
+                    parent = edge.getSrc().getLabel();
+                } else {
+                    stack.pop();
+                    p++;
+                    node = null;
+                    if (stack.isEmpty()) {
+                        break;
+                    }
+                }
+            }
+        }
+        out.flush();
+        return new SuccinctTree<>(codec, n, bits, dictionary.toByteArray());
+    }
+
+    /**
+     * @modifies out
+     * @effects write current as the k-th label, following previous: the first bytes of current that differ from
+     * previous (at most MAX_HEAD, e.g. a length in front of the label), where the bytes it shares with previous start
+     * in previous (at most MAX_HEAD, since the length in front of previous may be shorter or longer), how many there
+     * are, and the rest of current
+     */
+    private static void writeLabel(DataOutput out, byte[] previous, byte[] current, int k) throws IOException {
+        int head = 0;
+        int skip = 0;
+        int shared = 0;
+        if ((k & ((1 << BUCKET_BITS) - 1)) != 0) {
+            for (int h = 0; h <= MAX_HEAD && h < current.length; h++) {
+                for (int from = 0; from <= MAX_HEAD && from < previous.length; from++) {
+                    int s = 0;
+                    while (h + s < current.length && from + s < previous.length
+                            && previous[from + s] == current[h + s]) {
+                        s++;
+                    }
+                    if (s - h > shared - head) {
+                        head = h;
+                        skip = from;
+                        shared = s;
+                    }
+                }
+            }
+            TreeCodec.writeVarInt(out, shared << 6 | head << 3 | skip);
+            out.write(current, 0, head);
+        }
+        TreeCodec.writeVarInt(out, current.length - head - shared);
+        out.write(current, head + shared, current.length - head - shared);
+    }
+
+    /**
+     * @requires at[0] is the offset of the k-th label in labels /\ previous is the (k-1)-th label, unless k is the
+     * first label of a bucket
+     * @modifies at
+     * @effects return the k-th label and move at[0] to the next one
+     */
+    private byte[] nextLabel(byte[] previous, int[] at, int k) {
+        int head = 0;
+        int skip = 0;
+        int shared = 0;
+        int headAt = at[0];
+        if ((k & ((1 << BUCKET_BITS) - 1)) != 0) {
+            int header = readVarInt(at);
+            shared = header >>> 6;
+            head = header >>> 3 & 7;
+            skip = header & 7;
+            headAt = at[0];
+            at[0] += head;
+        }
+        int length = readVarInt(at);
+        byte[] label = new byte[head + shared + length];
+        System.arraycopy(labels, headAt, label, 0, head);
+        if (shared > 0) {
+            System.arraycopy(previous, skip, label, head, shared);
+        }
+        System.arraycopy(labels, at[0], label, head + shared, length);
+        at[0] += length;
+        return label;
+    }
+
+    private int readVarInt(int[] at) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = labels[at[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * @effects return the encoded label of node k, decoding at most one bucket
+     */
+    private byte[] labelBytes(int k) {
+        int[] at = {bucketOffsets[k >>> BUCKET_BITS]};
+        byte[] label = null;
+        for (int i = k & ~((1 << BUCKET_BITS) - 1); i <= k; i++) {
+            label = nextLabel(label, at, i);
+        }
+        return label;
+    }
+
+    private E decode(byte[] label, E parent) {
+        try {
+            return codec.read(new DataInputStream(new ByteArrayInputStream(label)), parent);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int hash(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ h >>> 16;
+    }
+
+    /**
+     * @Overview A pre-order walk over the nodes of this tree, which decodes their labels sequentially and keeps the
+     *    labels of the current path, for the codecs that read the label of the parent.
+     */
+    private class Walker {
+        private final int[] at = new int[1];
+        private byte[] previous;
+        private Object[] path = new Object[16];
+        private long position = -1;
+        private int depth = -1;
+        private int next;
+
+        boolean hasNext() {
+            return next < n;
+        }
+
+        /**
+         * @requires hasNext()
+         * @effects return the label of the next node, which is then at position, with depth depth
+         */
+        @SuppressWarnings("unchecked")
+        E next() {
+            while (!bit(++position)) {
+                depth--;
+            }
+            depth++;
+            previous = nextLabel(previous, at, next++);
+            E label = decode(previous, depth > 0 ? (E) path[depth - 1] : null);
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+            }
+            path[depth] = label;
+            return label;
+        }
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * rank, select and excess search
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    private boolean bit(long p) {
+        return (bits[(int) (p >>> 6)] >>> p & 1) != 0;
+    }
+
+    /**
+     * @effects return the number of 1s in bits[0..p-1]
+     */
+    private int rank(long p) {
+        int b = (int) (p >>> BLOCK_BITS);
+        int r = blockRank[b];
+        for (int w = b << (BLOCK_BITS - 6); w < (int) (p >>> 6); w++) {
+            r += Long.bitCount(bits[w]);
+        }
+        if ((p & 63) != 0) {
+            r += Long.bitCount(bits[(int) (p >>> 6)] & ((1L << p) - 1));
+        }
+        return r;
+    }
+
+    /**
+     * @requires 0 <= k < n
+     * @effects return the position of the k-th 1 of bits, counting from 0
+     */
+    private long select(int k) {
+        int lo = 0;
+        int hi = blockRank.length - 2;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (blockRank[mid] <= k) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        int r = k - blockRank[lo];
+        int w = lo << (BLOCK_BITS - 6);
+        for (int c = Long.bitCount(bits[w]); r >= c; c = Long.bitCount(bits[w])) {
+            r -= c;
+            w++;
+        }
+        long word = bits[w];
+        for (; r > 0; r--) {
+            word &= word - 1;
+        }
+        return ((long) w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * @effects return excess(p)
+     */
+    private int excess(long p) {
+        return p < 0 ? 0 : 2 * rank(p + 1) - (int) (p + 1);
+    }
+
+    /**
+     * @effects return the first position p in [from, end) with excess(p) == target, given e = excess(from - 1), or NONE
+     */
+    private long scanForward(long from, long end, int e, int target) {
+        for (long p = from; p < end; ) {
+            if ((p & 7) == 0 && p + 8 <= end) {
+                int b = (int) (bits[(int) (p >>> 6)] >>> p) & 0xFF;
+                if (e + MIN[b] > target) {
+                    e += EXCESS[b];
+                    p += 8;
+                    continue;
+                }
+            }
+            e += bit(p) ? 1 : -1;
+            if (e == target) {
+                return p;
+            }
+            p++;
+        }
+        return NONE;
+    }
+
+    /**
+     * @effects return the last position p in [stop, from] with excess(p) == target, given e = excess(from), or NONE
+     */
+    private long scanBackward(long from, long stop, int e, int target) {
+        for (long p = from; p >= stop; ) {
+            if ((p & 7) == 7 && p - 7 >= stop) {
+                int b = (int) (bits[(int) (p >>> 6)] >>> (p - 7)) & 0xFF;
+                int before = e - EXCESS[b];
+                if (before + MIN[b] > target) {
+                    e = before;
+                    p -= 8;
+                    continue;
+                }
+            }
+            if (e == target) {
+                return p;
+            }
+            e -= bit(p) ? 1 : -1;
+            p--;
+        }
+        return NONE;
+    }
+
+    /**
+     * @requires target < excess(i)
+     * @effects return the first position p > i with excess(p) == target, or NONE
+     */
+    private long forwardSearch(long i, int target) {
+        long total = 2L * n;
+        long from = i + 1;
+        if (from >= total) {
+            return NONE;
+        }
+        int block = (int) (from >>> BLOCK_BITS);
+        long p = scanForward(from, Math.min(total, (long) (block + 1) << BLOCK_BITS), excess(i), target);
+        if (p != NONE) {
+            return p;
+        }
+        // the leftmost block to the right whose minimum reaches target
+        int node = block + leaves;
+        while (node > 1 && ((node & 1) != 0 || minTree[node + 1] > target)) {
+            node >>>= 1;
+        }
+        if (node == 1) {
+            return NONE;
+        }
+        for (node++; node < leaves; ) {
+            node = minTree[2 * node] <= target ? 2 * node : 2 * node + 1;
+        }
+        long start = (long) (node - leaves) << BLOCK_BITS;
+        return scanForward(start, Math.min(total, start + (1 << BLOCK_BITS)), excess(start - 1), target);
+    }
+
+    /**
+     * @requires target < excess(i - 1)
+     * @effects return the last position p < i with excess(p) == target, -1 if there is none and target is 0 (i.e.
+     * excess(-1)), or NONE
+     */
+    private long backwardSearch(long i, int target) {
+        long from = i - 1;
+        if (from < 0) {
+            return target == 0 ? -1 : NONE;
+        }
+        int block = (int) (from >>> BLOCK_BITS);
+        long p = scanBackward(from, (long) block << BLOCK_BITS, excess(from), target);
+        if (p != NONE) {
+            return p;
+        }
+        // the rightmost block to the left whose minimum reaches target
+        int node = block + leaves;
+        while (node > 1 && ((node & 1) == 0 || minTree[node - 1] > target)) {
+            node >>>= 1;
+        }
+        if (node == 1) {
+            return target == 0 ? -1 : NONE;
+        }
+        for (node--; node < leaves; ) {
+            node = minTree[2 * node + 1] <= target ? 2 * node + 1 : 2 * node;
+        }
+        long start = (long) (node - leaves) << BLOCK_BITS;
+        long last = Math.min(2L * n, start + (1 << BLOCK_BITS)) - 1;
+        return scanBackward(last, start, excess(last), target);
+    }
+
+    /**
+     * @requires bits[p] is 1
+     * @effects return the position of the 0 that closes the node opened at p
+     */
+    private long close(long p) {
+        return forwardSearch(p, excess(p) - 1);
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * navigation
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * @effects return the node (pre-order index) of label, or -1 if label is not in this
+     */
+    public int nodeOf(Object label) {
+        if (label == null) {
+            return -1;
+        }
+        int hash = hash(label.hashCode());
+        for (int slot = hash & (capacity - 1); slots[2 * slot + 1] != 0; slot = (slot + 1) & (capacity - 1)) {
+            int k = slots[2 * slot + 1] - 1;
+            if (slots[2 * slot] == hash && label.equals(label(k))) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @requires 0 <= node < size()
+     * @effects return the label of node, decoding the labels of its ancestors as well if codec reads the parent
+     * @Time_complexity O(log n) or O(depth(node) * log n)
+     */
+    public E label(int node) {
+        if (!codec.readsParent()) {
+            return decode(labelBytes(node), null);
+        }
+        int[] path = new int[depth(node) + 1];
+        for (int d = path.length - 1, k = node; d >= 0; d--, k = parent(k)) {
+            path[d] = k;
+        }
+        E label = null;
+        for (int k : path) {
+            label = decode(labelBytes(k), label);
+        }
+        return label;
+    }
+
+    /**
+     * @requires 0 <= node < size()
+     * @effects return the parent of node, or -1 if node is the root
+     * @Time_complexity O(log n)
+     */
+    public int parent(int node) {
+        long p = select(node);
+        int depth = excess(p);
+        if (depth == 1) {
+            return -1;
+        }
+        return rank(backwardSearch(p, depth - 2) + 1);
+    }
+
+    /**
+     * @requires 0 <= node < size()
+     * @effects return the first child of node, or -1 if node is a leaf
+     */
+    public int firstChild(int node) {
+        long p = select(node);
+        return p + 1 < 2L * n && bit(p + 1) ? node + 1 : -1;
+    }
+
+    /**
+     * @requires 0 <= node < size()
+     * @effects return the next sibling of node, or -1 if node is the last child of its parent or the root
+     * @Time_complexity O(log n)
+     */
+    public int nextSibling(int node) {
+        long p = select(node);
+        long next = close(p) + 1;
+        return next < 2L * n && bit(next) ? node + (int) ((next - p) / 2) : -1;
+    }
+
+    /**
+     * @requires 0 <= node < size()
+     * @effects return the number of edges between node and the root
+     */
+    public int depth(int node) {
+        return excess(select(node)) - 1;
+    }
+
+    /**
+     * @requires 0 <= node < size()
+     * @effects return the number of nodes in the subtree of node, including node
+     * @Time_complexity O(log n)
+     */
+    public int subtreeSize(int node) {
+        long p = select(node);
+        return (int) ((close(p) - p + 1) / 2);
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * read-side Tree API
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return nodeOf(o) >= 0;
+    }
+
+    /**
+     * @effects return root's label, or null if this is empty
+     */
+    public E getRoot() {
+        return n > 0 ? label(0) : null;
+    }
+
+    /**
+     * @effects return the number of bytes that write() produces, i.e. the size of this encoding
+     */
+    public long getEncodedSize() {
+        return 4 + 1 + varIntSize(n) + varIntSize(labels.length) + 8L * bits.length + labels.length;
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * @effects return a generator of all labels of this in pre-order, which decodes them sequentially
+     */
+    @Override
+    public Iterator<E> iterator() {
+        Walker walker = new Walker();
+        return new Iterator<E>() {
+            @Override
+            public boolean hasNext() {
+                return walker.hasNext();
+            }
+
+            @Override
+            public E next() {
+                if (!walker.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return walker.next();
+            }
+        };
+    }
+
+    /**
+     * @effects return a new Tree with the same structure and labels as this
+     * @Time_complexity O(n)
+     */
+    public Tree<E> toTree() {
+        Tree<E> t = new Tree<>();
+        if (n == 0) {
+            return t;
+        }
+        Node<E>[] nodes = Node.newArray(n);
+        Node<E>[] parents = Node.newArray(n);
+        Node<E>[] path = Node.newArray(16);
+        Walker walker = new Walker();
+        for (int k = 0; k < n; k++) {
+            E label = walker.next();
+            int depth = walker.depth;
+            Node<E> node = depth == 0 ? t.loadRoot(label, 0) : t.loadChild(path[depth - 1], label, 0, null);
+            if (node == null) {
+                throw new IllegalStateException("Invalid or duplicate label: " + label);
+            }
+            nodes[k] = node;
+            parents[k] = depth == 0 ? null : path[depth - 1];
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+            }
+            path[depth] = node;
+        }
+        t.loaded(nodes, parents);
+        return t;
+    }
+
+    /**
+     * @effects return the same string representation as Tree.toString(stylize)
+     */
+    public String toString(boolean stylize) {
+        return n > 0 ? TreeRenderer.toString(new BitCursor(), stylize) : "";
+    }
+
+    @Override
+    public String toString() {
+        return toString(false);
+    }
+
+    /**
+     * Write the string representation of this tree to the given writer in one pass over the bits, through
+     * TreeRenderer.
+     * @requires out != null
+     * @modifies out
+     */
+    public void print(Writer out, boolean stylize) throws IOException {
+        if (n > 0) {
+            TreeRenderer.print(out, new BitCursor(), stylize);
+        }
+    }
+
+    /**
+     * @Overview A TreeRenderer.Cursor over the parentheses of this tree, which keeps the positions of the ancestors of
+     *    the current node. The renderer visits the nodes in pre-order, so the labels are taken from a Walker.
+     */
+    private class BitCursor implements TreeRenderer.Cursor<E> {
+        private final Walker labels = new Walker();
+        private long[] ancestors = new long[16];
+        private int depth;
+        private long position;
+        private long sibling = NONE;     // position of the next sibling, once looked up
+
+        @Override
+        public E label() {
+            return labels.next();
+        }
+
+        @Override
+        public boolean firstChild() {
+            if (position + 1 >= 2L * n || !bit(position + 1)) {
+                return false;
+            }
+            if (depth == ancestors.length) {
+                ancestors = Arrays.copyOf(ancestors, depth * 2);
+            }
+            ancestors[depth++] = position;
+            position++;
+            sibling = NONE;
+            return true;
+        }
+
+        @Override
+        public boolean hasNextSibling() {
+            if (sibling == NONE) {
+                sibling = close(position) + 1;
+            }
+            return sibling < 2L * n && bit(sibling);
+        }
+
+        @Override
+        public boolean nextSibling() {
+            if (!hasNextSibling()) {
+                return false;
+            }
+            position = sibling;
+            sibling = NONE;
+            return true;
+        }
+
+        @Override
+        public void parent() {
+            position = ancestors[--depth];
+            sibling = NONE;
+        }
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * reading and writing
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * Write the bits and the labels of this tree to the given stream through a buffer. The stream is flushed but not
+     * closed.
+     * @requires out != null
+     * @modifies out
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeByte(FORMAT_VERSION);
+        TreeCodec.writeVarInt(data, n);
+        TreeCodec.writeVarInt(data, labels.length);
+        for (long word : bits) {
+            data.writeLong(word);
+        }
+        data.write(labels);
+        data.flush();
+    }
+
+    /**
+     * @requires in != null /\ codec is the codec the tree was encoded with
+     * @modifies in
+     * @effects <pre>
+     *   if in holds a tree written by write()
+     *     return that tree
+     *   else
+     *     throw an IOException
+     * </pre>
+     * @Time_complexity O(n)
+     */
+    public static <E> SuccinctTree<E> read(InputStream in, LabelCodec<E> codec) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new StreamCorruptedException("Not a succinct tree");
+        }
+        int version = data.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new StreamCorruptedException("Unknown format version: " + version);
+        }
+        int n = TreeCodec.readVarInt(data);
+        int labelBytes = TreeCodec.readVarInt(data);
+        long[] bits = new long[(int) ((2L * n + 63) >>> 6)];
+        for (int w = 0; w < bits.length; w++) {
+            bits[w] = data.readLong();
+        }
+        byte[] labels = new byte[labelBytes];
+        data.readFully(labels);
+        return new SuccinctTree<>(codec, n, bits, labels);
+    }
+}
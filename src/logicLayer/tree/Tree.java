@@ -1,27 +1,34 @@
 package logicLayer.tree;
 
 import common.NotPossibleException;
+import common.Pair;
 
-import java.io.File;
-import java.io.Serializable;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
  * @author Phan Quang Tuan
- * @version 1.8
+ * @version 1.9
  * @overview <pre>A tree is a set of map that are connected to each other by
  *    edges such that one node, called the root, is connected to some map,
  *    each of these map is connected to some other map that have not been
  *    connected, and so on.
  *    A tree does not contain duplicate values.
  *    <p>The following is a <b>top-down</b> recursive design that incrementally build a
- *    tree by adding leaf map.<pre>
+ *    tree by adding leaf map.
+ *    <p>Positional access (get(int), indexOf(), subList()) descends from the root by subtree sizes, so it costs
+ *    O(depth * log(degree)): logarithmic on a balanced tree, but linear in its size on a chain.<pre>
  *
  * @attributes <pre>
  * root                     Node<E>
- * parentEdges              HashMap<Node<E>, Edge<E>>
+ * parentEdges              HashMap<E, Edge<E>>
  * properF1DescEdges        HashMap<Node<E>, List<Edge<E>>>
+ * comparator               Comparator<? super E>
  * </pre>
  * @Object <pre>
  *         a typical Tree is T:<r,e,d> where r is root, e is parentEdges,
@@ -39,7 +46,7 @@ import java.util.stream.Collectors;
  *   root!=null &&
  *   parentEdges.size = properF1DescEdges.size &&
  *   parentEdges!=null && parentEdges does not have duplicate values &&
- *   parentEdges.Edge<E>[i].getTgt() == parentEdges.Node<E>[i] | 0 < i < parentEdges.size &&
+ *   parentEdges.Edge<E>[i].getTgt().label == parentEdges.E[i] | 0 < i < parentEdges.size &&
  *   properF1DescEdges!=null && all Lists in properF1DescEdges are not null /\ do not have duplicate values &&
  *     all elements in Lists of properF1DescEdges.values
  *     Edge<E>[i].getTgt() == properF1DescEdges.Node<E>[i] | 0 < i < properF1DescEdges.size
@@ -48,9 +55,17 @@ import java.util.stream.Collectors;
  * </pre>
  */
 public class Tree<E> implements Set<E>, Serializable {
+    private static final long serialVersionUID = 1L;
     private Node<E> root;
-    private final HashMap<Node<E>, Edge<E>> parentEdges;      // as edges
+    private final HashMap<E, Edge<E>> parentEdges;      // as edges, keyed on labels so that look-ups allocate nothing
     private final HashMap<Node<E>, List<Edge<E>>> properF1DescEdges;    // as nodes
+    private transient List<Node<E>> unsettled;  // nodes added by addNode() whose ancestors are not resized, see settle()
+    private transient int modCount;     // number of structural modifications, checked by the generators
+    private transient LcaIndex<E> lcaIndex;     // built lazily, stale once modCount has changed
+    private transient PathIndex<E> pathIndex;   // built lazily, stale once modCount has changed
+    private transient SubtreeIndex<E> subtreeIndex;     // built lazily, stale once modCount has changed
+    private transient int orderVersion = -1;    // modCount when Node.order was last assigned, see heavyFirstPreOrder()
+    private Comparator<? super E> comparator;    // order of the children of every node, null for insertion order
 
     /**
      * @effects init this as T:<null, {}, {}>
@@ -60,6 +75,23 @@ public class Tree<E> implements Set<E>, Serializable {
         properF1DescEdges = new HashMap<>();
     }
 
+    /**
+     * Create a tree that keeps the children of every node sorted by comparator. A child is inserted after its siblings
+     * that compare equal to it, and a relabelled node (set(), swap()) is moved to its new position.
+     * @requires comparator can compare all labels that are added to this
+     * @effects <pre>
+     *   init this as T:<null, {}, {}>
+     *   if comparator != null
+     *     keep the children of every node sorted by comparator
+     *   else
+     *     keep the children of every node in insertion order
+     * </pre>
+     */
+    public Tree(Comparator<? super E> comparator) {
+        this();
+        this.comparator = comparator;
+    }
+
     /**
      * @requires label!=null
      * @effects <pre>
@@ -104,14 +136,15 @@ public class Tree<E> implements Set<E>, Serializable {
      * @modifies this
      * @effects <pre>
      *  - assign root = node
-     *  - put tuple (root, null) to this.parentEdges
+     *  - put tuple (root.label, null) to this.parentEdges
      *  - put tuple (root, []) to this.properF1DescEdges
      * </pre>
      */
     private void addRoot(Node<E> node) {
         root = node;
-        parentEdges.put(root, null);
+        parentEdges.put(root.getLabel(), null);
         properF1DescEdges.put(root, new ArrayList<>());
+        modCount++;
     }
 
     /**
@@ -141,13 +174,7 @@ public class Tree<E> implements Set<E>, Serializable {
      */
     @Override
     public boolean contains(Object o) {
-        try {
-            Node<?> node = new Node<>(o);
-            return root != null && root.equals(o) || properF1DescEdges.containsKey(node);
-        } catch (NotPossibleException e) {
-            e.printStackTrace();
-        }
-        return false;
+        return o != null && parentEdges.containsKey(o);
     }
 
     /**
@@ -162,15 +189,36 @@ public class Tree<E> implements Set<E>, Serializable {
      *                              href="Collection.html#optional-restrictions">optional</a>)
      * @throws NullPointerException if the specified element is null and this list does not permit null elements (<a
      *                              href="Collection.html#optional-restrictions">optional</a>)
+     * @Time_complexity O(depth * log(degree)), amortized over the lazily rebuilt childOffsets
+     * @effects <pre>
+     *  if o is not in this
+     *      return -1
+     *  else
+     *      index = 0
+     *      for each node n on the path from N:<o> up to (but excluding) root
+     *          index = index + 1 + (total size of the left siblings of n)
+     *      return index
+     * </pre>
      */
+    @SuppressWarnings("unchecked")
     public int indexOf(Object o) {
-        List<Object> data = Arrays.asList(toArray());
-        return data.indexOf(o);
+        Node<E> node = get((E) o);
+        if (node == null) {
+            return -1;
+        }
+        int index = 0;
+        while (node != root) {
+            Node<E> parent = getParent(node);
+            int[] offsets = childOffsets(parent);     // also refreshes node.childIndex
+            index += 1 + offsets[node.childIndex];
+            node = parent;
+        }
+        return index;
     }
 
     /**
      * @effects <pre>
-     *   return a generator that contains all labels of this.nodes in pre-order.
+     *   return a generator that lazily visits all labels of this.nodes in pre-order.
      * </pre>
      */
     @Override
@@ -178,37 +226,278 @@ public class Tree<E> implements Set<E>, Serializable {
         return new Generator();
     }
 
+    /**
+     * A lazy pre-order generator. It only keeps the path to the current node, i.e. one Frame per level, and fails
+     * fast with a ConcurrentModificationException if the tree is modified other than through its remove().
+     */
     private class Generator implements Iterator<E> {
-        private final List<Node<E>> nodes;
-        private int index;
+        private final Deque<Frame<E>> stack = new ArrayDeque<>();
+        private boolean started;
+        private Node<E> start = root;       // the first node to visit
+        private Frame<E> startFrame;        // the frame that start is taken from, null for root
+        private int remaining = -1;         // number of labels left to visit, or -1 for all of them
+        private Node<E> last;               // the node returned by the last call to next()
+        private Frame<E> lastFrame;         // the frame that last was taken from, null for root
+        private Node<E> descendInto;        // the node whose children have to be visited next
+        private int expectedModCount = modCount;
+
+        private Generator() {
+        }
 
-        public Generator() {
-            //nodes = Tree.this.properF1DescEdges.keySet();     // this will produce the tree with wrong order
-            nodes = preOrderTraversal(root);
+        /**
+         * Start at the node at fromIndex in pre-order and visit count labels. The descent to that node by subtree sizes
+         * pushes a Frame for every level whose index is right after the child on the path, so the traversal and
+         * remove() go on as if all labels before fromIndex had been visited.
+         * @requires 0 <= fromIndex /\ 0 <= count /\ fromIndex + count <= size()
+         * @Time_complexity O(depth * log(degree)), like get(int)
+         */
+        private Generator(int fromIndex, int count) {
+            remaining = count;
+            if (count == 0) {
+                return;
+            }
+            int i = fromIndex;
+            while (i > 0) {
+                i--;
+                int[] offsets = childOffsets(start);
+                int c = Arrays.binarySearch(offsets, i);
+                if (c < 0) {
+                    c = -c - 2;     // insertion point - 1
+                }
+                startFrame = new Frame<>(properF1DescEdges.get(start));
+                startFrame.index = c + 1;
+                stack.push(startFrame);
+                start = startFrame.children.get(c).getTgt();
+                i -= offsets[c];
+            }
         }
 
         @Override
         public boolean hasNext() {
-            return index < nodes.size();
+            if (remaining == 0) {
+                return false;
+            }
+            if (!started) {
+                return start != null;
+            }
+            if (descendInto != null && !properF1DescEdges.get(descendInto).isEmpty()) {
+                return true;
+            }
+            while (!stack.isEmpty() && !stack.peek().hasNext()) {
+                stack.pop();
+            }
+            return !stack.isEmpty();
         }
 
         @Override
         public E next() throws NoSuchElementException {
-            return nodes.get(index++).getLabel();
+            checkForComodification();
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            if (!started) {
+                if (start == null) {
+                    throw new NoSuchElementException();
+                }
+                started = true;
+                return visit(start, startFrame);
+            }
+            if (descendInto != null) {
+                stack.push(new Frame<>(properF1DescEdges.get(descendInto)));
+                descendInto = null;
+            }
+            while (!stack.isEmpty()) {
+                Frame<E> frame = stack.peek();
+                if (frame.hasNext()) {
+                    return visit(frame.next().getTgt(), frame);
+                }
+                stack.pop();
+            }
+            throw new NoSuchElementException();
         }
 
+        private E visit(Node<E> node, Frame<E> frame) {
+            if (remaining > 0) {
+                remaining--;
+            }
+            last = node;
+            lastFrame = frame;
+            descendInto = node;
+            return node.getLabel();
+        }
+
+        /**
+         * Remove the last returned label together with its subtree, which is therefore skipped by this generator.
+         * @Time_complexity O(size of the removed subtree + degree of its parent)
+         */
         @Override
         public void remove() {
-            Node<E> node = nodes.get(index - 1);
-            if (Tree.this.remove(node.getLabel())) {
-                index--;
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            checkForComodification();
+            if (last == root) {
+                clear();
+                stack.clear();
+            } else {
+                settle();
+                Edge<E> parentEdge = lastFrame.children.remove(--lastFrame.index);
+                detached(parentEdge.getSrc(), last);
+                deleteSubtree(last);
+                modCount++;
+            }
+            last = null;
+            descendInto = null;
+            expectedModCount = modCount;
+        }
+
+        private void checkForComodification() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * @effects <pre>
+     *   return a SubtreeSpliterator over all labels of this in pre-order, which splits at child boundaries so that
+     *   parallelStream() can fan the subtrees out to different threads.
+     * </pre>
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        if (isEmpty()) {
+            return Spliterators.emptySpliterator();
+        }
+        List<Edge<E>> children = properF1DescEdges.get(root);
+        return new SubtreeSpliterator(root, children, childOffsets(root), 0, children.size());
+    }
+
+    /**
+     * A pre-order spliterator over an optional pending node followed by the subtrees of a range of sibling edges.
+     * Since every node knows the size of its subtree, the size of any such range is exact, so it reports SIZED and
+     * SUBSIZED. trySplit() hands the first half of the range (by number of nodes) to the new spliterator, and descends
+     * into a single remaining subtree when there is nothing left to halve. It fails fast like the Generator.
+     * <p>The child offsets of a range are built by the thread that creates the spliterator, before it can be handed
+     * to another thread, so the spliterators only read the shared bookkeeping.
+     */
+    private class SubtreeSpliterator implements Spliterator<E> {
+        private Node<E> pending;            // visited before the range, null if none
+        private List<Edge<E>> children;
+        private int[] offsets;              // childOffsets of the parent of children
+        private int lo;
+        private int hi;
+        private int remaining;
+        private Deque<Frame<E>> stack;      // null until the traversal has started
+        private final int expectedModCount = modCount;
+
+        private SubtreeSpliterator(Node<E> pending, List<Edge<E>> children, int[] offsets, int lo, int hi) {
+            this.pending = pending;
+            this.children = children;
+            this.offsets = offsets;
+            this.lo = lo;
+            this.hi = hi;
+            this.remaining = (pending != null ? 1 : 0) + rangeSize(lo, hi);
+        }
+
+        /**
+         * @effects return the number of nodes in the subtrees of children[from..to-1]
+         */
+        private int rangeSize(int from, int to) {
+            return from < to ? offsets[to - 1] + children.get(to - 1).getTgt().size - offsets[from] : 0;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            if (stack == null) {
+                stack = new ArrayDeque<>();
+                stack.push(new Frame<>(children.subList(lo, hi)));
+            }
+            Node<E> node = pending;
+            if (node != null) {
+                pending = null;
+            } else {
+                while (!stack.isEmpty() && !stack.peek().hasNext()) {
+                    stack.pop();
+                }
+                if (stack.isEmpty()) {
+                    return false;
+                }
+                node = stack.peek().next().getTgt();
+                List<Edge<E>> grandChildren = properF1DescEdges.get(node);
+                if (!grandChildren.isEmpty()) {
+                    stack.push(new Frame<>(grandChildren));
+                }
+            }
+            remaining--;
+            action.accept(node.getLabel());
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            return true;
+        }
 
-                // fetch data from the tree. Time complexity: O^n
-                List<Node<E>> treeNodes = new ArrayList<>();
-                treeNodes.add(root);
-                treeNodes.addAll(Tree.this.properF1DescEdges.keySet());
-                nodes.retainAll(treeNodes);
+        @Override
+        public Spliterator<E> trySplit() {
+            if (stack != null) {
+                return null;        // the traversal has already started
+            }
+            while (pending == null && hi - lo == 1) {
+                // a single subtree: continue with its root followed by its children
+                pending = children.get(lo).getTgt();
+                children = properF1DescEdges.get(pending);
+                offsets = childOffsets(pending);
+                lo = 0;
+                hi = children.size();
+            }
+            SubtreeSpliterator prefix;
+            if (hi - lo >= 2) {
+                int half = offsets[lo] + rangeSize(lo, hi) / 2;
+                int mid = Arrays.binarySearch(offsets, lo + 1, hi, half);
+                mid = Math.max(lo + 1, Math.min(hi - 1, mid >= 0 ? mid : -mid - 1));
+                prefix = new SubtreeSpliterator(pending, children, offsets, lo, mid);
+                lo = mid;
+            } else if (pending != null && hi - lo == 1) {
+                prefix = new SubtreeSpliterator(pending, children, offsets, lo, lo);
+            } else {
+                return null;
             }
+            pending = null;
+            remaining = rangeSize(lo, hi);
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | NONNULL | SIZED | SUBSIZED;
+        }
+    }
+
+    /**
+     * @Overview A cursor over the list of child edges of a node, used by the explicit-stack traversals.
+     */
+    private static class Frame<E> {
+        private final List<Edge<E>> children;
+        private int index;
+
+        private Frame(List<Edge<E>> children) {
+            this.children = children;
+        }
+
+        private boolean hasNext() {
+            return index < children.size();
+        }
+
+        private Edge<E> next() {
+            return children.get(index++);
         }
     }
 
@@ -299,30 +588,30 @@ public class Tree<E> implements Set<E>, Serializable {
      *       return true
      *     else
      *       remove node from its parent's properF1DescEdges list
-     *       recursiveRemove(N:<o>);
+     *       update the subtree size and height of its ancestors
+     *       deleteSubtree(N:<o>);
      *       return true
      * </pre>
      */
     @SuppressWarnings("unchecked")
     @Override
     public boolean remove(Object o) {
-        if (contains(o)) {
-            try {
-                Node<E> node = new Node<>((E) o);
-                if (node.equals(root)) {
-                    clear();
-                } else {
-                    // remove node from its parent's properF1DescEdges list
-                    Edge<E> parentEdge = parentEdges.get(node);
-                    Node<E> parentNode = parentEdge.getSrc();
-                    List<Edge<E>> list = properF1DescEdges.get(parentNode);
-                    list.remove(parentEdge);
-                    recursiveRemove(node);
-                }
-                return true;
-            } catch (NotPossibleException e) {
-                e.printStackTrace();
+        Node<E> node = get((E) o);
+        if (node != null) {
+            if (node == root) {
+                clear();
+            } else {
+                // remove node from its parent's properF1DescEdges list
+                Edge<E> parentEdge = parentEdges.get(node.getLabel());
+                Node<E> parentNode = parentEdge.getSrc();
+                settle();
+                List<Edge<E>> list = properF1DescEdges.get(parentNode);
+                list.remove(parentEdge);
+                detached(parentNode, node);
+                deleteSubtree(node);
+                modCount++;
             }
+            return true;
         }
         return false;
     }
@@ -370,7 +659,7 @@ public class Tree<E> implements Set<E>, Serializable {
             if (isEmpty()) {
                 return treeCopy((Tree<E>) c);
             } else {
-                return addTree((Tree<E>) c, root);
+                return addTree((Tree<E>) c, root) || mergeTree((Tree<E>) c, root);
             }
         } else {
 //            for (E o : c) {
@@ -385,23 +674,60 @@ public class Tree<E> implements Set<E>, Serializable {
     /**
      * @requires this.isEmpty()==true, src.isEmpty()==false
      * @modifies root, parentEdges, properF1DescEdges
-     * @effects shallow copy the structure and all elements from src to this
+     * @effects copy the structure, all elements and edge weights from src to this. The nodes are copied as well since
+     * they carry the bookkeeping (e.g. subtree size) of the tree they belong to.
      */
     private boolean treeCopy(Tree<E> src) {
         if (!src.isEmpty()) {
-            root = src.getRootNode();
-            parentEdges.putAll(src.parentEdges);
-            Set<Map.Entry<Node<E>, List<Edge<E>>>> pairs = src.properF1DescEdges.entrySet();
-            for (Map.Entry<Node<E>, List<Edge<E>>> entry : pairs) {
-                properF1DescEdges.put(entry.getKey(), new ArrayList<>(entry.getValue()));
-            }
+            src.settle();
+            addRoot(copyOf(src.root));
+            root.size = src.root.size;
+            root.height = src.root.height;
+            graftChildren(src, src.root, root);
             return true;
         }
         return false;
     }
 
     /**
-     * This method adds all elements of Tree src to the Node tgt in pre-order traversal
+     * This method grafts a copy of Tree src under the Node tgt. The copy keeps the shape, the edge weights and the node
+     * values of src. It is built in one pass over src without intermediate lists, and since the new nodes get the
+     * subtree sizes and heights of the nodes they copy, only the ancestors of the graft point are updated once.
+     * @requires this.isEmpty()==false /\ src!=null /\ tgt!=null /\ tgt is in this.properF1DescEdges
+     * @modifies this.properF1DescEdges, this.parentEdges
+     * @effects <pre>
+     *   if src is empty \/ some label of src is in this
+     *     return false
+     *   else
+     *     for all Node n in src, parents first
+     *       copy n under the copy of its parent in src, or under tgt if n is src.root
+     *     update the bookkeeping of tgt and its ancestors
+     *     return true
+     * </pre>
+     * @Time_complexity O(k + depth(tgt)), k = src.size()
+     */
+    private boolean addTree(Tree<E> src, Node<E> tgt) {
+        if (src == null || src.isEmpty() || tgt == null) {
+            return false;
+        }
+        for (E label : src) {
+            if (contains(label)) {
+                return false;
+            }
+        }
+        src.settle();
+        settle();
+        Node<E> graft = graftCopy(tgt, src.root, null, src);
+        graftChildren(src, src.root, graft);
+        attached(tgt, graft);
+        modCount++;
+        return true;
+    }
+
+    /**
+     * This method adds all elements of Tree src to the Node tgt in pre-order traversal. Unlike addTree(), a label of src
+     * that is already in this is skipped, and its children in src are added to its node in this, which is how addAll()
+     * merges a tree into a leaf of this.
      * @requires this.isEmpty()==false /\ src!=null /\ tgt!=null /\ tgt is in this.properF1DescEdges
      * @modifies this.properF1DescEdges, this.parentEdges
      * @effects <pre>
@@ -418,69 +744,210 @@ public class Tree<E> implements Set<E>, Serializable {
      *     return false
      * </pre>
      */
-    private boolean addTree(Tree<E> src, Node<E> tgt) {
+    private boolean mergeTree(Tree<E> src, Node<E> tgt) {
         boolean success = false;
         List<Node<E>> nodes = src.preOrderTraversal(src.root);
         for (Node<E> n : nodes) {
-            Edge<E> parentEdgeOfN = src.parentEdges.get(n);
+            Edge<E> parentEdgeOfN = src.parentEdges.get(n.getLabel());
             Node<E> parentNodeOfN = parentEdgeOfN != null ? parentEdgeOfN.getSrc() : null;
             if (properF1DescEdges.containsKey(parentNodeOfN)) {
-                success = addNode(parentNodeOfN, n, false);
+                success = addNode(parentNodeOfN, copyOf(n), false);
             } else {
-                success = addNode(tgt, n, false);
+                success = addNode(tgt, copyOf(n), false);
             }
         }
         return success;
     }
 
+    /**
+     * Copy the proper descendants of the node from of src under the node to of this, with an explicit stack so that
+     * the depth of src does not matter.
+     * @requires from is a node of src /\ to is a node of this /\ to has no children /\ no proper descendant of from is
+     * in this
+     * @modifies this
+     * @effects <pre>
+     *   for all proper descendants n of from, parents first
+     *     graftCopy(the copy of the parent of n in src (to for the children of from), n, weight of n's edge, src)
+     * </pre>
+     */
+    private void graftChildren(Tree<E> src, Node<E> from, Node<E> to) {
+        Deque<Node<E>> sources = new ArrayDeque<>();
+        Deque<Node<E>> copies = new ArrayDeque<>();
+        sources.push(from);
+        copies.push(to);
+        while (!sources.isEmpty()) {
+            Node<E> n = sources.pop();
+            Node<E> copy = copies.pop();
+            for (Edge<E> e : src.properF1DescEdges.get(n)) {
+                sources.push(e.getTgt());
+                copies.push(graftCopy(copy, e.getTgt(), e.getWeight(), src));
+            }
+        }
+    }
+
+    /**
+     * @requires parent is in this /\ n is a node of src whose label is not in this
+     * @modifies this
+     * @effects add a copy of n as a child of parent through an edge of the given weight, with the value, the subtree
+     * size and the height of n, and return it
+     */
+    private Node<E> graftCopy(Node<E> parent, Node<E> n, Object weight, Tree<E> src) {
+        Node<E> copy = loadChild(parent, n.getLabel(), src.properF1DescEdges.get(n).size(), weight);
+        copy.value = n.value;
+        copy.size = n.size;
+        copy.height = n.height;
+        return copy;
+    }
+
     /**
      * @requires c!=null
      * @effects <pre>
-     *   for all elements o in c
-     *     if remove(o)==false
-     *       return false
-     *   return true
+     *   return removeAllCount(c) > 0
      * </pre>
      */
     @Override
     public boolean removeAll(Collection<?> c) {
         if (c == null) return false;
-//        for (Object o : c) {
-//            if (!remove(o)) {
-//                return false;
-//            }
-//        }
-//        return true;
-        return c.stream().allMatch(this::remove);
+        return removeAllCount(c) > 0;
     }
 
     /**
-     * @Time_complexity O(n ^ 2)
      * @requires c!=null;
      * @effects <pre>
-     *   for all Node n in node
-     *      if n.label is not in c
-     *          remove n
+     *   return retainAllCount(c) > 0
      * </pre>
      */
     @Override
     public boolean retainAll(Collection<?> c) {
         if (c == null) return false;
-        Generator g = new Generator();
-        while (g.hasNext()) {
-            E label = g.next();
-            if (!c.contains(label)) {
-                g.remove();
+        return retainAllCount(c) > 0;
+    }
+
+    /**
+     * Remove every label of c from this tree together with its subtree, and return the number of labels that were
+     * dropped (including the descendants that were not in c). The nodes to drop are resolved directly from c, only the
+     * top-most of them are unlinked and every affected children list is filtered once.
+     * @Time_complexity O(|c| * depth + total degree of the affected parents + number of dropped labels)
+     * @requires c!=null
+     * @modifies this
+     * @effects <pre>
+     *   tops = { N:<o> | o in c /\ o in this /\ no proper ancestor of N:<o> is in c }
+     *   return prune(tops)
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    public int removeAllCount(Collection<?> c) {
+        Set<Node<E>> marked = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Object o : c) {
+            Node<E> node = get((E) o);
+            if (node != null) {
+                marked.add(node);
             }
         }
-        return true;
+        if (marked.contains(root)) {
+            int dropped = size();
+            clear();
+            return dropped;
+        }
+        List<Node<E>> tops = new ArrayList<>();
+        for (Node<E> node : marked) {
+            Node<E> ancestor = getParent(node);
+            while (ancestor != null && !marked.contains(ancestor)) {
+                ancestor = getParent(ancestor);
+            }
+            if (ancestor == null) {
+                tops.add(node);
+            }
+        }
+        return prune(tops);
+    }
+
+    /**
+     * Keep only the labels of c, and return the number of labels that were dropped. Like remove(), a label that is not
+     * in c is dropped together with its whole subtree. The keep/drop decision is made in a single pre-order pass which
+     * does not descend into the dropped subtrees.
+     * @Time_complexity O(number of kept labels + total degree of the affected parents + number of dropped labels)
+     * @requires c!=null
+     * @modifies this
+     * @effects <pre>
+     *   tops = { N:<x> in this | x not in c /\ all proper ancestors of N:<x> are in c }
+     *   return prune(tops)
+     * </pre>
+     */
+    public int retainAllCount(Collection<?> c) {
+        if (isEmpty()) {
+            return 0;
+        }
+        Collection<?> keep = c instanceof Set ? c : new HashSet<>(c);
+        if (!keep.contains(root.getLabel())) {
+            int dropped = size();
+            clear();
+            return dropped;
+        }
+        List<Node<E>> tops = new ArrayList<>();
+        Deque<Frame<E>> stack = new ArrayDeque<>();
+        stack.push(new Frame<>(properF1DescEdges.get(root)));
+        while (!stack.isEmpty()) {
+            Frame<E> frame = stack.peek();
+            if (!frame.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            Node<E> node = frame.next().getTgt();
+            if (keep.contains(node.getLabel())) {
+                stack.push(new Frame<>(properF1DescEdges.get(node)));
+            } else {
+                tops.add(node);
+            }
+        }
+        return prune(tops);
+    }
+
+    /**
+     * Unlink the subtrees of the given nodes all at once.
+     * @requires every node of tops is in this /\ tops does not contain root /\ no node of tops is a descendant of
+     * another one
+     * @modifies this
+     * @effects <pre>
+     *   for each parent p of the nodes of tops
+     *     remove the edges to the nodes of tops from properF1DescEdges.get(p) in one pass
+     *   for each node n of tops
+     *     update the bookkeeping of the ancestors of n
+     *     deleteSubtree(n)
+     *   return the total size of the subtrees of tops
+     * </pre>
+     */
+    private int prune(List<Node<E>> tops) {
+        if (tops.isEmpty()) {
+            return 0;
+        }
+        settle();
+        Set<Node<E>> pruned = Collections.newSetFromMap(new IdentityHashMap<>());
+        pruned.addAll(tops);
+        Set<Node<E>> parents = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Node<E> node : tops) {
+            parents.add(getParent(node));
+        }
+        for (Node<E> parent : parents) {
+            properF1DescEdges.get(parent).removeIf(e -> pruned.contains(e.getTgt()));
+        }
+        int dropped = 0;
+        for (Node<E> node : tops) {
+            detached(getParent(node), node);
+            dropped += node.size;
+            deleteSubtree(node);
+        }
+        modCount++;
+        return dropped;
     }
 
     @Override
     public void clear() {
         root = null;
+        unsettled = null;
         parentEdges.clear();
         properF1DescEdges.clear();
+        modCount++;
     }
 
     /**
@@ -496,109 +963,274 @@ public class Tree<E> implements Set<E>, Serializable {
     }
 
     /**
-     * @effects return root's label
+     * @effects return the root node itself, not a copy (for the codecs of this package)
      */
-    public E getRoot() {
-        return root.getLabel();
+    Node<E> rootNode() {
+        return root;
     }
 
     /**
-     * @effects return a shallow copy of properF1DescEdges
+     * @requires node is in this
+     * @effects return the child edges of node, not a copy (for the codecs of this package)
      */
-    protected HashMap<Node<E>, List<Edge<E>>> getProperF1DescEdges() {
-        return new HashMap<>(properF1DescEdges);
+    List<Edge<E>> childEdges(Node<E> node) {
+        return properF1DescEdges.get(node);
     }
 
     /**
-     * @effects return a shallow copy of parentEdges
+     * @effects return the parent edges of all labels, not a copy (for the codecs of this package); the one of the root
+     * is null
      */
-    protected HashMap<Node<E>, Edge<E>> getParentEdges() {
-        return new HashMap<>(parentEdges);
+    Collection<Edge<E>> parentEdges() {
+        return parentEdges.values();
     }
 
     /**
-     * This method return a new list capturing node and its proper descendants in pre-order traversal while preserving
-     * the structure of the tree in the return data.
-     * @requires node!=null /\ nodes is in properF1DescEdges
+     * Start loading a tree in pre-order (see loadChild()). Like loadChild(), it reports an invalid label by returning
+     * null, and the caller throws the exception that describes the input.
+     * @requires this is empty
+     * @modifies this
      * @effects <pre>
-     *   init a new List of Objects
-     *   add 'node' to list
-     *   for all Node n that is descendant of 'node'
-     *     add list of preOrderTraversal(n) to list
-     *   return list
+     *   if label==null
+     *     return null
+     *   else
+     *     make label the root of this and return its node
      * </pre>
      */
-    private List<Object> preOrderTraversal_PS(Node<E> node) {
-        List<Object> list = new ArrayList<>();
-        list.add(node);
-        List<Edge<E>> subtrees = properF1DescEdges.get(node);
-        if (subtrees != null) {
-            for (Edge<E> e : subtrees) {
-                Node<E> n = e.getTgt();
-                List<Object> tmp = new ArrayList<>(preOrderTraversal_PS(n));
-                list.add(tmp);
-            }
+    Node<E> loadRoot(E label, int childCount) {
+        Node<E> node;
+        try {
+            node = new Node<>(label);
+        } catch (NotPossibleException e) {
+            return null;
         }
-        return list;
+        addRoot(node);
+        properF1DescEdges.put(node, new ArrayList<>(childCount));
+        return node;
     }
 
     /**
-     * This method return a new list capturing node and its proper descendants in pre-order traversal. However, this
-     * method also flattens the returned data into a 1-Dimension list.
-     * @requires node!=null /\ nodes is in properF1DescEdges
+     * Append a child without maintaining the sizes and heights of the ancestors, which loaded() computes once all
+     * nodes are in, so that loading a tree takes linear time. The children list is allocated with the exact capacity.
+     * @requires parent is a node of this that was loaded by loadRoot() or loadChild()
+     * @modifies this
      * @effects <pre>
-     *   init a new List of nodes
-     *   add 'node' to list
-     *   for all Node n that is descendant of 'node'
-     *     add all nodes of preOrderTraversal(n) to list
-     *   return list
+     *   if label==null \/ label is in this
+     *     return null
+     *   else
+     *     add label as the last child of parent (or at its sorted position if comparator != null) through an edge
+     *     of the given weight
+     *     return its node
      * </pre>
      */
-    private List<Node<E>> preOrderTraversal(Node<E> node) {
-        List<Node<E>> list = new ArrayList<>();
-        list.add(node);
-        List<Edge<E>> subtrees = properF1DescEdges.get(node);
-        if (subtrees != null) {
-            for (Edge<E> e : subtrees) {
-                Node<E> n = e.getTgt();
-                list.addAll(preOrderTraversal(n));
-            }
+    Node<E> loadChild(Node<E> parent, E label, int childCount, Object weight) {
+        Node<E> child;
+        Edge<E> e;
+        try {
+            child = new Node<>(label);
+            e = new Edge<>(parent, child);
+        } catch (NotPossibleException ex) {
+            return null;
         }
-        return list;
+        if (properF1DescEdges.putIfAbsent(child, new ArrayList<>(childCount)) != null) {
+            return null;
+        }
+        e.setWeight(weight);
+        List<Edge<E>> children = properF1DescEdges.get(parent);
+        children.add(insertionPoint(children, label), e);
+        parentEdges.put(child.getLabel(), e);
+        child.depth = parent.depth + 1;
+        return child;
     }
 
     /**
-     * return all labels of labels in pre-order traversal
-     * @effects <pre>
-     *   for all Node n of this.properF1DescEdges in pre-order traversal
-     *     add(Node.label)
-     * </pre>
+     * Finish loading a tree (see loadChild()).
+     * @requires nodes are all nodes of this in pre-order /\ parents[i] is the parent of nodes[i]
+     * @modifies this, all nodes
+     * @effects compute the size and the height of every node bottom-up
      */
-    public List<E> getLabels() {
-//        List<E> labels = new ArrayList<>();
-//        List<Node<E>> data = preOrderTraversal(root);
-//        for (Node<E> n : data) {
-//            labels.add(n.getLabel());
-//        }
-//        return labels;
-        return preOrderTraversal(root).stream().map(Node::getLabel).collect(Collectors.toList());
+    void loaded(Node<E>[] nodes, Node<E>[] parents) {
+        for (int i = nodes.length - 1; i > 0; i--) {
+            Node<E> parent = parents[i];
+            parent.size += nodes[i].size;
+            parent.height = Math.max(parent.height, nodes[i].height + 1);
+        }
+        modCount++;
     }
 
     /**
-     * This method add a new node to the specified parent node. The tree must not be empty, otherwise this method has no
-     * effect and returns false.
-     * @param bypassCondition ensure that pre-conditions are satisfied
-     * @requires parent!=null, child!=null /\ parent.repOK()==true, child.repOK()==true /\ parent is in
-     * properF1DescEdges, child is not in properF1DescEdges /\ parent neq child
-     * @modifies properF1DescEdges, parentEdges
-     * @effects <pre>
-     *   if requirements are not satisfied
-     *     return false
+     * Finish loading a tree whose nodes were not collected in pre-order (see loadChild()).
+     * @requires this is not empty /\ all nodes of this were added by loadRoot() and loadChild()
+     * @modifies this, all nodes
+     * @effects loaded(all nodes of this in pre-order, their parents)
+     */
+    void loaded() {
+        Node<E>[] nodes = Node.newArray(size());
+        Node<E>[] parents = Node.newArray(size());
+        int i = 0;
+        Deque<Node<E>> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node<E> node = stack.pop();
+            nodes[i] = node;
+            parents[i++] = getParent(node);
+            for (Edge<E> e : properF1DescEdges.get(node)) {
+                stack.push(e.getTgt());
+            }
+        }
+        loaded(nodes, parents);
+    }
+
+    /**
+     * @effects return a fresh copy of node, i.e. a node with the same label and value but without the bookkeeping of
+     * any tree
+     */
+    private Node<E> copyOf(Node<E> node) {
+        try {
+            Node<E> copy = new Node<>(node.getLabel());
+            copy.value = node.value;
+            return copy;
+        } catch (NotPossibleException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @effects return root's label
+     */
+    public E getRoot() {
+        return root.getLabel();
+    }
+
+    /**
+     * @effects return the label of the parent of label, or null if label is the root or is not in this
+     */
+    public E getParent(E label) {
+        Node<E> node = get(label);
+        Node<E> parent = node != null ? getParent(node) : null;
+        return parent != null ? parent.getLabel() : null;
+    }
+
+    /**
+     * @effects return a shallow copy of properF1DescEdges
+     */
+    protected HashMap<Node<E>, List<Edge<E>>> getProperF1DescEdges() {
+        return new HashMap<>(properF1DescEdges);
+    }
+
+    /**
+     * @effects return a shallow copy of parentEdges
+     */
+    protected HashMap<E, Edge<E>> getParentEdges() {
+        return new HashMap<>(parentEdges);
+    }
+
+    /**
+     * This method return a new list capturing node and its proper descendants in pre-order traversal while preserving
+     * the structure of the tree in the return data.
+     * @requires node!=null /\ nodes is in properF1DescEdges
+     * The lists are filled with an explicit stack, so that a deep tree cannot overflow the call stack.
+     * @effects <pre>
+     *   init a new List of Objects
+     *   add 'node' to list
+     *   for all Node n that is a child of 'node'
+     *     add list of preOrderTraversal_PS(n) to list
+     *   return list
+     * </pre>
+     */
+    private List<Object> preOrderTraversal_PS(Node<E> node) {
+        List<Object> list = new ArrayList<>();
+        list.add(node);
+        Deque<Node<E>> nodes = new ArrayDeque<>();
+        Deque<List<Object>> lists = new ArrayDeque<>();
+        nodes.push(node);
+        lists.push(list);
+        while (!nodes.isEmpty()) {
+            Node<E> n = nodes.pop();
+            List<Object> nList = lists.pop();
+            // the lists of the children are added right away, so they keep their order whatever the stack order is
+            for (Edge<E> e : properF1DescEdges.get(n)) {
+                List<Object> childList = new ArrayList<>();
+                childList.add(e.getTgt());
+                nList.add(childList);
+                nodes.push(e.getTgt());
+                lists.push(childList);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * This method return a new list capturing node and its proper descendants in pre-order traversal. However, this
+     * method also flattens the returned data into a 1-Dimension list. The nodes are appended to a single list, sized
+     * by the subtree size of node, while an explicit stack holds the nodes still to visit.
+     * @requires node!=null /\ nodes is in properF1DescEdges
+     * @effects <pre>
+     *   init a new List of nodes
+     *   push 'node' to a stack
+     *   while the stack is not empty
+     *     pop n, add n to list
+     *     push the children of n in reverse order
+     *   return list
+     * </pre>
+     * @Time_complexity O(size of the subtree of node)
+     */
+    private List<Node<E>> preOrderTraversal(Node<E> node) {
+        List<Node<E>> list = new ArrayList<>(node.size);
+        Deque<Node<E>> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            Node<E> n = stack.pop();
+            list.add(n);
+            List<Edge<E>> children = properF1DescEdges.get(n);
+            for (int k = children.size() - 1; k >= 0; k--) {
+                stack.push(children.get(k).getTgt());
+            }
+        }
+        return list;
+    }
+
+    /**
+     * return all labels of labels in pre-order traversal
+     * @effects <pre>
+     *   for all Node n of this.properF1DescEdges in pre-order traversal
+     *     add(Node.label)
+     * </pre>
+     */
+    public List<E> getLabels() {
+//        List<E> labels = new ArrayList<>();
+//        List<Node<E>> data = preOrderTraversal(root);
+//        for (Node<E> n : data) {
+//            labels.add(n.getLabel());
+//        }
+//        return labels;
+        List<E> labels = new ArrayList<>(size());
+        forEach(labels::add);
+        return labels;
+    }
+
+    /**
+     * This method add a new node to the specified parent node. The tree must not be empty, otherwise this method has no
+     * effect and returns false.
+     * @param bypassCondition ensure that pre-conditions are satisfied
+     * @requires parent!=null, child!=null /\ parent.repOK()==true, child.repOK()==true /\ parent is in
+     * properF1DescEdges, child is not in properF1DescEdges /\ parent neq child
+     * @modifies properF1DescEdges, parentEdges
+     * @effects <pre>
+     *   if requirements are not satisfied
+     *     return false
      *   else
-     *     add E:<parent, child> to the list of properF1DescEdges.get(parent)
+     *     parent = the node of this that equals parent
+     *     add E:<parent, child> to the list of properF1DescEdges.get(parent), at its sorted position if comparator
+     *     != null
      *     put {child : []} to properF1DescEdges
-     *     put <child : E:<parent, child>> to parentEdges
+     *     put <child.label : E:<parent, child>> to parentEdges
+     *     child.depth = parent.depth + 1
+     *     add child to unsettled, i.e. the subtree size, height and hash of parent and all of its ancestors are
+     *     updated by the next settle()
      * </pre>
+     * @Time_complexity O(1), or O(log(degree)) if comparator != null
      */
     private boolean addNode(Node<E> parent, Node<E> child, boolean bypassCondition) {
         if (!bypassCondition) {
@@ -606,6 +1238,11 @@ public class Tree<E> implements Set<E>, Serializable {
                 return false;
             }
         }
+        // the given parent may be a look-up node, the edges must point to the node that is actually in this tree
+        parent = get(parent.getLabel());
+        if (parent == null) {
+            return false;
+        }
         Edge<E> e;
         try {
             e = new Edge<>(parent, child);
@@ -614,36 +1251,274 @@ public class Tree<E> implements Set<E>, Serializable {
             return false;
         }
         List<Edge<E>> list = properF1DescEdges.get(parent);
-        list.add(e);
+        list.add(insertionPoint(list, child.getLabel()), e);
         properF1DescEdges.put(child, new ArrayList<>());
-        parentEdges.put(child, e);
+        parentEdges.put(child.getLabel(), e);
+        child.depth = parent.depth + 1;
+        if (unsettled == null) {
+            unsettled = new ArrayList<>();
+        }
+        unsettled.add(child);
+        modCount++;
         return true;
     }
 
     /**
-     * Remove any node that is in subtree of the given node.
-     * @requires node is in nodes /\ node!=root
-     * @modifies all attributes of this
+     * @effects return the node of this which is the parent of node, or null if node is root or is not in this
+     */
+    private Node<E> getParent(Node<E> node) {
+        Edge<E> parentEdge = parentEdges.get(node.getLabel());
+        return parentEdge != null ? parentEdge.getSrc() : null;
+    }
+
+    /**
+     * @requires children is a list of properF1DescEdges
      * @effects <pre>
-     *   for all Node n in nodes
-     *     if n.eqI(N:<o>)
-     *       descendants = properDescendantsOfNode.get(n)
-     *       remove n from nodes
-     *       remove n from properDescendantsOfNode
-     *       remove n from rightSiblingsOf
-     *   if descendants!=null
-     *     for all Node n in descendants
-     *       recursiveRemove(n)
-     * </pre>
-     */
-    private void recursiveRemove(Node<E> node) {
-        parentEdges.remove(node);
-        List<Edge<E>> list = properF1DescEdges.get(node);
-        properF1DescEdges.remove(node);
-        if (list != null) {
-            for (Edge<E> e : list) {
-                Node<E> n = e.getTgt();
-                recursiveRemove(n);
+     *   if comparator == null
+     *     return children.size
+     *   else
+     *     return the index of the first child whose label is greater than label, i.e. after the children that compare
+     *     equal to it, by binary search
+     * </pre>
+     * @Time_complexity O(log(degree))
+     */
+    private int insertionPoint(List<Edge<E>> children, E label) {
+        if (comparator == null) {
+            return children.size();
+        }
+        int lo = 0;
+        int hi = children.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comparator.compare(children.get(mid).getTgt().getLabel(), label) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Move node to its sorted position among its siblings after its label changed.
+     * @requires comparator != null /\ node is in this
+     * @modifies the children list of node's parent
+     * @effects <pre>
+     *   if node is not root
+     *     remove the parent edge of node from the children list of its parent
+     *     insert it back at insertionPoint()
+     * </pre>
+     */
+    private void reposition(Node<E> node) {
+        Edge<E> parentEdge = parentEdges.get(node.getLabel());
+        if (parentEdge == null) {
+            return;
+        }
+        Node<E> parent = parentEdge.getSrc();
+        List<Edge<E>> children = properF1DescEdges.get(parent);
+        children.remove(parentEdge);
+        children.add(insertionPoint(children, node.getLabel()), parentEdge);
+        parent.childOffsets = null;
+        touched(parent);
+        modCount++;
+    }
+
+    /**
+     * Update the bookkeeping of the ancestors after the subtree of child was attached to parent.
+     * @requires parent is in this /\ child is a child of parent
+     * @modifies parent and its ancestors
+     * @effects <pre>
+     *  for each node n from parent up to root
+     *      n.size = n.size + child.size
+     *      n.height = max(n.height, height of the path from n down to the deepest leaf of child)
+     *      invalidate n.childOffsets and n.hash
+     * </pre>
+     */
+    private void attached(Node<E> parent, Node<E> child) {
+        int height = child.height;
+        for (Node<E> n = parent; n != null; n = getParent(n)) {
+            n.size += child.size;
+            n.childOffsets = null;
+            n.hashed = false;
+            height = Math.max(n.height, height + 1);
+            n.height = height;
+        }
+    }
+
+    /**
+     * Update the bookkeeping of the ancestors after the subtree of child was detached from parent. The heights are
+     * recomputed only as long as they may shrink, i.e. while the detached path was the deepest one.
+     * @requires parent is in this /\ child is no longer a child of parent
+     * @modifies parent and its ancestors
+     * @effects <pre>
+     *  for each node n from parent up to root
+     *      n.size = n.size - child.size
+     *      invalidate n.childOffsets and n.hash
+     *      if the height of n may have changed
+     *          n.height = 1 + max height of n's children, or 0 if n is a leaf
+     * </pre>
+     */
+    private void detached(Node<E> parent, Node<E> child) {
+        boolean shrinking = true;
+        int oldHeight = child.height;
+        for (Node<E> n = parent; n != null; n = getParent(n)) {
+            n.size -= child.size;
+            n.childOffsets = null;
+            n.hashed = false;
+            if (shrinking) {
+                shrinking = n.height == oldHeight + 1;
+                if (shrinking) {
+                    oldHeight = n.height;
+                    n.height = computeHeight(n);
+                    shrinking = n.height != oldHeight;
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark the structural hashes of node and its ancestors as stale, after the label of node, the weight of one of its
+     * child edges or the order of its children changed. The walk stops at the first stale node, since all of its
+     * ancestors are stale as well.
+     * @modifies node and its ancestors
+     * @effects for each node n from node up to the first stale one: invalidate n.hash
+     */
+    private void touched(Node<E> node) {
+        for (Node<E> n = node; n != null && n.hashed; n = getParent(n)) {
+            n.hashed = false;
+        }
+    }
+
+    /**
+     * @requires node is in this
+     * @effects return 1 + max height of node's children, or 0 if node is a leaf
+     */
+    private int computeHeight(Node<E> node) {
+        int height = 0;
+        for (Edge<E> e : properF1DescEdges.get(node)) {
+            height = Math.max(height, e.getTgt().height + 1);
+            if (height == node.height) {
+                break;      // cannot be higher than before
+            }
+        }
+        return height;
+    }
+
+    /**
+     * Apply the bookkeeping that addNode() deferred, i.e. the subtree sizes, heights and hashes of the ancestors of
+     * every unsettled node. Walking up from every node costs its depth, so if that adds up to more than the size of
+     * this tree (e.g. a chain built with addNode()) all sizes and heights are recomputed bottom-up in one pass instead.
+     * Every method that reads the bookkeeping of the nodes calls this first.
+     * @modifies the nodes of this
+     * @effects <pre>
+     *   if unsettled != null
+     *     if the sum of the depths of the unsettled nodes <= size()
+     *       attached(parent of n, n) for each unsettled node n, in the order they were added
+     *     else
+     *       recompute the size and the height of every node from its children, invalidate its childOffsets and hash
+     *     unsettled = null
+     * </pre>
+     * @Time_complexity O(min(sum of the depths of the unsettled nodes, n))
+     */
+    void settle() {
+        if (unsettled == null) {
+            return;
+        }
+        List<Node<E>> added = unsettled;
+        unsettled = null;
+        int n = size();
+        long cost = 0;
+        for (int i = 0; i < added.size() && cost <= n; i++) {
+            for (Node<E> a = getParent(added.get(i)); a != null && cost <= n; a = getParent(a)) {
+                cost++;
+            }
+        }
+        if (cost <= n) {
+            for (Node<E> node : added) {
+                attached(getParent(node), node);
+            }
+            return;
+        }
+        List<Node<E>> nodes = new ArrayList<>(n);     // in pre-order, so every node comes before its children
+        Deque<Node<E>> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node<E> node = stack.pop();
+            nodes.add(node);
+            for (Edge<E> e : properF1DescEdges.get(node)) {
+                stack.push(e.getTgt());
+            }
+        }
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            Node<E> node = nodes.get(i);
+            int size = 1;
+            int height = 0;
+            for (Edge<E> e : properF1DescEdges.get(node)) {
+                size += e.getTgt().size;
+                height = Math.max(height, e.getTgt().height + 1);
+            }
+            node.size = size;
+            node.height = height;
+            node.childOffsets = null;
+            node.hashed = false;
+        }
+    }
+
+    /**
+     * Return the pre-order offsets of the children of node, i.e. offsets[i] is the total size of the subtrees of
+     * children 0..i-1, so child i is located at (index of node) + 1 + offsets[i] in pre-order traversal. The array is
+     * cached on the node and rebuilt only after a mutation below it.
+     * @requires node is in this
+     * @modifies node, children of node
+     * @effects <pre>
+     *  if node.childOffsets is not valid
+     *      for each child c at position i of properF1DescEdges.get(node)
+     *          offsets[i] = sum of sizes of children before c
+     *          c.childIndex = i
+     *      node.childOffsets = offsets
+     *  return node.childOffsets
+     * </pre>
+     */
+    private int[] childOffsets(Node<E> node) {
+        settle();
+        if (node.childOffsets == null) {
+            List<Edge<E>> children = properF1DescEdges.get(node);
+            int[] offsets = new int[children.size()];
+            int offset = 0;
+            for (int i = 0; i < offsets.length; i++) {
+                Node<E> child = children.get(i).getTgt();
+                child.childIndex = i;
+                offsets[i] = offset;
+                offset += child.size;
+            }
+            node.childOffsets = offsets;
+        }
+        return node.childOffsets;
+    }
+
+    /**
+     * Remove the given node and every node in its subtree from the maps, with an explicit stack so that the depth of
+     * the subtree does not matter. The edge from its parent is left to the caller.
+     * @requires node is in this /\ node!=root
+     * @modifies parentEdges, properF1DescEdges
+     * @effects <pre>
+     *   push node to a stack
+     *   while the stack is not empty
+     *     pop n
+     *     children = properF1DescEdges.get(n)
+     *     deleteSingleNode(n)
+     *     push all nodes of children
+     * </pre>
+     */
+    private void deleteSubtree(Node<E> node) {
+        Deque<Node<E>> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            Node<E> n = stack.pop();
+            List<Edge<E>> children = properF1DescEdges.get(n);
+            deleteSingleNode(n);
+            for (Edge<E> e : children) {
+                stack.push(e.getTgt());
             }
         }
     }
@@ -658,10 +1533,12 @@ public class Tree<E> implements Set<E>, Serializable {
      * </pre>
      */
     public boolean addNode(E parent, E child) {
+        Node<E> p = get(parent);
+        if (p == null || child == null || contains(child)) {
+            return false;
+        }
         try {
-            Node<E> p = new Node<>(parent);
-            Node<E> c = new Node<>(child);
-            return addNode(p, c, false);
+            return addNode(p, new Node<>(child), true);
         } catch (NotPossibleException e) {
             e.printStackTrace();
             return false;
@@ -682,102 +1559,154 @@ public class Tree<E> implements Set<E>, Serializable {
      * </pre>
      */
     public boolean addNode(E parent, Tree<E> children) {
-        try {
-            return addTree(children, new Node<>(parent));
-        } catch (NotPossibleException e) {
-            e.printStackTrace();
-        }
-        return false;
+        Node<E> p = get(parent);
+        return p != null && addTree(children, p);
     }
 
     /**
      * Return the number of edges along the unique path between it and the root node. If the label is not in the tree,
      * return -1.<br/> Related to Depth.
+     * @Time_complexity O(1), the depth is maintained by the mutators
      * @effects <pre>
      *   if contains(label)==false
      *     return -1
      *   else
-     *     while expectedRoot!=root
-     *       expectedRoot = parentEdges[expectedRoot]
-     *       level = level + 1
-     *     return level
+     *     return N:<label>.depth
      * </pre>
      */
     public int getLevel(E label) {
-        if (!contains(label)) {
-            return -1;
-        } else {
-            int level = 0;
-            Node<E> expectedRoot;
-            try {
-                expectedRoot = new Node<>(label);
-            } catch (NotPossibleException e) {
-                return -1;
-            }
-            while (!expectedRoot.equals(root)) {
-                expectedRoot = parentEdges.get(expectedRoot).getSrc();
-                level++;
-            }
-            return level;
-        }
+        Node<E> node = get(label);
+        return node != null ? node.depth : -1;
     }
 
     /**
      * @effects <pre>
      *   for all Node n in properF1DescEdges.keySet in pre-order traversal
-     *     add freq of n to the return array
+     *     add level of n to the return array
      * </pre>
      */
     public int[] getLevelArray() {
+        if (isEmpty()) {
+            return new int[0];
+        }
         List<Node<E>> nodes = preOrderTraversal(root);
         int[] array = new int[nodes.size()];
         int i = 0;
         for (Node<E> n : nodes) {
-            array[i++] = getLevel(n.getLabel());
+            array[i++] = n.depth;
         }
         return array;
     }
 
+    /**
+     * Export the structure of this tree as parent indexes in pre-order, i.e. parallel to toArray(). The two arrays
+     * can be loaded back with TreeBuilder.fromParentArray().
+     * @effects <pre>
+     *   for all Node n at position i in pre-order traversal
+     *     if n is root
+     *       array[i] = -1
+     *     else
+     *       array[i] = position of the parent of n in pre-order traversal
+     *   return array
+     * </pre>
+     * @Time_complexity O(n)
+     */
+    public int[] exportParentArray() {
+        int[] array = new int[size()];
+        if (isEmpty()) {
+            return array;
+        }
+        settle();
+        array[0] = -1;
+        Deque<Node<E>> stack = new ArrayDeque<>();
+        stack.push(root);
+        int i = 0;
+        while (!stack.isEmpty()) {
+            Node<E> node = stack.pop();
+            List<Edge<E>> children = properF1DescEdges.get(node);
+            // the first child comes right after node, each next one after the subtree of the previous one
+            int position = i + 1;
+            for (Edge<E> e : children) {
+                array[position] = i;
+                position += e.getTgt().size;
+            }
+            for (int k = children.size() - 1; k >= 0; k--) {
+                stack.push(children.get(k).getTgt());
+            }
+            i++;
+        }
+        return array;
+    }
+
+    /**
+     * Return the level array, the number of nodes at each level and the number of nodes of each degree of this tree,
+     * all computed in a single pre-order pass.
+     * @effects <pre>
+     *   for all Node n in properF1DescEdges.keySet in pre-order traversal
+     *     add level of n to levels
+     *     widths[level of n] = widths[level of n] + 1
+     *     degrees[degree of n] = degrees[degree of n] + 1
+     *   return new TreeStatistics(levels, widths, degrees)
+     * </pre>
+     */
+    public TreeStatistics getStatistics() {
+        if (isEmpty()) {
+            return new TreeStatistics(new int[0], new int[0], new int[0]);
+        }
+        settle();
+        List<Node<E>> nodes = preOrderTraversal(root);
+        int[] levels = new int[nodes.size()];
+        int[] widths = new int[root.height + 1];
+        int[] degrees = new int[1];
+        int i = 0;
+        for (Node<E> n : nodes) {
+            int degree = properF1DescEdges.get(n).size();
+            if (degree >= degrees.length) {
+                degrees = Arrays.copyOf(degrees, Math.max(degree + 1, degrees.length * 2));
+            }
+            levels[i++] = n.depth;
+            widths[n.depth]++;
+            degrees[degree]++;
+        }
+        int maxDegree = degrees.length - 1;
+        while (maxDegree > 0 && degrees[maxDegree] == 0) {
+            maxDegree--;
+        }
+        return new TreeStatistics(levels, widths, Arrays.copyOf(degrees, maxDegree + 1));
+    }
+
     /**
      * Return The height of a node which is the number of edges from the node to the deepest leaf. The height of a tree
      * is a height of the root. If the label is not in the tree, return -1
+     * @Time_complexity O(1), the height is maintained by the mutators
      * @effects <pre>
      *  if label is not in this
      *      return -1
      *  else
-     *      return treeHeight - getLevel(label)
+     *      return N:<label>.height
      * </pre>
      */
     public int getHeight(E label) {
-        if (!contains(label)) {
-            return -1;
-        }
-        int treeHeight = getHeight();
-        int labelLevel = getLevel(label);
-        return treeHeight - labelLevel;
+        settle();
+        Node<E> node = get(label);
+        return node != null ? node.height : -1;
     }
 
     /**
      * Return the height of this tree. Remember that: The height of a node is the length of the longest path from it to
      * a leaf. The height of the tree is the height of the root.<br/> In other words, The height of a node is the number
      * of edges from the node to the deepest leaf. The height of a tree is a height of the root.
+     * @Time_complexity O(1)
      * @effects <pre>
-     *   max = 0
-     *   for all number num in getLevelArray()
-     *     if num>max
-     *       set max = num
-     *   return num
+     *   if this is empty
+     *     return 0
+     *   else
+     *     return root.height
      * </pre>
      */
     public int getHeight() {
-        int[] a = getLevelArray();
-        int max = 0;
-        for (int num : a) {
-            if (num > max) {
-                max = num;
-            }
-        }
-        return max;
+        settle();
+        return root != null ? root.height : 0;
     }
 
     /**
@@ -789,13 +1718,81 @@ public class Tree<E> implements Set<E>, Serializable {
      * </pre>
      */
     public int getDegree(E label) {
-        List<?> children = null;
-        try {
-            children = properF1DescEdges.get(new Node<>(label));
-        } catch (NotPossibleException e) {
-            e.printStackTrace();
+        Node<E> node = get(label);
+        return node != null ? properF1DescEdges.get(node).size() : -1;
+    }
+
+    /**
+     * @effects return the comparator that orders the children of every node, or null if they are in insertion order
+     */
+    public Comparator<? super E> getComparator() {
+        return comparator;
+    }
+
+    /**
+     * @requires parent is in this
+     * @effects <pre>
+     *   if parent is not in this \/ index < 0 \/ index >= getDegree(parent)
+     *     return null
+     *   else
+     *     return the label of the child at position index of parent (in sorted order if comparator != null)
+     * </pre>
+     * @Time_complexity O(1)
+     */
+    public E childAt(E parent, int index) {
+        Node<E> node = get(parent);
+        if (node == null) {
+            return null;
+        }
+        List<Edge<E>> children = properF1DescEdges.get(node);
+        return index >= 0 && index < children.size() ? children.get(index).getTgt().getLabel() : null;
+    }
+
+    /**
+     * Return the position of a node among its siblings, i.e. childAt(getParent(label), rank(label)) equals label.
+     * @requires label is in this
+     * @effects <pre>
+     *   if label is not in this
+     *     return -1
+     *   else if label is root
+     *     return 0
+     *   else if comparator != null
+     *     find the first sibling that compares equal to label by binary search
+     *     return the position of label among the siblings that compare equal to it, from there on
+     *   else
+     *     return the position of label in the children list of its parent
+     * </pre>
+     * @Time_complexity <pre>O(log(degree)) if comparator != null (plus the number of siblings that compare equal),
+     * else amortized over the lazily rebuilt childOffsets</pre>
+     */
+    public int rank(E label) {
+        Node<E> node = get(label);
+        if (node == null) {
+            return -1;
+        }
+        Node<E> parent = getParent(node);
+        if (parent == null) {
+            return 0;
+        }
+        if (comparator == null) {
+            childOffsets(parent);       // refreshes node.childIndex
+            return node.childIndex;
+        }
+        List<Edge<E>> children = properF1DescEdges.get(parent);
+        int lo = 0;
+        int hi = children.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comparator.compare(children.get(mid).getTgt().getLabel(), label) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        while (children.get(lo).getTgt() != node) {
+            lo++;
         }
-        return children != null ? children.size() : -1;
+        return lo;
     }
 
     /**
@@ -827,12 +1824,9 @@ public class Tree<E> implements Set<E>, Serializable {
      * </pre>
      */
     public boolean isLeaf(E label) {
-        try {
-            List<Edge<E>> children = properF1DescEdges.get(new Node<>(label));
-            return children != null && children.size() == 0;
-        } catch (NotPossibleException e) {
-            return false;
-        }
+        settle();
+        Node<E> node = get(label);
+        return node != null && node.height == 0;
     }
 
     /**
@@ -856,12 +1850,12 @@ public class Tree<E> implements Set<E>, Serializable {
         if (!contains(node.getLabel())) {
             return false;
         } else {
-            Edge<E> edge = parentEdges.get(node);
+            Edge<E> edge = parentEdges.get(node.getLabel());
             if (edge == null) {
                 return false;
             } else {
                 List<Edge<E>> list = properF1DescEdges.get(edge.getSrc());
-                return list != null && list.indexOf(edge) < list.size() - 1;
+                return list != null && list.get(list.size() - 1) != edge;
             }
         }
     }
@@ -873,49 +1867,378 @@ public class Tree<E> implements Set<E>, Serializable {
      * tree, a node c is the lowest common ancestor of nodes x and y if c is an ancestor of both x and y, and no proper
      * descendant of c is an ancestor of x and y.
      * </tt>
-     * @Time_complexity O(n ^ 2)
+     * @Time_complexity O(1) if the LCA index is up to date (see lca(Collection)), otherwise O(depth)
      * @effects <pre>
      *   if contains(label1)==false \/ contains(label2)==false \/ label1 eq root.label \/
      *      label2 eq root.label \/ label1 eq label2
      *     return null
      *   else
-     *     n1 = new Node(label1)
-     *     n2 = new Node(label2)
-     *     add all n1 ancestor to a list
-     *
-     *     for each ancestor of n2
-     *       for all Node n of n1's ancestors list
-     *         if n==n2
-     *           return n1.label (or n2.label)
-     *     return null
+     *     n1 = parent of N:<label1>
+     *     n2 = parent of N:<label2>
+     *     if the LCA index is up to date
+     *       return its lca(n1, n2).label
+     *     else
+     *       lift the deeper of n1 and n2 to the level of the other one
+     *       lift both n1 and n2 until they meet
+     *       return n1.label
      * </pre>
      */
     public E lca(E label1, E label2) {
-        if (contains(label1) && contains(label2) && !label1.equals(root.getLabel()) && !label2.equals(root.getLabel()) && !label1.equals(label2)) {
-            Node<E> n1, n2;
-            try {
-                n1 = new Node<>(label1);
-                n2 = new Node<>(label2);
-            } catch (NotPossibleException e) {
-                e.printStackTrace();
-                return null;
+        Node<E> n1 = get(label1);
+        Node<E> n2 = get(label2);
+        if (n1 == null || n2 == null || n1 == root || n2 == root || n1 == n2) {
+            return null;
+        }
+        n1 = getParent(n1);
+        n2 = getParent(n2);
+        if (lcaIndex != null && lcaIndex.getVersion() == modCount) {
+            return lcaIndex.lca(n1, n2).getLabel();
+        }
+        while (n1.depth > n2.depth) {
+            n1 = getParent(n1);
+        }
+        while (n2.depth > n1.depth) {
+            n2 = getParent(n2);
+        }
+        while (n1 != n2) {
+            n1 = getParent(n1);
+            n2 = getParent(n2);
+        }
+        return n1.getLabel();
+    }
+
+    /**
+     * Answer a batch of lca() queries against the current state of this tree. The LCA index (pre-order numbering and
+     * a sparse table over the levels) is built once for the batch, or reused if the tree has not been modified since
+     * it was built, and each query then costs O(1).
+     * @Time_complexity O(n * log(n)) to rebuild a stale index + O(1) per pair
+     * @requires pairs != null
+     * @effects <pre>
+     *   return the list of lca(p.left, p.right) for all Pair p in pairs, in the same order
+     * </pre>
+     */
+    public List<E> lca(Collection<Pair<E, E>> pairs) {
+        List<E> result = new ArrayList<>(pairs.size());
+        if (isEmpty()) {
+            pairs.forEach(p -> result.add(null));
+            return result;
+        }
+        getLcaIndex();
+        for (Pair<E, E> p : pairs) {
+            result.add(lca(p.getLeft(), p.getRight()));
+        }
+        return result;
+    }
+
+    /**
+     * @requires this is not empty
+     * @modifies lcaIndex, order of all nodes
+     * @effects <pre>
+     *   if lcaIndex is stale
+     *     collect all nodes and their parents in heavy-first pre-order
+     *     lcaIndex = new LcaIndex(nodes, parents, modCount)
+     *   return lcaIndex
+     * </pre>
+     */
+    private LcaIndex<E> getLcaIndex() {
+        if (lcaIndex == null || lcaIndex.getVersion() != modCount) {
+            Node<E>[] nodes = Node.newArray(size());
+            Edge<E>[] edges = Edge.newArray(size());
+            heavyFirstPreOrder(nodes, edges);
+            lcaIndex = new LcaIndex<>(nodes, parentsOf(edges), modCount);
+        }
+        return lcaIndex;
+    }
+
+    /**
+     * All indexes number the nodes in the same order, so that they agree on Node.order whenever they are up to date.
+     * @requires this is not empty
+     * @modifies nodes, edges, order of all nodes
+     * @effects <pre>
+     *   fill nodes with all nodes of this in pre-order, where the children of each node are visited in order except
+     *   that the child with the largest subtree comes first, and edges[i] with parentEdges.get(nodes[i])
+     *   nodes[i].order = i
+     *   orderVersion = modCount
+     * </pre>
+     */
+    private void heavyFirstPreOrder(Node<E>[] nodes, Edge<E>[] edges) {
+        settle();
+        int i = 0;
+        Deque<Node<E>> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node<E> node = stack.pop();
+            edges[i] = parentEdges.get(node.getLabel());
+            node.order = i;
+            nodes[i++] = node;
+            List<Edge<E>> children = properF1DescEdges.get(node);
+            int heavy = -1;
+            for (int k = 0; k < children.size(); k++) {
+                if (heavy < 0 || children.get(k).getTgt().size > children.get(heavy).getTgt().size) {
+                    heavy = k;
+                }
             }
-            ArrayList<Node<E>> a = new ArrayList<>();
-            while (n1 != root) {
-                n1 = parentEdges.get(n1).getSrc();
-                a.add(n1);
+            for (int k = children.size() - 1; k >= 0; k--) {
+                if (k != heavy) {
+                    stack.push(children.get(k).getTgt());
+                }
             }
+            if (heavy >= 0) {
+                stack.push(children.get(heavy).getTgt());
+            }
+        }
+        orderVersion = modCount;
+    }
 
-            while ((n2 != root)) {
-                n2 = parentEdges.get(n2).getSrc();
-                for (Node<E> n : a) {
-                    if (n == n2) {
-                        return n2.getLabel();
-                    }
-                }
+    /**
+     * Test whether ancestor is a proper ancestor of descendant. Every node n occupies the pre-order interval
+     * [n.order, n.order + n.size - 1], which contains the intervals of all of its descendants, so the test is two
+     * integer comparisons once the nodes are numbered. The numbering is shared with the other indexes and is rebuilt
+     * lazily after a structural modification.
+     * @Time_complexity O(1), plus O(n) to renumber the nodes after a structural modification
+     * @effects <pre>
+     *   if ancestor is not in this \/ descendant is not in this \/ ancestor eq descendant
+     *     return false
+     *   else
+     *     if the nodes are not numbered since the last structural modification
+     *       number them in heavy-first pre-order
+     *     a = N:<ancestor>, d = N:<descendant>
+     *     return a.order < d.order < a.order + a.size
+     * </pre>
+     */
+    public boolean isAncestor(E ancestor, E descendant) {
+        settle();
+        Node<E> a = get(ancestor);
+        Node<E> d = get(descendant);
+        if (a == null || d == null || a == d || a.size <= d.size) {
+            return false;
+        }
+        if (orderVersion != modCount) {
+            heavyFirstPreOrder(Node.newArray(size()), Edge.newArray(size()));
+        }
+        return a.order < d.order && d.order < a.order + a.size;
+    }
+
+    /**
+     * @Time_complexity O(1), plus O(n) to renumber the nodes after a structural modification
+     * @effects return isAncestor(ancestor, descendant)
+     */
+    public boolean isDescendant(E descendant, E ancestor) {
+        return isAncestor(ancestor, descendant);
+    }
+
+    private static <E> Node<E>[] parentsOf(Edge<E>[] edges) {
+        Node<E>[] parents = Node.newArray(edges.length);
+        for (int i = 0; i < edges.length; i++) {
+            parents[i] = edges[i] != null ? edges[i].getSrc() : null;
+        }
+        return parents;
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * weighted paths
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * Set the weight of the edge between label and its parent. Weights that are not Numbers (including null, the
+     * default) count as 0 in the weighted path queries. This is not a structural modification, so it does not
+     * invalidate the generators, and it updates the path index in O(log(n)) instead of making it stale.
+     * @modifies this
+     * @effects <pre>
+     *   if contains(label)==false \/ label eq root.label
+     *     return false
+     *   else
+     *     set the weight of parentEdges.get(N:<label>) to weight
+     *     return true
+     * </pre>
+     */
+    public boolean setWeight(E label, Object weight) {
+        Node<E> node = get(label);
+        if (node == null || node == root) {
+            return false;
+        }
+        Edge<E> parentEdge = parentEdges.get(node.getLabel());
+        parentEdge.setWeight(weight);
+        touched(parentEdge.getSrc());
+        if (pathIndex != null && pathIndex.getVersion() == modCount) {
+            pathIndex.update(node.order, weightOf(weight));
+        }
+        return true;
+    }
+
+    /**
+     * @effects return the weight of the edge between label and its parent, or null if there is none
+     */
+    public Object getWeight(E label) {
+        Node<E> node = get(label);
+        return node != null && node != root ? parentEdges.get(node.getLabel()).getWeight() : null;
+    }
+
+    /**
+     * @effects return the sum of the edge weights on the path between the root and label, or NaN if label is not in
+     * this
+     * @Time_complexity O(log^2(n)), plus O(n) to rebuild the path index after a structural modification
+     */
+    public double getDistance(E label) {
+        return root != null ? getDistance(root.getLabel(), label) : Double.NaN;
+    }
+
+    /**
+     * @effects <pre>
+     *   if contains(label1)==false \/ contains(label2)==false
+     *     return NaN
+     *   else
+     *     return the sum of the edge weights on the path between label1 and label2, i.e.
+     *     getDistance(label1) + getDistance(label2) - 2 * getDistance(lca of label1 and label2)
+     * </pre>
+     * @Time_complexity O(log^2(n)), plus O(n) to rebuild the path index after a structural modification
+     */
+    public double getDistance(E label1, E label2) {
+        double[] path = path(label1, label2);
+        return path != null ? path[0] : Double.NaN;
+    }
+
+    /**
+     * @effects <pre>
+     *   return the largest edge weight on the path between label1 and label2, or NaN if label1 or label2 is not in
+     *   this or if they are the same label
+     * </pre>
+     * @Time_complexity O(log^2(n)), plus O(n) to rebuild the path index after a structural modification
+     */
+    public double getMaxWeight(E label1, E label2) {
+        double[] path = path(label1, label2);
+        return path != null && path[1] != Double.NEGATIVE_INFINITY ? path[1] : Double.NaN;
+    }
+
+    /**
+     * @effects <pre>
+     *   return the smallest edge weight on the path between label1 and label2, or NaN if label1 or label2 is not in
+     *   this or if they are the same label
+     * </pre>
+     * @Time_complexity O(log^2(n)), plus O(n) to rebuild the path index after a structural modification
+     */
+    public double getMinWeight(E label1, E label2) {
+        double[] path = path(label1, label2);
+        return path != null && path[2] != Double.POSITIVE_INFINITY ? path[2] : Double.NaN;
+    }
+
+    /**
+     * @effects return {sum, max, min} of the edge weights on the path between label1 and label2, or null if one of
+     * them is not in this
+     */
+    private double[] path(E label1, E label2) {
+        Node<E> n1 = get(label1);
+        Node<E> n2 = get(label2);
+        if (n1 == null || n2 == null) {
+            return null;
+        }
+        return getPathIndex().path(n1.order, n2.order);
+    }
+
+    private static double weightOf(Object weight) {
+        return weight instanceof Number ? ((Number) weight).doubleValue() : 0;
+    }
+
+    /**
+     * @requires this is not empty
+     * @modifies pathIndex, order of all nodes
+     * @effects <pre>
+     *   if pathIndex is stale
+     *     collect all nodes, their parent edges and the weights of these in heavy-first pre-order
+     *     pathIndex = new PathIndex(nodes, parents, weights, modCount)
+     *   return pathIndex
+     * </pre>
+     */
+    private PathIndex<E> getPathIndex() {
+        if (pathIndex == null || pathIndex.getVersion() != modCount) {
+            Node<E>[] nodes = Node.newArray(size());
+            Edge<E>[] edges = Edge.newArray(size());
+            heavyFirstPreOrder(nodes, edges);
+            double[] weights = new double[edges.length];
+            for (int i = 1; i < edges.length; i++) {
+                weights[i] = weightOf(edges[i].getWeight());
             }
+            pathIndex = new PathIndex<>(nodes, parentsOf(edges), weights, modCount);
+        }
+        return pathIndex;
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * subtree aggregates
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * Set the numeric value of label, e.g. the size of a file. Values default to 0. This is not a structural
+     * modification, so it does not invalidate the generators, and it updates the subtree index in O(log(n)) instead
+     * of making it stale.
+     * @modifies this
+     * @effects <pre>
+     *   if contains(label)==false
+     *     return false
+     *   else
+     *     set the value of N:<label> to value
+     *     return true
+     * </pre>
+     */
+    public boolean setValue(E label, double value) {
+        Node<E> node = get(label);
+        if (node == null) {
+            return false;
+        }
+        node.value = value;
+        if (subtreeIndex != null && subtreeIndex.getVersion() == modCount) {
+            subtreeIndex.update(node, value);
+        }
+        return true;
+    }
+
+    /**
+     * @effects return the value of label, or NaN if label is not in this
+     */
+    public double getValue(E label) {
+        Node<E> node = get(label);
+        return node != null ? node.value : Double.NaN;
+    }
+
+    /**
+     * @effects return the sum of the values of label and all of its descendants, or NaN if label is not in this
+     * @Time_complexity O(log(n)), plus O(n) to rebuild the subtree index after a structural modification
+     */
+    public double getSubtreeSum(E label) {
+        Node<E> node = get(label);
+        return node != null ? getSubtreeIndex().subtree(node)[SegmentTree.SUM] : Double.NaN;
+    }
+
+    /**
+     * @effects return the largest value among label and all of its descendants, or NaN if label is not in this
+     * @Time_complexity O(log(n)), plus O(n) to rebuild the subtree index after a structural modification
+     */
+    public double getSubtreeMax(E label) {
+        Node<E> node = get(label);
+        return node != null ? getSubtreeIndex().subtree(node)[SegmentTree.MAX] : Double.NaN;
+    }
+
+    /**
+     * @requires this is not empty
+     * @modifies subtreeIndex, order of all nodes
+     * @effects <pre>
+     *   if subtreeIndex is stale
+     *     collect all nodes in heavy-first pre-order
+     *     subtreeIndex = new SubtreeIndex(nodes, modCount)
+     *   return subtreeIndex
+     * </pre>
+     */
+    private SubtreeIndex<E> getSubtreeIndex() {
+        if (subtreeIndex == null || subtreeIndex.getVersion() != modCount) {
+            Node<E>[] nodes = Node.newArray(size());
+            heavyFirstPreOrder(nodes, Edge.newArray(size()));
+            subtreeIndex = new SubtreeIndex<>(nodes, modCount);
         }
-        return null;
+        return subtreeIndex;
     }
 
     /**
@@ -932,7 +2255,7 @@ public class Tree<E> implements Set<E>, Serializable {
      *      else
      *          remove label from its parent's properF1DescEdges list if remove==true
      *          Declare new tree t
-     *          recursive add node that is subtree of t, starting at the specified label
+     *          copy the subtree of the specified label into t (see copySubtree())
      *          return t
      *   else
      *      return null
@@ -942,22 +2265,26 @@ public class Tree<E> implements Set<E>, Serializable {
         if (!contains(label)) {
             return null;
         }
+        settle();
         try {
-            Node<E> node = new Node<>(label);
-            if (node.equals(root)) {
+            Node<E> node = get(label);
+            if (node == root) {
                 Tree<E> t = this.clone();
                 if (remove) clear();
                 return t;
             } else {
                 if (remove) {
                     // remove node from its parent's properF1DescEdges list
-                    Edge<E> parentEdge = parentEdges.get(node);
+                    Edge<E> parentEdge = parentEdges.get(node.getLabel());
                     Node<E> parentNode = parentEdge.getSrc();
                     List<Edge<E>> list = properF1DescEdges.get(parentNode);
                     list.remove(parentEdge);
+                    detached(parentNode, node);
+                    modCount++;
                 }
                 Tree<E> tree = new Tree<>(label);
-                recursiveSubtree(tree, node, remove);
+                tree.comparator = comparator;
+                copySubtree(tree, node, remove);
                 return tree;
             }
         } catch (NotPossibleException e) {
@@ -967,29 +2294,26 @@ public class Tree<E> implements Set<E>, Serializable {
     }
 
     /**
-     * Recursive add nodes that are proper descendant of the specified label `parent` to the given tree. If `remove`
-     * argument is true, detach all the added nodes to `tree` from this instance.
+     * Add the nodes that are proper descendants of the specified node `parent` to the given tree, with their edge
+     * weights and values. If `remove` argument is true, delete `parent` and all the copied nodes from this instance.
+     * Both trees are walked with an explicit stack, so that the depth of the subtree does not matter.
      * @param remove indicates that the method will remove all the added nodes to `tree` from this instance.
-     * @requires tree != null /\ tree != this /\ parent != null /\ parent is not in this
-     * @modifies tree
-     * @effects <pre>
-     *  add `parent` to tree
-     *  for any edge e that connect `parent` to its children,
-     *      n = child from e
-     *      add n to tree, with its parent node is `parent`
-     *      invoke recursiveSubtree(tree, n)
+     * @requires tree != null /\ tree != this /\ tree only holds N:<parent.label> /\ parent is in this
+     * @modifies tree, this if remove == true
+     * @effects <pre>
+     *  copy the value, the subtree size and the height of parent to the root of tree
+     *  for all proper descendants n of parent, parents first
+     *      add a copy of n to tree, under the copy of its parent
      *  if remove == true
-     *      remove node from this
+     *      deleteSubtree(parent)
      * </pre>
      */
-    private void recursiveSubtree(Tree<E> tree, Node<E> parent, boolean remove) {
-        List<Edge<E>> children = this.properF1DescEdges.get(parent);
-        for (Edge<E> e : children) {
-            Node<E> child = e.getTgt();
-            tree.addNode(parent, child, true);
-            recursiveSubtree(tree, child, remove);
-        }
-        if (remove) deleteSingleNode(parent);
+    private void copySubtree(Tree<E> tree, Node<E> parent, boolean remove) {
+        tree.root.value = parent.value;
+        tree.root.size = parent.size;
+        tree.root.height = parent.height;
+        tree.graftChildren(this, parent, tree.root);
+        if (remove) deleteSubtree(parent);
     }
 
     /**
@@ -997,54 +2321,417 @@ public class Tree<E> implements Set<E>, Serializable {
      * @effects remove only the given node from this
      */
     private void deleteSingleNode(Node<E> node) {
-        parentEdges.remove(node);
+        parentEdges.remove(node.getLabel());
         properF1DescEdges.remove(node);
     }
 
     /**
-     * This method moves a node's subtree from the departure node to the arrival node in the tree.
+     * This method moves a node's subtree from the departure node to the arrival node in the tree. The subtree is not
+     * copied: its parent edge is relinked to the arrival node, so only the levels inside the subtree and the
+     * bookkeeping of the ancestors of both ends are updated.
      * @param departure root label of the subtree that is about to move
      * @param arrival   the label of the node to which the `departure` subtree will be transferred
      * @requires <pre>departure != null /\ departure is in this /\ arrival != null /\ arrival is in this
      *              /\ arrival is not in subtree of departure's subtree /\ departure neq arrival</pre>
      * @modifies this
      * @effects <pre>
-     *  - If getLevel(departure) < getLevel(arrival)
+     *  - If the requirements are not satisfied \/ departure is root
      *      the method action should be terminated.
-     *  - remove the subtree of `departure` label from this
-     *  - add subtree to node of `arrival` label in this
+     *  - remove the parent edge of `departure` from the children list of its parent
+     *  - add an edge with the same weight from `arrival` to `departure` (at its sorted position if comparator != null)
+     *  - shift the level of every node in the subtree by getLevel(arrival) + 1 - getLevel(departure)
      * </pre>
+     * @Time_complexity O(degree + depth) if the level of departure does not change, else O(k + degree + depth)
+     * where k is the size of the subtree
      */
     public void move(E departure, E arrival) {
-        if (getLevel(departure) < getLevel(arrival)) {
+        Node<E> node = get(departure);
+        Node<E> target = get(arrival);
+        if (node == null || target == null || node == root || node == target) {
+            return;
+        }
+        settle();
+        for (Node<E> n = target; n.depth > node.depth; n = getParent(n)) {
+            if (getParent(n) == node) {
+                return;     // arrival is in the subtree of departure
+            }
+        }
+        Edge<E> parentEdge = parentEdges.get(departure);
+        Node<E> parent = parentEdge.getSrc();
+        properF1DescEdges.get(parent).remove(parentEdge);
+        detached(parent, node);
+
+        parentEdge.setSrc(target);
+        List<Edge<E>> children = properF1DescEdges.get(target);
+        children.add(insertionPoint(children, departure), parentEdge);
+        int shift = target.depth + 1 - node.depth;
+        if (shift != 0) {
+            Deque<Node<E>> stack = new ArrayDeque<>();
+            stack.push(node);
+            while (!stack.isEmpty()) {
+                Node<E> n = stack.pop();
+                n.depth += shift;
+                for (Edge<E> e : properF1DescEdges.get(n)) {
+                    stack.push(e.getTgt());
+                }
+            }
+        }
+        attached(target, node);
+        modCount++;
+    }
+
+    /*
+     * ----------------------------------------------------------------------------------------------------------------
+     * diff and patch
+     * ----------------------------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * Compute the edit script that turns this tree into other (see TreePatch). Subtrees are reported as a whole: an
+     * inserted subtree carries its labels, weights and values, a removed subtree is reported by its top label, and a
+     * moved node takes its subtree along. Among the children of a node that keep their parent, the longest run that
+     * keeps its order stays in place and only the others are moved.
+     * @requires other != null
+     * @effects <pre>
+     *   if this and other are empty
+     *     return an empty patch
+     *   else if this or other is empty \/ their roots differ
+     *     return a patch that replaces this with a copy of other
+     *   else
+     *     for all Node y of other in pre-order, where p is the parent and s the previous sibling of y in other
+     *       if y is not in this
+     *         if p is in this
+     *           INSERT(p, s, the subtree of y in other without the labels that are in this)
+     *       else
+     *         if y is not root /\ (its parent in this neq p \/ y has to leave its place among its siblings)
+     *           MOVE(y, p, s)
+     *         if the weight of the parent edge or the value of y differs in this
+     *           UPDATE(y, its weight and value in other)
+     *     for all Node x of this in pre-order that is not in other but whose parent is
+     *       REMOVE(x)
+     *     return the patch
+     * </pre>
+     * @Time_complexity O(n + m + sum of d * log(d) over the degrees d of the nodes of other)
+     */
+    public TreePatch<E> diff(Tree<E> other) {
+        settle();
+        other.settle();
+        TreePatch<E> patch = new TreePatch<>();
+        if (isEmpty() && other.isEmpty()) {
+            return patch;
+        }
+        if (isEmpty() || other.isEmpty() || !root.getLabel().equals(other.root.getLabel())) {
+            patch.replace(other.clone());
+            return patch;
+        }
+        Map<E, Tree<E>> insertedInto = new HashMap<>();     // the INSERT subtree of each label that is not in this
+        List<Tree<E>> inserted = new ArrayList<>();
+        Set<E> displaced = new HashSet<>();                 // labels that keep their parent but not their place
+        Deque<Node<E>> stack = new ArrayDeque<>();
+        stack.push(other.root);
+        while (!stack.isEmpty()) {
+            Node<E> y = stack.pop();
+            E label = y.getLabel();
+            List<Edge<E>> children = other.properF1DescEdges.get(y);
+            Node<E> x = get(label);
+            Edge<E> edge = other.parentEdges.get(label);
+            if (edge != null) {
+                Node<E> p = edge.getSrc();
+                other.childOffsets(p);      // refreshes y.childIndex
+                int index = y.childIndex;
+                E after = index > 0 ? other.properF1DescEdges.get(p).get(index - 1).getTgt().getLabel() : null;
+                if (x == null) {
+                    Tree<E> subtree = insertedInto.get(p.getLabel());
+                    Node<E> copy;
+                    if (subtree == null) {
+                        subtree = new Tree<>();
+                        copy = subtree.loadRoot(label, children.size());
+                        inserted.add(subtree);
+                        patch.insert(p.getLabel(), after, subtree, edge.getWeight());
+                    } else {
+                        copy = subtree.loadChild(subtree.get(p.getLabel()), label, children.size(), edge.getWeight());
+                    }
+                    copy.value = y.value;
+                    insertedInto.put(label, subtree);
+                } else {
+                    Edge<E> oldEdge = parentEdges.get(label);
+                    if (!oldEdge.getSrc().getLabel().equals(p.getLabel()) || displaced.contains(label)) {
+                        patch.move(label, p.getLabel(), after);
+                    }
+                    if (!Objects.equals(oldEdge.getWeight(), edge.getWeight()) || x.value != y.value) {
+                        patch.update(label, edge.getWeight(), y.value);
+                    }
+                }
+            } else if (x.value != y.value) {
+                patch.update(label, null, y.value);
+            }
+            if (x != null && children.size() > 1) {
+                displaced(x, children, displaced);
+            }
+            for (int k = children.size() - 1; k >= 0; k--) {
+                stack.push(children.get(k).getTgt());
+            }
+        }
+        for (Tree<E> subtree : inserted) {
+            subtree.loaded();
+        }
+
+        // a removed subtree may still hold labels that are moved out of it, and those may hold removed labels again
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node<E> x = stack.pop();
+            boolean kept = other.contains(x.getLabel());
+            for (Edge<E> e : properF1DescEdges.get(x)) {
+                Node<E> child = e.getTgt();
+                if (kept && !other.contains(child.getLabel())) {
+                    patch.remove(child.getLabel());
+                }
+                stack.push(child);
+            }
+        }
+        return patch;
+    }
+
+    /**
+     * Find the children of x in other that keep x as their parent but have to be moved to get the order of other.
+     * These are the ones outside a longest increasing subsequence of their positions among the children of x in this.
+     * @requires x is in this /\ children are the children of N:<x.label> in other
+     * @modifies displaced
+     * @effects add to displaced the labels of the children that keep their parent but not their order
+     * @Time_complexity O(d * log(d)), d = children.size()
+     */
+    private void displaced(Node<E> x, List<Edge<E>> children, Set<E> displaced) {
+        int[] positions = new int[children.size()];
+        int kept = 0;
+        childOffsets(x);        // refreshes childIndex of the children of x
+        for (Edge<E> e : children) {
+            Node<E> child = get(e.getTgt().getLabel());
+            if (child != null && getParent(child) == x) {
+                positions[kept++] = child.childIndex;
+            }
+        }
+        if (kept < 2) {
+            return;
+        }
+        // patience sorting: tails[l] ends an increasing subsequence of length l + 1, previous[i] precedes i in it
+        int[] tails = new int[kept];
+        int[] previous = new int[kept];
+        int length = 0;
+        for (int i = 0; i < kept; i++) {
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (positions[tails[mid]] < positions[i]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == length) {
+                length++;
+            }
+        }
+        if (length == kept) {
+            return;
+        }
+        boolean[] increasing = new boolean[kept];
+        for (int i = tails[length - 1]; i >= 0; i = previous[i]) {
+            increasing[i] = true;
+        }
+        List<Edge<E>> oldChildren = properF1DescEdges.get(x);
+        for (int i = 0; i < kept; i++) {
+            if (!increasing[i]) {
+                displaced.add(oldChildren.get(positions[i]).getTgt().getLabel());
+            }
+        }
+    }
+
+    /**
+     * Replay a patch made by diff() on this tree. Each operation is applied in order; one that does not fit this tree
+     * (e.g. its label is missing) is skipped.
+     * @requires patch != null /\ this equals the tree that patch was made from
+     * @modifies this
+     * @effects <pre>
+     *   for all Operation op in patch, in order
+     *     apply op to this (see TreePatch.Type)
+     *   return true if all operations could be applied, otherwise false
+     * </pre>
+     * @Time_complexity O(size of the patch + sum of the degrees of the parents involved + depth per operation)
+     */
+    public boolean apply(TreePatch<E> patch) {
+        boolean applied = true;
+        for (TreePatch.Operation<E> op : patch.getOperations()) {
+            applied &= applyOperation(op);
+        }
+        return applied;
+    }
+
+    private boolean applyOperation(TreePatch.Operation<E> op) {
+        E label = op.getLabel();
+        Node<E> node;
+        switch (op.getType()) {
+            case INSERT:
+                Node<E> parent = get(op.getParent());
+                if (parent == null || !addTree(op.getSubtree(), parent)) {
+                    return false;
+                }
+                setWeight(label, op.getWeight());
+                placeAfter(get(label), op.getAfter());
+                return true;
+            case REMOVE:
+                return remove(label);
+            case MOVE:
+                node = get(label);
+                Node<E> target = get(op.getParent());
+                if (node == null || target == null) {
+                    return false;
+                }
+                move(label, op.getParent());
+                if (getParent(node) != target) {
+                    return false;
+                }
+                placeAfter(node, op.getAfter());
+                return true;
+            case UPDATE:
+                node = get(label);
+                if (node == null) {
+                    return false;
+                }
+                if (node != root) {
+                    setWeight(label, op.getWeight());
+                }
+                return setValue(label, op.getValue());
+            default:
+                clear();
+                return op.getSubtree().isEmpty() || treeCopy(op.getSubtree());
+        }
+    }
+
+    /**
+     * @requires node is in this /\ node is not root
+     * @modifies the children list of the parent of node
+     * @effects <pre>
+     *   if comparator == null
+     *     move node right after its sibling `after`, or to the first place if after is null
+     *     (or to the last place if after is not a sibling of node)
+     * </pre>
+     */
+    private void placeAfter(Node<E> node, E after) {
+        if (comparator != null) {
             return;
         }
-        Tree<E> subtree = subTree(departure, true);
-        addNode(arrival, subtree);
+        Edge<E> edge = parentEdges.get(node.getLabel());
+        Node<E> parent = edge.getSrc();
+        List<Edge<E>> children = properF1DescEdges.get(parent);
+        children.remove(edge);
+        int index = 0;
+        if (after != null) {
+            index = children.size();
+            for (int k = 0; k < children.size(); k++) {
+                if (children.get(k).getTgt().getLabel().equals(after)) {
+                    index = k + 1;
+                    break;
+                }
+            }
+        }
+        children.add(index, edge);
+        parent.childOffsets = null;
+        touched(parent);
+        modCount++;
     }
 
     /**
-     * Retrieve one element from this tree at the specified index after traversing it in pre-order and flattening it
-     * into a 1-D array. This method returns null if the index is out of bounds. Remember that indices start at 0.
+     * Retrieve one element from this tree at the specified index in pre-order traversal. This method returns null if
+     * the index is out of bounds. Remember that indices start at 0.<br/> The tree is not flattened: the method descends
+     * from the root using the subtree sizes, and picks the child that covers the index by binary search over the
+     * children's pre-order offsets.
+     * @Time_complexity O(depth * log(degree)), amortized over the lazily rebuilt childOffsets
      * @effects <pre>
      *  if index < 0 \/ index >= tree.size
      *      return null
      *  else
-     *      return toArray()[index]
+     *      node = root
+     *      while index > 0
+     *          index = index - 1       (skip node itself)
+     *          c = the last child of node whose pre-order offset <= index
+     *          index = index - offset of c
+     *          node = c
+     *      return node.label
      * </pre>
      */
-    @SuppressWarnings("unchecked")
     public E get(int index) {
-        //Array.newInstance(getRoot().getClass(), 0);
-        return (index < 0 || index >= size()) ? null : ((E[]) toArray(new Object[0]))[index];
+        settle();
+        if (root == null || index < 0 || index >= root.size) {
+            return null;
+        }
+        Node<E> node = root;
+        int i = index;
+        while (i > 0) {
+            i--;
+            int[] offsets = childOffsets(node);
+            int c = Arrays.binarySearch(offsets, i);
+            if (c < 0) {
+                c = -c - 2;     // insertion point - 1
+            }
+            node = properF1DescEdges.get(node).get(c).getTgt();
+            i -= offsets[c];
+        }
+        return node.getLabel();
+    }
+
+    /**
+     * Return a view of the labels of this tree from fromIndex (inclusive) to toIndex (exclusive) in pre-order
+     * traversal. The view is backed by this tree and nothing is materialized, each access costs as much as get(int),
+     * while its iterator is a Generator that starts at get(fromIndex) and walks in O(1) amortized per label.
+     * The view becomes undefined if this tree is structurally modified.
+     * @requires 0 <= fromIndex <= toIndex <= size()
+     * @effects <pre>
+     *  if requirements are not satisfied
+     *      throw new IndexOutOfBoundsException
+     *  else
+     *      return the list view [get(fromIndex), ..., get(toIndex - 1)]
+     * </pre>
+     */
+    public List<E> subList(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", size: " + size());
+        }
+        return new AbstractList<E>() {
+            @Override
+            public E get(int index) {
+                if (index < 0 || index >= size()) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+                }
+                return Tree.this.get(fromIndex + index);
+            }
+
+            @Override
+            public int size() {
+                return toIndex - fromIndex;
+            }
+
+            @Override
+            public Iterator<E> iterator() {
+                return new Generator(fromIndex, toIndex - fromIndex);
+            }
+        };
     }
 
     /**
-     * Return the node that encapsulates the label, or null if the label is not in this tree.
+     * Return the node of this tree that encapsulates the label, or null if the label is not in this tree.
      */
     private Node<E> get(E label) {
-        Optional<Node<E>> opt = properF1DescEdges.keySet().stream().filter(n -> n.getLabel().equals(label)).findFirst();
-        return opt.orElse(null);
+        if (root == null || label == null) {
+            return null;
+        }
+        if (root.getLabel().equals(label)) {
+            return root;
+        }
+        Edge<E> parentEdge = parentEdges.get(label);
+        return parentEdge != null ? parentEdge.getTgt() : null;
     }
 
     /**
@@ -1053,50 +2740,68 @@ public class Tree<E> implements Set<E>, Serializable {
      * @modifies this
      * @effects <pre>
      *  1. Arrange
-     *  - get the parent edge of the label
-     *  - get the children of the label
+     *  - get the node of the label
+     *  - detach the node from parentEdges and properF1DescEdges, keeping its parent edge and its children
+     *
+     *  2. replace the label of the node with the given replacement
+     *      (the node is re-keyed only after its label changed, otherwise the maps would keep stale entries)
      *
-     *  2. from the parent edge, replace the target node with the given replacement
-     *      - target node's label
-     *      - parentEdges old node reference
-     *      - parentEdges new node reference
+     *  3. put the node back to parentEdges and properF1DescEdges
      *
-     *  3. replace the old reference of label's node in properF1DescEdges
+     *  4. if comparator != null, move the node to its sorted position among its siblings
      * </pre>
      */
     public void set(E label, E replacement) {
-        if (!contains(label) && label.equals(replacement)) return;
-        Node<E> nLabel = null;
-        Node<E> nReplacement = null;
-        try {
-            nLabel = new Node<>(label);
-            nReplacement = new Node<>(replacement);
-        } catch (NotPossibleException e) {
-            e.printStackTrace();
+        if (!contains(label) || label.equals(replacement)) return;
+        Node<E> node = get(label);
+        Edge<E> parent = parentEdges.remove(label);
+        List<Edge<E>> children = properF1DescEdges.remove(node);
+
+        node.setLabel(replacement);
+
+        parentEdges.put(replacement, parent);
+        properF1DescEdges.put(node, children);
+        touched(node);
+        if (comparator != null) {
+            reposition(node);
         }
-        Edge<E> parent = parentEdges.get(nLabel);
-        List<Edge<E>> children = properF1DescEdges.get(nLabel);
-
-        // from the parent edge, replace the target node with the given replacement
-        parent.getTgt().setLabel(replacement);
-        parentEdges.remove(nLabel);
-        parentEdges.put(nReplacement, parent);
-
-        // replace the old reference of label's node in properF1DescEdges
-        properF1DescEdges.remove(nLabel);
-        properF1DescEdges.put(nReplacement, children);
     }
 
     /**
      * @requires label1 != null /\ label2 != null /\ label1 neq label2
      * @modifies this
      * @effects <pre>
+     *   if comparator != null
+     *     exchange the labels of both nodes, then move both nodes to their sorted positions
+     *     (a dummy object cannot be compared with the other labels)
+     *   else
      *     set label2 with dummy object
      *     set label1 with label2
      *     set dummy object with label1
      * </pre>
      */
     public void swap(E label1, E label2) {
+        if (comparator != null) {
+            Node<E> node1 = get(label1);
+            Node<E> node2 = get(label2);
+            if (node1 == null || node2 == null || node1 == node2) return;
+            Edge<E> parent1 = parentEdges.remove(label1);
+            Edge<E> parent2 = parentEdges.remove(label2);
+            List<Edge<E>> children1 = properF1DescEdges.remove(node1);
+            List<Edge<E>> children2 = properF1DescEdges.remove(node2);
+            node1.setLabel(label2);
+            node2.setLabel(label1);
+            parentEdges.put(label2, parent1);
+            parentEdges.put(label1, parent2);
+            properF1DescEdges.put(node1, children1);
+            properF1DescEdges.put(node2, children2);
+            touched(node1);
+            touched(node2);
+            reposition(node1);
+            reposition(node2);
+            return;
+        }
+        @SuppressWarnings("unchecked")
         E dummyLabel = (E) new Object();
         set(label2, dummyLabel);
         set(label1, label2);
@@ -1135,23 +2840,199 @@ public class Tree<E> implements Set<E>, Serializable {
         }
     }
 
+    /**
+     * Trees are serialized in the compact format of TreeCodec instead of the default form of their maps, nodes and
+     * edges.
+     * @effects return new TreeCodec.SerializedForm(this)
+     */
+    private Object writeReplace() {
+        return new TreeCodec.SerializedForm<>(this);
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("Trees are deserialized through TreeCodec.SerializedForm");
+    }
+
     /**
      * Shallow cloning method
      * @effects return a deep copy of this
      */
     @Override
     public Tree<E> clone() {
-        Tree<E> t = new Tree<>();
+        Tree<E> t = new Tree<>(comparator);
         t.addAll(this);
         return t;
     }
 
+    /**
+     * Two trees are equal if they have the same labels, linked by edges with the same weights, and the children of
+     * every node are in the same order. Node values and comparators are not compared. The structural hashes of both
+     * trees are compared first, so unequal trees are usually told apart in O(1) once their hashes are up to date.
+     * @effects <pre>
+     *   if o is not a Tree \/ o.size != size \/ o.hashCode() != hashCode()
+     *     return false
+     *   else
+     *     return true if the nodes of both trees match in a parallel pre-order walk, i.e. same label, same number of
+     *       children and same weight of the parent edge, else false
+     * </pre>
+     */
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Tree<?> tree = (Tree<?>) o;
-        return Objects.equals(root, tree.root) && Objects.equals(parentEdges, tree.parentEdges) && Objects.equals(properF1DescEdges, tree.properF1DescEdges);
+        if (isEmpty() || tree.isEmpty()) {
+            return isEmpty() && tree.isEmpty();
+        }
+        return size() == tree.size() && hashCode() == tree.hashCode() && sameTree(this, tree);
+    }
+
+    /**
+     * @requires a and b are not empty
+     * @effects return true if a and b have the same labels, weights and order of children, else false
+     */
+    private static <A, B> boolean sameTree(Tree<A> a, Tree<B> b) {
+        Deque<Node<A>> left = new ArrayDeque<>();
+        Deque<Node<B>> right = new ArrayDeque<>();
+        left.push(a.root);
+        right.push(b.root);
+        while (!left.isEmpty()) {
+            Node<A> n = left.pop();
+            Node<B> m = right.pop();
+            if (n.size != m.size || (n.hashed && m.hashed && n.hash != m.hash) || !n.getLabel().equals(m.getLabel())) {
+                return false;
+            }
+            List<Edge<A>> children = a.properF1DescEdges.get(n);
+            List<Edge<B>> others = b.properF1DescEdges.get(m);
+            if (children.size() != others.size()) {
+                return false;
+            }
+            for (int i = 0; i < children.size(); i++) {
+                if (!Objects.equals(children.get(i).getWeight(), others.get(i).getWeight())) {
+                    return false;
+                }
+                left.push(children.get(i).getTgt());
+                right.push(others.get(i).getTgt());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The hash of a tree is the structural (Merkle) hash of its root: the hash of a node combines its label with the
+     * hashes of its children, in order, and the weights of the edges to them. Every node caches the hash of its
+     * subtree, and a modification only invalidates the hashes from the modified node up to the root, so only those
+     * are computed again. This is consistent with equals(), but not with the hash of a Set of the same labels.
+     * @effects return 0 if this is empty, else subtreeHash(root)
+     * @Time_complexity O(1) if this has not changed since the last call, else O(total degree of the invalidated nodes)
+     */
+    @Override
+    public int hashCode() {
+        return isEmpty() ? 0 : subtreeHash(root);
+    }
+
+    /**
+     * @effects <pre>
+     *   if label is in this
+     *     return the structural hash of the subtree of label, which only depends on its labels, the weights of its
+     *       edges and the order of the children (see hashCode())
+     *   else
+     *     return 0
+     * </pre>
+     */
+    public int getSubtreeHash(E label) {
+        Node<E> node = get(label);
+        return node != null ? subtreeHash(node) : 0;
+    }
+
+    /**
+     * Find the parts of this tree that differ from other, e.g. a newer scan of the same directory, by descending only
+     * into the subtrees whose hashes differ: a subtree whose hash equals the one of the same label in other is skipped
+     * as a whole. A changed edge weight is reported at the parent of the edge.
+     * @requires other != null
+     * @effects <pre>
+     *   return the labels of this, in pre-order, whose subtree differs from the subtree of the same label in other (or
+     *   that are not in other), up to hash collisions; i.e. the changed nodes and all of their ancestors
+     * </pre>
+     * @Time_complexity O(number of returned labels and their children), plus computing the stale hashes of both trees
+     */
+    public List<E> changedSubtrees(Tree<E> other) {
+        List<E> changed = new ArrayList<>();
+        if (isEmpty()) {
+            return changed;
+        }
+        settle();
+        other.settle();
+        Deque<Node<E>> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node<E> node = stack.pop();
+            Node<E> match = other.get(node.getLabel());
+            if (match != null && match.size == node.size && other.subtreeHash(match) == subtreeHash(node)) {
+                continue;
+            }
+            changed.add(node.getLabel());
+            List<Edge<E>> children = properF1DescEdges.get(node);
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i).getTgt());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Compute the stale hashes in the subtree of node, children before their parents. The nodes below an up to date
+     * hash are not visited.
+     * @requires node is in this
+     * @modifies the nodes of the subtree of node
+     * @effects <pre>
+     *   for each node n in the subtree of node whose hash is stale, bottom-up
+     *     h = n.label.hashCode()
+     *     for each edge e in properF1DescEdges.get(n)
+     *       h = 31 * h + mix(e.getTgt().hash + (0 if e.weight is null, else mix(e.weight.hashCode()) ^ GOLDEN))
+     *     n.hash = mix(h)
+     *   return node.hash
+     * </pre>
+     */
+    private int subtreeHash(Node<E> node) {
+        settle();
+        if (node.hashed) {
+            return node.hash;
+        }
+        List<Node<E>> stale = new ArrayList<>();
+        Deque<Node<E>> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            Node<E> n = stack.pop();
+            stale.add(n);
+            for (Edge<E> e : properF1DescEdges.get(n)) {
+                if (!e.getTgt().hashed) {
+                    stack.push(e.getTgt());
+                }
+            }
+        }
+        for (int i = stale.size() - 1; i >= 0; i--) {     // a node is listed before all of its descendants
+            Node<E> n = stale.get(i);
+            int h = n.getLabel().hashCode();
+            for (Edge<E> e : properF1DescEdges.get(n)) {
+                Object weight = e.getWeight();
+                h = 31 * h + mix(e.getTgt().hash + (weight != null ? mix(weight.hashCode()) ^ 0x9E3779B9 : 0));
+            }
+            n.hash = mix(h);
+            n.hashed = true;
+        }
+        return node.hash;
+    }
+
+    /**
+     * @effects return the finalizer of MurmurHash3 applied to h, so that every bit of h affects every bit of the result
+     */
+    static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ h >>> 16;
     }
 
 //    /**
@@ -1171,15 +3052,7 @@ public class Tree<E> implements Set<E>, Serializable {
      * left to right.)
      */
     public String toString(boolean stylize) {
-        if (stylize) {
-            StringBuilder sb = new StringBuilder();
-            if (!isEmpty()) {
-                toString(sb, root, true);
-            }
-            return sb.toString();
-        } else {
-            return toString();
-        }
+        return isEmpty() ? "" : TreeRenderer.toString(new NodeCursor(root), stylize);
     }
 
     /**
@@ -1188,135 +3061,165 @@ public class Tree<E> implements Set<E>, Serializable {
      */
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder();
-        if (!isEmpty()) {
-            toString(sb, root, false);
-        }
-        return sb.toString();
+        return toString(false);
     }
 
     /**
-     * @requires sb!=null /\ node in properF1DescEdges
+     * Write the string representation of this tree (the same as toString(stylize)) to the given writer. The tree is
+     * rendered by TreeRenderer in a single depth-first pass, so nothing but the current path is kept in memory and each
+     * node costs O(1) besides writing its label.
+     * @requires out != null
+     * @modifies out
      * @effects <pre>
-     *   expectedRoot = node
-     *   while expectedRoot!=root
-     *     expectedRoot = its parent
-     *     add expectedRoot to list
-     *   for all element in list in reverse order
-     *     append determiner to sb
-     *   append node.label to sb
-     *   for all Edge e in the properF1DescEdges.get(node)
-     *     if e is not the last Edge: append \n to sb
-     *     invoke toString(sb, e.getTgt(), stylize)
+     *   if this is not empty
+     *     write root.label
+     *     for all Node n in pre-order traversal (except root)
+     *       write \n, the prefix of the parent of n, the determiner of n, n.label
+     *       if n has children
+     *         push (n is the last child ? "    " : "│   ") to the prefix
+     *       after the last descendant of n: pop it from the prefix
+     *   flush out
      * </pre>
      */
-    public void toString(StringBuilder sb, Node<E> node, boolean stylize) {
-        Node<E> expectedRoot = node;
-        List<Node<E>> list = new ArrayList<>();
-        while (!expectedRoot.equals(root)) {
-            Node<E> tmp = expectedRoot;
-            list.add(tmp);
-            expectedRoot = parentEdges.get(expectedRoot).getSrc();
-        }
-        for (int i = list.size() - 1; i >= 0; i--) {
-            if (stylize) {
-                stylizedDeterminer(sb, list.get(i), i == 0);
-            } else {
-                determiner(sb, list.get(i), i == 0);
-            }
+    public void print(Writer out, boolean stylize) throws IOException {
+        if (!isEmpty()) {
+            print(out, root, stylize);
         }
+    }
 
-        if (node.getLabel() instanceof File) {
-            sb.append(((File) node.getLabel()).getName());
-        } else {
-            sb.append(node.getLabel());
-        }
-        List<Edge<E>> subtrees = properF1DescEdges.get(node);
-        int size = 0;
-        if (subtrees != null) {
-            for (Edge<E> e : subtrees) {
-                if (size++ < subtrees.size()) {
-                    sb.append("\n");
-                }
-                toString(sb, e.getTgt(), stylize);
-            }
-        }
+    /**
+     * Write the lines of node and its subtree as they appear in print(out, stylize), i.e. each one prefixed by the
+     * determiners of its ancestors below the root.
+     * @requires out != null /\ node is in this
+     * @modifies out
+     * @effects <pre>
+     *   if node is not root
+     *     write ("│   " or "    ") for each ancestor of node below the root, the determiner of node
+     *   write node.label
+     *   for all Node n in pre-order traversal of the subtree of node (except node)
+     *     write \n, the prefix of the parent of n, the determiner of n, n.label
+     *   flush out
+     * </pre>
+     */
+    private void print(Writer out, Node<E> node, boolean stylize) throws IOException {
+        TreeRenderer.print(out, new NodeCursor(node), ancestorsOf(node), node != root && hasRightSiblings(node),
+                stylize);
     }
 
     /**
-     * This is an alter version of determiner that designed only for File
-     * @requires sb!=null /\ node in properF1DescEdges
+     * @requires node is in this
      * @effects <pre>
-     *   if node has right sibling
-     *     if node is the node we are appending label (not its ancestors)
-     *       if node.label is File
-     *         sb.append("│   ")
-     *       else
-     *         sb.append("├───")
-     *     else
-     *       sb.append("│   ")
+     *   if node is root
+     *     return null
      *   else
-     *     if isTheAppendingNode
-     *       if node.label is File
-     *         sb.append("│   ")
-     *       else
-     *         sb.append("└───")
-     *     else
-     *       sb.append("    ")
-     */
-    private void stylizedDeterminer(StringBuilder sb, Node<E> node, boolean isTheAppendingNode) {
-        E label = node.getLabel();
-        // has right sibling(s)
-        if (hasRightSiblings(node)) {
-            if (isTheAppendingNode) {
-                if (((File) label).isFile()) {
-                    sb.append("│   ");
-                } else {
-                    sb.append("├───");
-                }
-            } else {
-                sb.append("│   ");
+     *     return, for each ancestor of node below the root from the top, whether it has right siblings
+     * </pre>
+     */
+    private boolean[] ancestorsOf(Node<E> node) {
+        if (node == root) {
+            return null;
+        }
+        Deque<Node<E>> ancestors = new ArrayDeque<>();
+        for (Node<E> n = getParent(node); n != root; n = getParent(n)) {
+            ancestors.push(n);
+        }
+        boolean[] prefix = new boolean[ancestors.size()];
+        int i = 0;
+        for (Node<E> n : ancestors) {
+            prefix[i++] = hasRightSiblings(n);
+        }
+        return prefix;
+    }
+
+    /**
+     * @Overview A TreeRenderer.Cursor over the nodes of this tree, which keeps the iterators over the siblings of the
+     *    nodes on the path from the start node to the current one.
+     */
+    private class NodeCursor implements TreeRenderer.Cursor<E> {
+        private final Deque<Iterator<Edge<E>>> siblings = new ArrayDeque<>();
+        private Node<E> node;
+
+        NodeCursor(Node<E> start) {
+            node = start;
+        }
+
+        @Override
+        public E label() {
+            return node.getLabel();
+        }
+
+        @Override
+        public boolean firstChild() {
+            List<Edge<E>> children = properF1DescEdges.get(node);
+            if (children.isEmpty()) {
+                return false;
             }
+            Iterator<Edge<E>> it = children.iterator();
+            node = it.next().getTgt();
+            siblings.push(it);
+            return true;
+        }
 
-            // does not have right sibling(s)
-        } else if (isTheAppendingNode) {
-            if (((File) label).isFile()) {
-                sb.append("╵   ");
-            } else {
-                sb.append("└───");
+        @Override
+        public boolean hasNextSibling() {
+            return !siblings.isEmpty() && siblings.peek().hasNext();
+        }
+
+        @Override
+        public boolean nextSibling() {
+            if (!hasNextSibling()) {
+                return false;
             }
-        } else {
-            sb.append("    ");
+            node = siblings.peek().next().getTgt();
+            return true;
         }
+
+        @Override
+        public void parent() {
+            siblings.pop();
+            node = getParent(node);
+        }
+    }
+
+    /**
+     * Write the string representation of this tree to the given stream, encoded in UTF-8. The stream is flushed but
+     * not closed.
+     * @requires out != null
+     * @modifies out
+     * @effects print(a buffered UTF-8 writer over out, stylize)
+     */
+    public void print(OutputStream out, boolean stylize) throws IOException {
+        print(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), stylize);
+    }
+
+    /**
+     * Write the string representation of this tree to the given channel at its current position, encoded in UTF-8.
+     * The channel is not closed.
+     * @requires channel != null /\ channel is writable
+     * @modifies channel
+     * @effects print(a buffered UTF-8 writer over channel, stylize)
+     */
+    public void print(FileChannel channel, boolean stylize) throws IOException {
+        print(new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), 8192)), stylize);
     }
 
     /**
+     * Append the lines of node and its subtree, as they appear in toString(stylize), to sb. The subtree is rendered
+     * iteratively by TreeRenderer, so its depth does not matter.
      * @requires sb!=null /\ node in properF1DescEdges
      * @effects <pre>
-     *   if node has right sibling
-     *     if node is the node we are appending label (not its ancestors)
-     *       sb.append("├───")
-     *     else
-     *       sb.append("│   ")
-     *   else
-     *     if isTheAppendingNode
-     *       sb.append("└───");
-     *     else
-     *       sb.append("    ");
+     *   for all ancestors of node below the root, from the top
+     *     append their determiner to sb
+     *   append the determiner of node (unless node is root) and node.label to sb
+     *   for all Node n in pre-order traversal of the subtree of node (except node)
+     *     append \n, the determiners of the ancestors of n below the root, the determiner of n and n.label to sb
+     * </pre>
      */
-    private void determiner(StringBuilder sb, Node<E> node, boolean isTheAppendingNode) {
-        // has right sibling(s)
-        if (hasRightSiblings(node)) {
-            if (isTheAppendingNode) {
-                sb.append("├───");
-            } else {
-                sb.append("│   ");
-            }
-            // does not have right sibling(s)
-        } else if (isTheAppendingNode) {
-            sb.append("└───");
-        } else {
-            sb.append("    ");
+    public void toString(StringBuilder sb, Node<E> node, boolean stylize) {
+        Node<E> n = get(node.getLabel());
+        if (n == null) {
+            return;
         }
+        sb.append(TreeRenderer.toString(new NodeCursor(n), ancestorsOf(n), n != root && hasRightSiblings(n), stylize));
     }
-}
\ No newline at end of file
+}
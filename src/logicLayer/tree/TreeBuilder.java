@@ -0,0 +1,174 @@
+package logicLayer.tree;
+
+import common.NotPossibleException;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @Overview <pre>Bulk loaders that build a Tree in one linear pass from flat arrays, for exchanging large hierarchies
+ *    with other systems. Unlike repeated addNode() calls, the nodes are appended without maintaining the sizes and
+ *    heights of their ancestors, which are computed once at the end, and without checking the preconditions of
+ *    addNode() for each node. The input is still checked as a whole: it must describe exactly one tree with distinct,
+ *    non-null labels.
+ *    <p>Tree.exportParentArray() goes in the other direction: together with Tree.toArray() it gives the labels and
+ *    the parent indexes in pre-order, which fromParentArray() accepts as they are.</pre>
+ */
+public abstract class TreeBuilder {
+    /**
+     * Build a tree from parallel arrays: parents[i] is the index in labels of the parent of labels[i], or -1 for the
+     * root. The arrays may be in any order; the children of each node keep the order of their indexes.
+     * @requires labels != null /\ parents != null
+     * @effects <pre>
+     *   if labels.length != parents.length \/ there is not exactly one root \/ some parents[i] is out of range \/
+     *      the parent links contain a cycle \/ some label is null or duplicated
+     *     throw new NotPossibleException
+     *   else if labels is empty
+     *     return an empty tree
+     *   else
+     *     return the tree in which labels[i] is a child of labels[parents[i]] for every non-root i
+     * </pre>
+     * @Time_complexity O(n)
+     */
+    public static <E> Tree<E> fromParentArray(E[] labels, int[] parents) throws NotPossibleException {
+        int n = labels.length;
+        if (parents.length != n) {
+            throw new NotPossibleException("Expected " + n + " parent indexes, found " + parents.length);
+        }
+        Tree<E> tree = new Tree<>();
+        if (n == 0) {
+            return tree;
+        }
+        // children of i are kids[start[i]..start[i+1]-1], in the order of their indexes
+        int[] start = new int[n + 1];
+        int root = -1;
+        for (int i = 0; i < n; i++) {
+            int p = parents[i];
+            if (p == -1) {
+                if (root != -1) {
+                    throw new NotPossibleException("More than one root: " + root + ", " + i);
+                }
+                root = i;
+            } else if (p < 0 || p >= n) {
+                throw new NotPossibleException("Parent index out of range at " + i + ": " + p);
+            } else {
+                start[p + 1]++;
+            }
+        }
+        if (root == -1) {
+            throw new NotPossibleException("No root");
+        }
+        for (int i = 0; i < n; i++) {
+            start[i + 1] += start[i];
+        }
+        int[] kids = new int[n - 1];
+        int[] next = new int[n];
+        System.arraycopy(start, 0, next, 0, n);
+        for (int i = 0; i < n; i++) {
+            if (i != root) {
+                kids[next[parents[i]]++] = i;
+            }
+        }
+
+        Node<E>[] byIndex = Node.newArray(n);
+        Node<E>[] nodes = Node.newArray(n);
+        Node<E>[] parentNodes = Node.newArray(n);
+        byIndex[root] = tree.loadRoot(labels[root], start[root + 1] - start[root]);
+        if (byIndex[root] == null) {
+            throw new NotPossibleException("Invalid root label");
+        }
+        int[] stack = new int[n];
+        int top = 0;
+        stack[top++] = root;
+        int loaded = 0;
+        while (top > 0) {
+            int i = stack[--top];
+            if (i != root) {
+                Node<E> parent = byIndex[parents[i]];
+                byIndex[i] = tree.loadChild(parent, labels[i], start[i + 1] - start[i], null);
+                if (byIndex[i] == null) {
+                    throw new NotPossibleException("Invalid or duplicate label at " + i + ": " + labels[i]);
+                }
+                parentNodes[loaded] = parent;
+            }
+            nodes[loaded++] = byIndex[i];
+            for (int k = start[i + 1] - 1; k >= start[i]; k--) {
+                stack[top++] = kids[k];
+            }
+        }
+        if (loaded != n) {
+            throw new NotPossibleException((n - loaded) + " nodes are not connected to the root");
+        }
+        tree.loaded(nodes, parentNodes);
+        return tree;
+    }
+
+    /**
+     * Build a tree from its labels in pre-order, where childCounts[i] is the number of children of labels[i], e.g. the
+     * output of Tree.toArray() together with the degree of each label.
+     * @requires labels != null /\ childCounts != null
+     * @effects <pre>
+     *   if labels.length != childCounts.length \/ the child counts do not describe exactly labels.length nodes \/
+     *      some label is null or duplicated
+     *     throw new NotPossibleException
+     *   else if labels is empty
+     *     return an empty tree
+     *   else
+     *     return the tree whose pre-order traversal is labels, in which labels[i] has childCounts[i] children
+     * </pre>
+     * @Time_complexity O(n)
+     */
+    public static <E> Tree<E> fromPreOrder(E[] labels, int[] childCounts) throws NotPossibleException {
+        int n = labels.length;
+        if (childCounts.length != n) {
+            throw new NotPossibleException("Expected " + n + " child counts, found " + childCounts.length);
+        }
+        Tree<E> tree = new Tree<>();
+        if (n == 0) {
+            return tree;
+        }
+        Node<E>[] nodes = Node.newArray(n);
+        Node<E>[] parents = Node.newArray(n);
+        Node<E>[] path = Node.newArray(n);       // path[d] is the node at depth d whose children are being read
+        int[] pending = new int[n];         // pending[d] children of path[d] are still to be read
+        if (childCounts[0] < 0 || childCounts[0] > n - 1) {
+            throw new NotPossibleException("Child count out of range at 0: " + childCounts[0]);
+        }
+        nodes[0] = tree.loadRoot(labels[0], childCounts[0]);
+        if (nodes[0] == null) {
+            throw new NotPossibleException("Invalid root label");
+        }
+        path[0] = nodes[0];
+        pending[0] = childCounts[0];
+        int top = 0;
+        for (int i = 1; i < n; i++) {
+            while (top >= 0 && pending[top] == 0) {
+                top--;
+            }
+            if (top < 0) {
+                throw new NotPossibleException("No parent is left for the label at " + i + ": " + labels[i]);
+            }
+            pending[top]--;
+            int children = childCounts[i];
+            if (children < 0 || children > n - 1 - i) {
+                throw new NotPossibleException("Child count out of range at " + i + ": " + children);
+            }
+            Node<E> node = tree.loadChild(path[top], labels[i], children, null);
+            if (node == null) {
+                throw new NotPossibleException("Invalid or duplicate label at " + i + ": " + labels[i]);
+            }
+            nodes[i] = node;
+            parents[i] = path[top];
+            if (children > 0) {
+                path[++top] = node;
+                pending[top] = children;
+            }
+        }
+        for (; top >= 0; top--) {
+            if (pending[top] != 0) {
+                throw new NotPossibleException("Missing " + pending[top] + " children of " + path[top]);
+            }
+        }
+        tree.loaded(nodes, parents);
+        return tree;
+    }
+}
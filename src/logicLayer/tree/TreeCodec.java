@@ -0,0 +1,333 @@
+package logicLayer.tree;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @Overview <pre>A compact binary format for Tree. Instead of the default serialized form (both HashMaps, every Node,
+ *    Edge and ArrayList), a tree is written as its labels in pre-order, each one followed by its number of children
+ *    as a varint. Edge weights and node values are only written if the tree has any.
+ *    Both directions are single iterative passes, so they take linear time and never overflow the call stack.
+ *    <p>Tree is serialized in this format as well: its writeReplace() hands a SerializedForm to Java serialization,
+ *    which picks a built-in LabelCodec when all labels are Strings, Integers or Files.</pre>
+ * @Object <pre>
+ *   stream   := version:byte  n:varint  flags:byte  node{n}
+ *   node     := label  children:varint  [weight]  [value:double]
+ *   weight   := 0 (null) | 1 zigzag:varint (Integer) | 2 long (Long) | 3 double (Double) | 4 object (other)
+ *   the root has no weight; weights and values are present if the WEIGHTS and VALUES flags are set
+ *   other weights, like LabelCodec.OBJECT labels, can only be written to an ObjectOutput
+ *   </pre>
+ */
+public abstract class TreeCodec {
+    private static final int FORMAT_VERSION = 1;
+    private static final int WEIGHTS = 1;
+    private static final int VALUES = 2;
+
+    private static final int NULL_WEIGHT = 0;
+    private static final int INTEGER_WEIGHT = 1;
+    private static final int LONG_WEIGHT = 2;
+    private static final int DOUBLE_WEIGHT = 3;
+    private static final int OBJECT_WEIGHT = 4;
+
+    /**
+     * the built-in codecs by the id that SerializedForm writes
+     */
+    private static final LabelCodec<?>[] CODECS = {LabelCodec.OBJECT, LabelCodec.STRING, LabelCodec.INTEGER,
+            LabelCodec.FILE};
+
+    /**
+     * Write tree to the given stream through a buffer. The stream is flushed but not closed.
+     * @requires tree != null /\ out != null /\ codec != null
+     * @modifies out
+     * @effects write(tree, a buffered DataOutput over out, codec)
+     */
+    public static <E> void write(Tree<E> tree, OutputStream out, LabelCodec<? super E> codec) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        write(tree, (DataOutput) data, codec);
+        data.flush();
+    }
+
+    /**
+     * @requires in != null /\ codec != null
+     * @modifies in
+     * @effects return read(a buffered DataInput over in, codec)
+     */
+    public static <E> Tree<E> read(InputStream in, LabelCodec<E> codec) throws IOException {
+        return read((DataInput) new DataInputStream(new BufferedInputStream(in)), codec);
+    }
+
+    /**
+     * @requires tree != null /\ out != null /\ codec != null
+     * @modifies out
+     * @effects write tree to out in the format of this class
+     * @Time_complexity O(n)
+     */
+    public static <E> void write(Tree<E> tree, DataOutput out, LabelCodec<? super E> codec) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        writeVarInt(out, tree.size());
+        if (tree.isEmpty()) {
+            out.writeByte(0);
+            return;
+        }
+        Node<E> root = tree.rootNode();
+        int flags = root.value != 0 ? VALUES : 0;
+        for (Edge<E> edge : tree.parentEdges()) {
+            if (edge != null) {
+                if (edge.getTgt().value != 0) {
+                    flags |= VALUES;
+                }
+                if (edge.getWeight() != null) {
+                    flags |= WEIGHTS;
+                }
+            }
+        }
+        out.writeByte(flags);
+
+        List<Edge<E>> children = tree.childEdges(root);
+        codec.write(out, root.getLabel(), null);
+        writeVarInt(out, children.size());
+        if ((flags & VALUES) != 0) {
+            out.writeDouble(root.value);
+        }
+        Deque<Iterator<Edge<E>>> stack = new ArrayDeque<>();
+        stack.push(children.iterator());
+        while (!stack.isEmpty()) {
+            Iterator<Edge<E>> siblings = stack.peek();
+            if (!siblings.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            Edge<E> edge = siblings.next();
+            Node<E> node = edge.getTgt();
+            children = tree.childEdges(node);
+            codec.write(out, node.getLabel(), edge.getSrc().getLabel());
+            writeVarInt(out, children.size());
+            if ((flags & WEIGHTS) != 0) {
+                writeWeight(out, edge.getWeight());
+            }
+            if ((flags & VALUES) != 0) {
+                out.writeDouble(node.value);
+            }
+            if (!children.isEmpty()) {
+                stack.push(children.iterator());
+            }
+        }
+    }
+
+    /**
+     * @requires in != null /\ codec != null
+     * @modifies in
+     * @effects <pre>
+     *   if in holds a tree in the format of this class
+     *     return that tree
+     *   else
+     *     throw an IOException
+     * </pre>
+     * @Time_complexity O(n)
+     */
+    public static <E> Tree<E> read(DataInput in, LabelCodec<E> codec) throws IOException {
+        return read(in, codec, null);
+    }
+
+    /**
+     * @requires in != null /\ codec != null
+     * @modifies in
+     * @effects return read(in, codec) as a tree whose children are ordered by comparator (see Tree(Comparator))
+     * @Time_complexity O(n) if the children were written in the order of comparator, else O(n * log(degree))
+     */
+    static <E> Tree<E> read(DataInput in, LabelCodec<E> codec, Comparator<? super E> comparator) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new StreamCorruptedException("Unknown format version: " + version);
+        }
+        int n = readVarInt(in);
+        int flags = in.readUnsignedByte();
+        Tree<E> tree = new Tree<>(comparator);
+        if (n == 0) {
+            return tree;
+        }
+        Node<E>[] nodes = Node.newArray(n);
+        Node<E>[] parents = Node.newArray(n);
+        int[] pending = new int[16];        // pending[d] children of the node at depth d are still to be read
+        int top = 0;
+
+        E label = codec.read(in, null);
+        pending[0] = readVarInt(in);
+        nodes[0] = tree.loadRoot(label, pending[0]);
+        if (nodes[0] == null) {
+            throw new StreamCorruptedException("Invalid root label");
+        }
+        if ((flags & VALUES) != 0) {
+            nodes[0].value = in.readDouble();
+        }
+        Node<E>[] path = Node.newArray(16);      // path[d] is the node at depth d whose children are being read
+        path[0] = nodes[0];
+        int i = 1;
+        while (top >= 0) {
+            if (pending[top] == 0) {
+                top--;
+                continue;
+            }
+            pending[top]--;
+            if (i == n) {
+                throw new StreamCorruptedException("More than " + n + " nodes");
+            }
+            Node<E> parent = path[top];
+            label = codec.read(in, parent.getLabel());
+            int children = readVarInt(in);
+            Object weight = (flags & WEIGHTS) != 0 ? readWeight(in) : null;
+            Node<E> node = tree.loadChild(parent, label, children, weight);
+            if (node == null) {
+                throw new StreamCorruptedException("Invalid or duplicate label: " + label);
+            }
+            if ((flags & VALUES) != 0) {
+                node.value = in.readDouble();
+            }
+            nodes[i] = node;
+            parents[i++] = parent;
+            if (children > 0) {
+                if (++top == pending.length) {
+                    pending = Arrays.copyOf(pending, top * 2);
+                    path = Arrays.copyOf(path, top * 2);
+                }
+                pending[top] = children;
+                path[top] = node;
+            }
+        }
+        if (i != n) {
+            throw new StreamCorruptedException("Expected " + n + " nodes, found " + i);
+        }
+        tree.loaded(nodes, parents);
+        return tree;
+    }
+
+    private static void writeWeight(DataOutput out, Object weight) throws IOException {
+        if (weight == null) {
+            out.writeByte(NULL_WEIGHT);
+        } else if (weight instanceof Integer) {
+            int w = (Integer) weight;
+            out.writeByte(INTEGER_WEIGHT);
+            writeVarInt(out, (w << 1) ^ (w >> 31));
+        } else if (weight instanceof Long) {
+            out.writeByte(LONG_WEIGHT);
+            out.writeLong((Long) weight);
+        } else if (weight instanceof Double) {
+            out.writeByte(DOUBLE_WEIGHT);
+            out.writeDouble((Double) weight);
+        } else {
+            out.writeByte(OBJECT_WEIGHT);
+            LabelCodec.OBJECT.write(out, weight, null);
+        }
+    }
+
+    private static Object readWeight(DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case NULL_WEIGHT:
+                return null;
+            case INTEGER_WEIGHT:
+                int zigzag = readVarInt(in);
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            case LONG_WEIGHT:
+                return in.readLong();
+            case DOUBLE_WEIGHT:
+                return in.readDouble();
+            case OBJECT_WEIGHT:
+                return LabelCodec.OBJECT.read(in, null);
+            default:
+                throw new StreamCorruptedException("Unknown weight tag: " + tag);
+        }
+    }
+
+    /**
+     * @modifies out
+     * @effects write value as an unsigned LEB128 varint, 7 bits per byte
+     */
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * @modifies in
+     * @effects read an unsigned LEB128 varint written by writeVarInt()
+     */
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+
+    /**
+     * @effects return the id in CODECS of the built-in codec that can write all labels of tree
+     */
+    private static int codecIdOf(Tree<?> tree) {
+        if (tree.isEmpty()) {
+            return 0;
+        }
+        Class<?> type = tree.getRoot().getClass();
+        int id = type == String.class ? 1 : type == Integer.class ? 2 : type == File.class ? 3 : 0;
+        if (id != 0) {
+            for (Object label : tree) {
+                if (label.getClass() != type) {
+                    return 0;
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @Overview The serialized form of Tree: the comparator of the tree (which must be Serializable if it is not
+     * null), then the id of a built-in LabelCodec followed by the tree in the format of TreeCodec, written into the
+     * block data of the object stream.
+     */
+    static final class SerializedForm<E> implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private transient Tree<E> tree;
+        private final Comparator<? super E> comparator;
+
+        SerializedForm(Tree<E> tree) {
+            this.tree = tree;
+            this.comparator = tree.getComparator();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            int id = codecIdOf(tree);
+            out.writeByte(id);
+            write(tree, (DataOutput) out, (LabelCodec<? super E>) CODECS[id]);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            int id = in.readUnsignedByte();
+            if (id >= CODECS.length) {
+                throw new StreamCorruptedException("Unknown label codec: " + id);
+            }
+            tree = read((DataInput) in, (LabelCodec<E>) CODECS[id], comparator);
+        }
+
+        private Object readResolve() {
+            return tree;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package logicLayer.tree;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @Overview <pre>An edit script between two versions of a tree, made by Tree.diff() and replayed by Tree.apply().
+ *    A patch reports whole subtrees: a new subtree is inserted with all of its labels, a removed subtree is reported
+ *    by its top label only, and a node that gets a new parent (or a new place among its siblings) is moved together
+ *    with its subtree. The operations are ordered so that each one only refers to labels that are already in place,
+ *    i.e. they must be applied in order, to a tree that equals the one the patch was made from.
+ *    <p>Patches are Serializable, so they can be shipped instead of full snapshots, as long as the labels and the
+ *    edge weights are Serializable as well.</pre>
+ * @attributes <pre>
+ * operations       List<Operation<E>>
+ * </pre>
+ * @rep_invariant operations!=null
+ */
+public class TreePatch<E> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The kinds of operations of a patch.
+     */
+    public enum Type {
+        /**
+         * insert subtree as a child of parent, right after the sibling after (first if after is null)
+         */
+        INSERT,
+        /**
+         * remove label and its subtree
+         */
+        REMOVE,
+        /**
+         * move label and its subtree to parent, right after the sibling after (first if after is null)
+         */
+        MOVE,
+        /**
+         * set the weight of the parent edge of label (unless label is the root) and the value of label
+         */
+        UPDATE,
+        /**
+         * replace the whole tree with subtree, e.g. when the roots differ
+         */
+        REPLACE
+    }
+
+    /**
+     * @Overview <pre>One operation of a patch. Only the fields of its type are set:
+     *   INSERT     parent, after, subtree, weight (of the edge from parent to the root of subtree)
+     *   REMOVE     label
+     *   MOVE       label, parent, after
+     *   UPDATE     label, weight, value
+     *   REPLACE    subtree</pre>
+     */
+    public static final class Operation<E> implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final Type type;
+        private final E label;
+        private final E parent;
+        private final E after;
+        private final Tree<E> subtree;
+        private final Object weight;
+        private final double value;
+
+        private Operation(Type type, E label, E parent, E after, Tree<E> subtree, Object weight, double value) {
+            this.type = type;
+            this.label = label;
+            this.parent = parent;
+            this.after = after;
+            this.subtree = subtree;
+            this.weight = weight;
+            this.value = value;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @effects return the label this operation applies to, i.e. the root of subtree for INSERT and REPLACE, or
+         * null for a REPLACE with an empty tree
+         */
+        public E getLabel() {
+            if (subtree != null) {
+                return subtree.isEmpty() ? null : subtree.getRoot();
+            }
+            return label;
+        }
+
+        public E getParent() {
+            return parent;
+        }
+
+        public E getAfter() {
+            return after;
+        }
+
+        /**
+         * @effects return the inserted subtree (INSERT) or the new tree (REPLACE), which must not be modified
+         */
+        public Tree<E> getSubtree() {
+            return subtree;
+        }
+
+        public Object getWeight() {
+            return weight;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            String position = " under " + parent + (after != null ? " after " + after : " first");
+            switch (type) {
+                case INSERT:
+                    return "+ " + getLabel() + position + " (" + subtree.size() + " labels)";
+                case REMOVE:
+                    return "- " + label;
+                case MOVE:
+                    return "> " + label + position;
+                case UPDATE:
+                    return "~ " + label + " weight=" + weight + " value=" + value;
+                default:
+                    return "= " + (subtree.isEmpty() ? "empty tree" : subtree.getRoot() + " (" + subtree.size()
+                            + " labels)");
+            }
+        }
+    }
+
+    private final List<Operation<E>> operations = new ArrayList<>();
+
+    /**
+     * @effects init this as an empty patch
+     */
+    TreePatch() {
+    }
+
+    void insert(E parent, E after, Tree<E> subtree, Object weight) {
+        operations.add(new Operation<>(Type.INSERT, null, parent, after, subtree, weight, 0));
+    }
+
+    void remove(E label) {
+        operations.add(new Operation<>(Type.REMOVE, label, null, null, null, null, 0));
+    }
+
+    void move(E label, E parent, E after) {
+        operations.add(new Operation<>(Type.MOVE, label, parent, after, null, null, 0));
+    }
+
+    void update(E label, Object weight, double value) {
+        operations.add(new Operation<>(Type.UPDATE, label, null, null, null, weight, value));
+    }
+
+    void replace(Tree<E> tree) {
+        operations.add(new Operation<>(Type.REPLACE, null, null, null, tree, null, 0));
+    }
+
+    /**
+     * @effects return the operations of this patch in the order they must be applied
+     */
+    public List<Operation<E>> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    /**
+     * @effects return the number of operations of this patch
+     */
+    public int size() {
+        return operations.size();
+    }
+
+    /**
+     * @effects return true if this patch has no operations, i.e. both versions are equal
+     */
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /**
+     * @effects return the operations of this patch, one per line
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Operation<E> op : operations) {
+            sb.append(op).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,187 @@
+package logicLayer.tree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @Overview <pre>The text format of all tree classes, i.e. the one of Tree.toString(stylize):
+ *      root
+ *      ├───child
+ *      │   └───grandchild
+ *      └───last child
+ *    Each tree class supplies a Cursor over its own nodes, and print() renders them in a single depth-first pass which
+ *    carries the prefix of the current line ("│   " or "    " for each ancestor) in a reusable char buffer, so nothing
+ *    but the current path is kept in memory and each node costs O(1) besides writing its label and moving the cursor.
+ *    With stylize, the determiner of a file (not a directory) is "│   " or "╵   " instead of "├───" or "└───".</pre>
+ */
+final class TreeRenderer {
+    private static final String FORK = "├───";
+    private static final String CORNER = "└───";
+    private static final String FILE_FORK = "│   ";
+    private static final String FILE_CORNER = "╵   ";
+    private static final String BAR = "│   ";
+    private static final String BLANK = "    ";
+
+    /**
+     * @Overview <pre>A position in a tree that can move along first-child and next-sibling links and back up to the
+     *    parent. print() visits the nodes in pre-order and asks for the label of each one exactly once, right after
+     *    moving to it, so a cursor may decode its labels sequentially.</pre>
+     */
+    interface Cursor<E> {
+        /**
+         * @effects return the label of the current node
+         */
+        E label();
+
+        /**
+         * @modifies this
+         * @effects if the current node has children, move to the first one and return true, else return false
+         */
+        boolean firstChild();
+
+        /**
+         * @effects return true if the current node has a next sibling, else false
+         */
+        boolean hasNextSibling();
+
+        /**
+         * @modifies this
+         * @effects if the current node has a next sibling, move to it and return true, else return false
+         */
+        boolean nextSibling();
+
+        /**
+         * @requires the current node is not the one the cursor started at
+         * @modifies this
+         * @effects move to the parent of the current node
+         */
+        void parent();
+    }
+
+    private TreeRenderer() {
+    }
+
+    /**
+     * @requires cursor != null
+     * @modifies cursor
+     * @effects return the text that print(out, cursor, stylize) writes
+     */
+    static <E> String toString(Cursor<E> cursor, boolean stylize) {
+        return toString(cursor, null, false, stylize);
+    }
+
+    /**
+     * @requires cursor != null
+     * @modifies cursor
+     * @effects return the text that print(out, cursor, ancestors, hasRightSiblings, stylize) writes
+     */
+    static <E> String toString(Cursor<E> cursor, boolean[] ancestors, boolean hasRightSiblings, boolean stylize) {
+        StringWriter sw = new StringWriter();
+        try {
+            print(sw, cursor, ancestors, hasRightSiblings, stylize);
+        } catch (IOException e) {
+            throw new AssertionError(e);    // a StringWriter does not throw
+        }
+        return sw.toString();
+    }
+
+    /**
+     * @requires out != null /\ cursor != null
+     * @modifies out, cursor
+     * @effects print(out, cursor, null, false, stylize), i.e. render the subtree of the current node of cursor as a
+     * whole tree
+     */
+    static <E> void print(Writer out, Cursor<E> cursor, boolean stylize) throws IOException {
+        print(out, cursor, null, false, stylize);
+    }
+
+    /**
+     * Write the lines of the current node of cursor and its subtree. The cursor is back at that node afterwards.
+     * @param ancestors for each ancestor of the current node below the root, from the top, whether it has a next
+     *                  sibling; or null to render the current node as the root
+     * @param hasRightSiblings whether the current node has a next sibling, used only if ancestors != null
+     * @requires out != null /\ cursor != null
+     * @modifies out, cursor
+     * @effects <pre>
+     *   if ancestors != null
+     *     write ("│   " or "    ") for each of ancestors, the determiner of the current node
+     *   write the label of the current node
+     *   for all node n in pre-order traversal of the subtree of the current node (except itself)
+     *     write \n, the prefix of the parent of n, the determiner of n, the label of n
+     *   flush out
+     * </pre>
+     */
+    static <E> void print(Writer out, Cursor<E> cursor, boolean[] ancestors, boolean hasRightSiblings,
+                          boolean stylize) throws IOException {
+        char[] prefix = new char[64];
+        int prefixLength = 0;
+        E label = cursor.label();
+        if (ancestors != null) {
+            prefix = new char[Math.max(prefix.length, 4 * ancestors.length + 4)];
+            for (boolean a : ancestors) {
+                (a ? BAR : BLANK).getChars(0, 4, prefix, prefixLength);
+                prefixLength += 4;
+            }
+            out.write(prefix, 0, prefixLength);
+            printDeterminer(out, label, hasRightSiblings, stylize);
+            (hasRightSiblings ? BAR : BLANK).getChars(0, 4, prefix, prefixLength);
+            prefixLength += 4;
+        }
+        printLabel(out, label);
+
+        int depth = 0;      // of the current node, below the one the cursor started at
+        if (cursor.firstChild()) {
+            depth = 1;
+        }
+        while (depth > 0) {
+            label = cursor.label();
+            hasRightSiblings = cursor.hasNextSibling();
+            out.write('\n');
+            out.write(prefix, 0, prefixLength);
+            printDeterminer(out, label, hasRightSiblings, stylize);
+            printLabel(out, label);
+            if (cursor.firstChild()) {
+                if (prefixLength + 4 > prefix.length) {
+                    prefix = Arrays.copyOf(prefix, prefix.length * 2);
+                }
+                (hasRightSiblings ? BAR : BLANK).getChars(0, 4, prefix, prefixLength);
+                prefixLength += 4;
+                depth++;
+                continue;
+            }
+            while (depth > 0 && !cursor.nextSibling()) {
+                cursor.parent();
+                if (--depth > 0) {
+                    prefixLength -= 4;      // leaving a subtree that is not the one of the start node
+                }
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * @requires out != null
+     * @effects write the determiner of a node with the given label, i.e. "├───" or "└───", or "│   " or "╵   " for a
+     * file if stylize is true
+     */
+    private static void printDeterminer(Writer out, Object label, boolean hasRightSiblings, boolean stylize)
+            throws IOException {
+        if (stylize && label instanceof File && ((File) label).isFile()) {
+            out.write(hasRightSiblings ? FILE_FORK : FILE_CORNER);
+        } else {
+            out.write(hasRightSiblings ? FORK : CORNER);
+        }
+    }
+
+    /**
+     * @effects write the name of label to out if it is a File, otherwise write label
+     */
+    private static void printLabel(Writer out, Object label) throws IOException {
+        out.write(label instanceof File ? ((File) label).getName() : String.valueOf(label));
+    }
+}
@@ -0,0 +1,71 @@
+package logicLayer.tree;
+
+import java.util.Arrays;
+
+/**
+ * @author Phan Quang Tuan
+ * @version 1.0
+ * @Overview Represents the depth statistics of a tree, computed by <code>Tree.getStatistics()</code> in a single pass.
+ * @attributes <pre>
+ * levels       int[]   level of each node in pre-order traversal
+ * widths       int[]   widths[d] is the number of nodes at level d
+ * degrees      int[]   degrees[k] is the number of nodes that have exactly k children
+ * </pre>
+ * @Object a typical TreeStatistics is S:<l, w, d> where l is levels, w is widths, d is degrees
+ * @rep_invariant levels!=null /\ widths!=null /\ degrees!=null /\ sum(widths) = sum(degrees) = levels.length
+ */
+public class TreeStatistics {
+    private final int[] levels;
+    private final int[] widths;
+    private final int[] degrees;
+
+    /**
+     * @requires levels!=null /\ widths!=null /\ degrees!=null
+     * @effects initialise this as S:<levels, widths, degrees>
+     */
+    TreeStatistics(int[] levels, int[] widths, int[] degrees) {
+        this.levels = levels;
+        this.widths = widths;
+        this.degrees = degrees;
+    }
+
+    /**
+     * @effects return a copy of the level of each node in pre-order traversal
+     */
+    public int[] getLevels() {
+        return levels.clone();
+    }
+
+    /**
+     * @effects return a copy of the width histogram, i.e. the number of nodes at each level
+     */
+    public int[] getWidths() {
+        return widths.clone();
+    }
+
+    /**
+     * @effects return a copy of the degree histogram, i.e. the number of nodes that have exactly k children at index k
+     */
+    public int[] getDegrees() {
+        return degrees.clone();
+    }
+
+    /**
+     * @effects return the number of nodes at the given level, or 0 if there is no such level
+     */
+    public int getWidth(int level) {
+        return level >= 0 && level < widths.length ? widths[level] : 0;
+    }
+
+    /**
+     * @effects return the maximum number of nodes at the same level
+     */
+    public int getMaxWidth() {
+        return Arrays.stream(widths).max().orElse(0);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + ":<" + Arrays.toString(widths) + ", " + Arrays.toString(degrees) + ">";
+    }
+}